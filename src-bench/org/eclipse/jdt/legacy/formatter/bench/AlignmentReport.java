@@ -0,0 +1,178 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jdt.legacy.formatter.batch.FormatBatch;
+import org.eclipse.jdt.luna.formatter.DefaultCodeFormatter;
+import org.eclipse.jdt.luna.formatter.align.Alignment;
+import org.eclipse.jdt.luna.formatter.align.AlignmentStatistics;
+
+/**
+ * Formats Java files with the Luna formatter and reports the files that cost
+ * it the most alignment backtracking, see {@link AlignmentStatistics}.
+ *
+ * <pre>
+ * AlignmentReport [--config file] [--encoding charset] [--top count] [--details] path...
+ * </pre>
+ *
+ * A line per file reports the alignment retries, the alignment exceptions,
+ * the tokens printed again, the deepest alignment nesting, the formatting
+ * time and the alignment kind retried the most. Files are sorted by retries,
+ * the most first. With {@code --details}, the counters of every alignment kind
+ * follow the line of each file.
+ */
+public final class AlignmentReport extends CommandLineTool {
+
+	private static final int DEFAULT_TOP = 20;
+	private static final int KIND = CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS;
+	private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+	private static final double MILLISECOND = 1e6;
+
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private int top = DEFAULT_TOP;
+	private boolean details;
+	private final List<Path> roots = new ArrayList<>();
+
+	private AlignmentReport(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Prints the report for the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to print the report
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new AlignmentReport(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else if ("--top".equals(option)) { //$NON-NLS-1$
+			this.top = arguments.nextInt();
+		} else if ("--details".equals(option)) { //$NON-NLS-1$
+			this.details = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.top >= 1, "--top must be positive"); //$NON-NLS-1$
+		require(!this.roots.isEmpty(), "No files or directories given"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: AlignmentReport [options] path..."); //$NON-NLS-1$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+		stream.println("  --top count         number of files reported, " + DEFAULT_TOP + " by default"); //$NON-NLS-1$ //$NON-NLS-2$
+		stream.println("  --details           print the counters of every alignment kind"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		final DefaultCodeFormatter formatter = (DefaultCodeFormatter) FormatterEngine.LUNA
+				.createFormatter(FormatterBenchmark.loadSettings(this.config));
+		final List<Path> files = FormatBatch.findJavaFiles(this.roots);
+		final List<FileReport> reports = new ArrayList<>(files.size());
+		for (final Path file : files) {
+			final String source = new String(Files.readAllBytes(file), this.encoding);
+			final long start = System.nanoTime();
+			boolean formatted;
+			try {
+				formatted = formatter.format(KIND, source, 0, source.length(), 0, LINE_SEPARATOR) != null;
+			} catch (final RuntimeException e) {
+				formatted = false;
+			}
+			reports.add(new FileReport(file, System.nanoTime() - start, formatted,
+					formatter.getAlignmentStatistics()));
+		}
+		Collections.sort(reports, new Comparator<FileReport>() {
+			@Override
+			public int compare(final FileReport a, final FileReport b) {
+				return Integer.compare(b.statistics.getTotalRetries(), a.statistics.getTotalRetries());
+			}
+		});
+
+		this.out.println(String.format(Locale.ROOT, "%9s %10s %12s %9s %9s  %-36s %s", //$NON-NLS-1$
+				"retries", "exceptions", "reprinted", "max depth", "ms", "most retried", "file")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		for (final FileReport report : reports.subList(0, Math.min(this.top, reports.size()))) {
+			final AlignmentStatistics statistics = report.statistics;
+			this.out.println(String.format(Locale.ROOT, "%9d %10d %12d %9d %9.1f  %-36s %s%s", //$NON-NLS-1$
+					statistics.getTotalRetries(), statistics.getTotalExceptions(),
+					statistics.getTotalReprintedTokens(), statistics.getMaxDepth(), report.elapsedNanos / MILLISECOND,
+					mostRetried(statistics), report.file, report.formatted ? "" : "  (not formatted)")); //$NON-NLS-1$ //$NON-NLS-2$
+			if (this.details) {
+				this.out.println(statistics);
+			}
+		}
+		return EXIT_OK;
+	}
+
+	private static String mostRetried(final AlignmentStatistics statistics) {
+		int mostRetried = 0;
+		for (int kind = 1; kind < Alignment.NAMES.length; kind++) {
+			if (statistics.getRetries(kind) > statistics.getRetries(mostRetried)) {
+				mostRetried = kind;
+			}
+		}
+		return mostRetried == 0 ? "-" : Alignment.NAMES[mostRetried]; //$NON-NLS-1$
+	}
+
+	private static final class FileReport {
+
+		final Path file;
+		final long elapsedNanos;
+		final boolean formatted;
+		final AlignmentStatistics statistics;
+
+		FileReport(final Path file, final long elapsedNanos, final boolean formatted,
+				final AlignmentStatistics statistics) {
+			super();
+			this.file = file;
+			this.elapsedNanos = elapsedNanos;
+			this.formatted = formatted;
+			this.statistics = statistics;
+		}
+	}
+}
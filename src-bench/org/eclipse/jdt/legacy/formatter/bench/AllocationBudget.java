@@ -0,0 +1,302 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.ThreadAllocation;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jdt.legacy.formatter.batch.FormatBatch;
+
+/**
+ * Checks that the memory allocated by each engine to format a thousand lines
+ * stays within a budget, so that allocation regressions are caught before a
+ * release.
+ *
+ * <pre>
+ * AllocationBudget [--engine luna|neon]... [--budget file] [--config file] [--encoding charset]
+ *                  [--passes count] [--update] [path...]
+ * </pre>
+ *
+ * The files found under the given paths are formatted as compilation units
+ * until allocation is stable, then once more per pass, and the smallest
+ * amount allocated by a pass is divided by the number of lines. Without paths,
+ * the {@link PathologicalSource generated sources} are formatted, which is
+ * what the {@code allocation-budget.properties} budget next to this class is
+ * measured on. The budget file holds a {@code <engine>.bytesPerKloc} key per
+ * engine.
+ * <p>
+ * The exit code is {@link #EXIT_OVER_BUDGET} if an engine allocates more than
+ * its budget, and {@link #EXIT_ERROR} if a source cannot be formatted or the
+ * allocation counter of the VM is disabled, since nothing would be measured
+ * then. With {@code --update}, the budget file given with
+ * {@code --budget} is written instead, with {@value #UPDATE_HEADROOM_PERCENT}%
+ * of headroom over what was measured.
+ */
+public final class AllocationBudget extends CommandLineTool {
+
+	/** Exit code when an engine allocates more than its budget. */
+	public static final int EXIT_OVER_BUDGET = 1;
+
+	/** How much more than measured is allowed when updating the budget. */
+	public static final int UPDATE_HEADROOM_PERCENT = 10;
+
+	private static final String DEFAULT_BUDGET = "allocation-budget.properties"; //$NON-NLS-1$
+	private static final String BUDGET_SUFFIX = ".bytesPerKloc"; //$NON-NLS-1$
+	private static final int GENERATED_SIZE = 64;
+	private static final int WARMUP_PASSES = 10;
+	private static final int DEFAULT_PASSES = 5;
+	private static final int KIND = CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS;
+	private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+
+	private final Set<FormatterEngine> engines = EnumSet.noneOf(FormatterEngine.class);
+	private Path budget;
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private int passes = DEFAULT_PASSES;
+	private boolean update;
+	private final List<Path> roots = new ArrayList<>();
+
+	private AllocationBudget(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Checks the budget with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new AllocationBudget(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engines.add(FormatterEngine.fromName(arguments.nextValue()));
+		} else if ("--budget".equals(option)) { //$NON-NLS-1$
+			this.budget = arguments.nextPath();
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else if ("--passes".equals(option)) { //$NON-NLS-1$
+			this.passes = arguments.nextInt();
+		} else if ("--update".equals(option)) { //$NON-NLS-1$
+			this.update = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.passes >= 1, "--passes must be positive"); //$NON-NLS-1$
+		require(!this.update || this.budget != null, "--update needs the --budget file to write"); //$NON-NLS-1$
+		if (this.engines.isEmpty()) {
+			this.engines.addAll(EnumSet.allOf(FormatterEngine.class));
+		}
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: AllocationBudget [options] [path...]"); //$NON-NLS-1$
+		stream.println("  --engine luna|neon  engine to check, may be repeated, all by default"); //$NON-NLS-1$
+		stream.println("  --budget file       budget to check, the one for the generated sources by default"); //$NON-NLS-1$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+		stream.println("  --passes count      measured passes over the sources, " + DEFAULT_PASSES //$NON-NLS-1$
+				+ " by default"); //$NON-NLS-1$
+		stream.println("  --update            write the measured budget to the --budget file"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		if (!ThreadAllocation.isSupported()) {
+			this.err.println("This VM cannot measure the memory allocated by a thread"); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+		final List<String> sources = loadSources();
+		long lines = 0;
+		for (final String source : sources) {
+			lines += countLines(source);
+		}
+		// updating keeps the budget of the engines not measured
+		final Properties budgets = this.update && !Files.exists(this.budget) ? new Properties() : loadBudget();
+		final Map<String, String> settings = FormatterBenchmark.loadSettings(this.config);
+
+		this.out.println(String.format(Locale.ROOT, "%-6s %8s %16s %16s %8s  %s", //$NON-NLS-1$
+				"engine", "lines", "bytes per KLOC", "budget", "used", "result")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		int exitCode = EXIT_OK;
+		for (final FormatterEngine engine : this.engines) {
+			final long allocated = measure(engine, engine.createFormatter(settings), sources);
+			if (allocated < 0) {
+				return EXIT_ERROR;
+			}
+			final long bytesPerKloc = allocated * 1000 / Math.max(lines, 1);
+			final String key = engine.name().toLowerCase(Locale.ROOT) + BUDGET_SUFFIX;
+			if (this.update) {
+				budgets.setProperty(key, Long.toString(bytesPerKloc * (100 + UPDATE_HEADROOM_PERCENT) / 100));
+				printResult(engine, lines, bytesPerKloc, -1, "measured"); //$NON-NLS-1$
+				continue;
+			}
+			final String limit = budgets.getProperty(key);
+			if (limit == null) {
+				printResult(engine, lines, bytesPerKloc, -1, "no budget"); //$NON-NLS-1$
+				continue;
+			}
+			final long budgetBytes = parseBudget(key, limit);
+			if (bytesPerKloc > budgetBytes) {
+				printResult(engine, lines, bytesPerKloc, budgetBytes, "OVER BUDGET"); //$NON-NLS-1$
+				exitCode = EXIT_OVER_BUDGET;
+			} else {
+				printResult(engine, lines, bytesPerKloc, budgetBytes, "ok"); //$NON-NLS-1$
+			}
+		}
+		if (this.update) {
+			try (OutputStream stream = Files.newOutputStream(this.budget)) {
+				budgets.store(stream, "Bytes allocated per 1000 lines formatted, checked by AllocationBudget"); //$NON-NLS-1$
+			}
+		}
+		return exitCode;
+	}
+
+	private List<String> loadSources() throws IOException {
+		final List<String> sources = new ArrayList<>();
+		if (this.roots.isEmpty()) {
+			for (final PathologicalSource source : PathologicalSource.values()) {
+				sources.add(source.generate(GENERATED_SIZE));
+			}
+		} else {
+			for (final Path file : FormatBatch.findJavaFiles(this.roots)) {
+				sources.add(new String(Files.readAllBytes(file), this.encoding));
+			}
+			if (sources.isEmpty()) {
+				throw new IOException("No Java files found"); //$NON-NLS-1$
+			}
+		}
+		return sources;
+	}
+
+	private Properties loadBudget() throws IOException {
+		final Properties budgets = new Properties();
+		try (InputStream stream = this.budget != null ? Files.newInputStream(this.budget)
+				: AllocationBudget.class.getResourceAsStream(DEFAULT_BUDGET)) {
+			if (stream == null) {
+				throw new IOException("Missing " + DEFAULT_BUDGET); //$NON-NLS-1$
+			}
+			budgets.load(stream);
+		}
+		return budgets;
+	}
+
+	private static long parseBudget(final String key, final String value) throws IOException {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (final NumberFormatException e) {
+			throw new IOException("Invalid budget for " + key + ": " + value, e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/**
+	 * @return the fewest bytes allocated by a pass over the sources, once
+	 *         warmed up, or -1 if it could not be measured
+	 */
+	private long measure(final FormatterEngine engine, final CodeFormatter formatter, final List<String> sources) {
+		// until the JIT is done, escape analysis keeps changing what is allocated
+		for (int i = 0; i < WARMUP_PASSES; i++) {
+			if (!formatAll(engine, formatter, sources)) {
+				return -1;
+			}
+		}
+		long fewest = Long.MAX_VALUE;
+		for (int i = 0; i < this.passes; i++) {
+			final long start = ThreadAllocation.getAllocatedBytes();
+			if (!formatAll(engine, formatter, sources)) {
+				return -1;
+			}
+			final long end = ThreadAllocation.getAllocatedBytes();
+			if (start < 0 || end < 0) {
+				this.err.println("Thread allocation measurement is disabled in this VM"); //$NON-NLS-1$
+				return -1;
+			}
+			fewest = Math.min(fewest, end - start);
+		}
+		return fewest;
+	}
+
+	/**
+	 * @return whether all the sources were formatted; a failure would allocate
+	 *         less and hide a regression
+	 */
+	private boolean formatAll(final FormatterEngine engine, final CodeFormatter formatter,
+			final List<String> sources) {
+		for (int i = 0; i < sources.size(); i++) {
+			final String source = sources.get(i);
+			String failure = "no result"; //$NON-NLS-1$
+			try {
+				if (formatter.format(KIND, source, 0, source.length(), 0, LINE_SEPARATOR) != null) {
+					continue;
+				}
+			} catch (final RuntimeException e) {
+				failure = e.toString();
+			}
+			this.err.println(engine.name().toLowerCase(Locale.ROOT) + ": cannot format source " + (i + 1) //$NON-NLS-1$
+					+ ": " + failure); //$NON-NLS-1$
+			return false;
+		}
+		return true;
+	}
+
+	private static int countLines(final String source) {
+		int lines = source.isEmpty() || source.endsWith("\n") ? 0 : 1; //$NON-NLS-1$
+		for (int i = 0; i < source.length(); i++) {
+			if (source.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	private void printResult(final FormatterEngine engine, final long lines, final long bytesPerKloc,
+			final long budgetBytes, final String result) {
+		this.out.println(String.format(Locale.ROOT, "%-6s %8d %16d %16s %8s  %s", //$NON-NLS-1$
+				engine.name().toLowerCase(Locale.ROOT), lines, bytesPerKloc,
+				budgetBytes < 0 ? "-" : Long.toString(budgetBytes), //$NON-NLS-1$
+				budgetBytes <= 0 ? "-" : String.format(Locale.ROOT, "%.0f%%", 100.0 * bytesPerKloc / budgetBytes), //$NON-NLS-1$ //$NON-NLS-2$
+				result));
+	}
+}
@@ -0,0 +1,149 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.Comment;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.ReturnStatement;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.legacy.formatter.batch.FormatBatch;
+
+/**
+ * The code a benchmark formats: source files, and the snippets of every other
+ * {@link BenchmarkKind} found in them, so that all kinds are measured on the
+ * same realistic code.
+ */
+public final class BenchmarkCorpus {
+
+	private final Map<BenchmarkKind, List<String>> snippets = new EnumMap<>(BenchmarkKind.class);
+
+	private BenchmarkCorpus() {
+		super();
+		for (final BenchmarkKind kind : BenchmarkKind.values()) {
+			this.snippets.put(kind, new ArrayList<String>());
+		}
+	}
+
+	/**
+	 * Reads the Java files found under the given paths.
+	 *
+	 * @param roots    source files or directories to search for them
+	 * @param encoding the encoding of the files
+	 * @return the corpus
+	 * @throws IOException if a file cannot be read
+	 */
+	public static BenchmarkCorpus load(final List<Path> roots, final Charset encoding) throws IOException {
+		final BenchmarkCorpus corpus = new BenchmarkCorpus();
+		for (final Path file : FormatBatch.findJavaFiles(roots)) {
+			corpus.add(new String(Files.readAllBytes(file), encoding));
+		}
+		return corpus;
+	}
+
+	/**
+	 * Creates a corpus from sources held in memory.
+	 *
+	 * @param sources the contents of Java source files
+	 * @return the corpus
+	 */
+	public static BenchmarkCorpus of(final List<String> sources) {
+		final BenchmarkCorpus corpus = new BenchmarkCorpus();
+		for (final String source : sources) {
+			corpus.add(source);
+		}
+		return corpus;
+	}
+
+	/**
+	 * @param kind a kind of code
+	 * @return the snippets of that kind, in the order they were found
+	 */
+	public List<String> getSnippets(final BenchmarkKind kind) {
+		return Collections.unmodifiableList(this.snippets.get(kind));
+	}
+
+	private void add(final String source) {
+		this.snippets.get(BenchmarkKind.COMPILATION_UNIT).add(source);
+
+		// the source level comes from the compiler options, the latest AST level can represent all of them
+		final ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+		final Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, options);
+		parser.setCompilerOptions(options);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setSource(source.toCharArray());
+		final CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+
+		unit.accept(new ASTVisitor() {
+			@Override
+			public boolean visit(final TypeDeclaration node) {
+				addRange(BenchmarkKind.CLASS_BODY_DECLARATIONS, source, node.bodyDeclarations());
+				return true;
+			}
+
+			@Override
+			public boolean visit(final MethodDeclaration node) {
+				final Block body = node.getBody();
+				if (body != null) {
+					addRange(BenchmarkKind.STATEMENTS, source, body.statements());
+				}
+				return true;
+			}
+
+			@Override
+			public boolean visit(final VariableDeclarationFragment node) {
+				addNode(BenchmarkKind.EXPRESSION, source, node.getInitializer());
+				return true;
+			}
+
+			@Override
+			public boolean visit(final ReturnStatement node) {
+				addNode(BenchmarkKind.EXPRESSION, source, node.getExpression());
+				return true;
+			}
+		});
+
+		for (final Object element : unit.getCommentList()) {
+			final Comment comment = (Comment) element;
+			final BenchmarkKind kind = comment.isDocComment() ? BenchmarkKind.JAVADOC
+					: comment.isBlockComment() ? BenchmarkKind.BLOCK_COMMENT : BenchmarkKind.LINE_COMMENT;
+			addNode(kind, source, comment);
+		}
+	}
+
+	private void addNode(final BenchmarkKind kind, final String source, final ASTNode node) {
+		// recovered nodes have no position
+		if (node != null && node.getStartPosition() >= 0) {
+			final int start = node.getStartPosition();
+			this.snippets.get(kind).add(source.substring(start, start + node.getLength()));
+		}
+	}
+
+	private void addRange(final BenchmarkKind kind, final String source, final List<?> nodes) {
+		if (nodes.isEmpty()) {
+			return;
+		}
+		final ASTNode first = (ASTNode) nodes.get(0);
+		final ASTNode last = (ASTNode) nodes.get(nodes.size() - 1);
+		if (first.getStartPosition() >= 0) {
+			this.snippets.get(kind).add(source.substring(first.getStartPosition(),
+					last.getStartPosition() + last.getLength()));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+
+/**
+ * The kinds of code a benchmark formats, one per formatter {@code K_*} kind.
+ */
+public enum BenchmarkKind {
+
+	/** Whole source files. */
+	COMPILATION_UNIT("unit", CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS), //$NON-NLS-1$
+	/** The members of type declarations. */
+	CLASS_BODY_DECLARATIONS("class-body", //$NON-NLS-1$
+			CodeFormatter.K_CLASS_BODY_DECLARATIONS | CodeFormatter.F_INCLUDE_COMMENTS),
+	/** The statements of method bodies. */
+	STATEMENTS("statements", CodeFormatter.K_STATEMENTS | CodeFormatter.F_INCLUDE_COMMENTS), //$NON-NLS-1$
+	/** Variable initializers and returned values. */
+	EXPRESSION("expression", CodeFormatter.K_EXPRESSION), //$NON-NLS-1$
+	/** Javadoc comments. */
+	JAVADOC("javadoc", CodeFormatter.K_JAVA_DOC), //$NON-NLS-1$
+	/** Block comments. */
+	BLOCK_COMMENT("block-comment", CodeFormatter.K_MULTI_LINE_COMMENT), //$NON-NLS-1$
+	/** Line comments. */
+	LINE_COMMENT("line-comment", CodeFormatter.K_SINGLE_LINE_COMMENT); //$NON-NLS-1$
+
+	private final String displayName;
+	private final int formatterKind;
+
+	private BenchmarkKind(final String displayName, final int formatterKind) {
+		this.displayName = displayName;
+		this.formatterKind = formatterKind;
+	}
+
+	/**
+	 * @return the name used on the command line and in reports
+	 */
+	public String getDisplayName() {
+		return this.displayName;
+	}
+
+	/**
+	 * @return the kind to give to {@link CodeFormatter#format}
+	 */
+	public int getFormatterKind() {
+		return this.formatterKind;
+	}
+
+	/**
+	 * Finds the kind with the given display name.
+	 *
+	 * @param name the display name, e.g. {@code unit} or {@code javadoc}
+	 * @return the kind
+	 * @throws IllegalArgumentException if there is no kind with that name
+	 */
+	public static BenchmarkKind fromName(final String name) {
+		for (final BenchmarkKind kind : values()) {
+			if (kind.displayName.equals(name)) {
+				return kind;
+			}
+		}
+		throw new IllegalArgumentException("Unknown benchmark kind: " + name); //$NON-NLS-1$
+	}
+}
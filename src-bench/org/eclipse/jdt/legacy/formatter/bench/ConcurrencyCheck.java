@@ -0,0 +1,275 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Checks that one Neon formatter instance gives the same results when it is
+ * called from many threads at once as when it is called from a single thread.
+ *
+ * <pre>
+ * ConcurrencyCheck [--threads n] [--rounds n] [--kind name]... [--config file]
+ *                  [--encoding charset] path...
+ * </pre>
+ *
+ * The snippets of the corpus, see {@link BenchmarkCorpus}, are first formatted
+ * one after the other to get the expected results. All the threads then format
+ * them again with the same formatter, each thread starting at a different
+ * snippet so that different sources are formatted at the same time. The exit
+ * code is {@link #EXIT_MISMATCH} if any result differs from the expected one.
+ */
+public final class ConcurrencyCheck extends CommandLineTool {
+
+	/** Exit code when a concurrent result differs from the single-threaded one. */
+	public static final int EXIT_MISMATCH = 1;
+
+	private static final int DEFAULT_ROUNDS = 3;
+	private static final int MINIMUM_DEFAULT_THREADS = 4;
+	private static final int REPORTED_MISMATCHES = 10;
+	private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+	// no formatted Java code starts like this
+	private static final String FAILURE_PREFIX = "failed: "; //$NON-NLS-1$
+
+	private int threads = Math.max(MINIMUM_DEFAULT_THREADS, Runtime.getRuntime().availableProcessors());
+	private int rounds = DEFAULT_ROUNDS;
+	private final Set<BenchmarkKind> kinds = EnumSet.noneOf(BenchmarkKind.class);
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private final List<Path> roots = new ArrayList<>();
+
+	private ConcurrencyCheck(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the check with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new ConcurrencyCheck(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--threads".equals(option)) { //$NON-NLS-1$
+			this.threads = arguments.nextInt();
+		} else if ("--rounds".equals(option)) { //$NON-NLS-1$
+			this.rounds = arguments.nextInt();
+		} else if ("--kind".equals(option)) { //$NON-NLS-1$
+			this.kinds.add(BenchmarkKind.fromName(arguments.nextValue()));
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.threads >= 2, "--threads must be at least 2"); //$NON-NLS-1$
+		require(this.rounds >= 1, "--rounds must be positive"); //$NON-NLS-1$
+		require(!this.roots.isEmpty(), "No files or directories given"); //$NON-NLS-1$
+		if (this.kinds.isEmpty()) {
+			this.kinds.addAll(EnumSet.allOf(BenchmarkKind.class));
+		}
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: ConcurrencyCheck [options] path..."); //$NON-NLS-1$
+		stream.println("  --threads n         threads sharing the formatter, one per processor but at least " //$NON-NLS-1$
+				+ MINIMUM_DEFAULT_THREADS + " by default"); //$NON-NLS-1$
+		stream.println("  --rounds n          times each thread formats all the snippets, " //$NON-NLS-1$
+				+ DEFAULT_ROUNDS + " by default"); //$NON-NLS-1$
+		stream.println("  --kind name         kind of code to format, may be repeated, all by default:"); //$NON-NLS-1$
+		final StringBuilder names = new StringBuilder("                      "); //$NON-NLS-1$
+		for (final BenchmarkKind kind : BenchmarkKind.values()) {
+			names.append(' ').append(kind.getDisplayName());
+		}
+		stream.println(names);
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException, InterruptedException {
+		final Map<String, String> settings = FormatterBenchmark.loadSettings(this.config);
+		final BenchmarkCorpus corpus = BenchmarkCorpus.load(this.roots, this.encoding);
+		final List<Snippet> snippets = new ArrayList<>();
+		for (final BenchmarkKind kind : this.kinds) {
+			for (final String source : corpus.getSnippets(kind)) {
+				snippets.add(new Snippet(kind, source));
+			}
+		}
+		if (snippets.isEmpty()) {
+			throw new IOException("No snippets found"); //$NON-NLS-1$
+		}
+
+		final CodeFormatter formatter = FormatterEngine.NEON.createFormatter(settings);
+		final List<String> expected = new ArrayList<>(snippets.size());
+		for (final Snippet snippet : snippets) {
+			expected.add(format(formatter, snippet));
+		}
+
+		final List<Mismatch> mismatches = formatConcurrently(formatter, snippets, expected);
+		for (int i = 0; i < mismatches.size() && i < REPORTED_MISMATCHES; i++) {
+			final Mismatch mismatch = mismatches.get(i);
+			final Snippet snippet = snippets.get(mismatch.index);
+			this.out.println(String.format(Locale.ROOT, "thread %d: %s snippet %d differs: expected %s, got %s", //$NON-NLS-1$
+					Integer.valueOf(mismatch.thread), snippet.kind.getDisplayName(), Integer.valueOf(mismatch.index),
+					describe(expected.get(mismatch.index)), describe(mismatch.actual)));
+		}
+		this.out.println(String.format(Locale.ROOT, "%d snippets, %d calls on %d threads, %d mismatches", //$NON-NLS-1$
+				Integer.valueOf(snippets.size()), Long.valueOf((long) snippets.size() * this.rounds * this.threads),
+				Integer.valueOf(this.threads), Integer.valueOf(mismatches.size())));
+		return mismatches.isEmpty() ? EXIT_OK : EXIT_MISMATCH;
+	}
+
+	private List<Mismatch> formatConcurrently(final CodeFormatter formatter, final List<Snippet> snippets,
+			final List<String> expected) throws InterruptedException, IOException {
+		// all the threads start together so that they contend from the first call
+		final CyclicBarrier start = new CyclicBarrier(this.threads);
+		final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			final List<Future<List<Mismatch>>> futures = new ArrayList<>(this.threads);
+			for (int t = 0; t < this.threads; t++) {
+				final int thread = t;
+				final int offset = (int) ((long) snippets.size() * thread / this.threads);
+				futures.add(executor.submit(new Callable<List<Mismatch>>() {
+					@Override
+					public List<Mismatch> call() throws InterruptedException, BrokenBarrierException {
+						final List<Mismatch> found = new ArrayList<>();
+						start.await();
+						for (int round = 0; round < ConcurrencyCheck.this.rounds; round++) {
+							for (int i = 0; i < snippets.size(); i++) {
+								final int index = (offset + i) % snippets.size();
+								final String actual = format(formatter, snippets.get(index));
+								if (!Objects.equals(expected.get(index), actual)) {
+									found.add(new Mismatch(thread, index, actual));
+								}
+							}
+						}
+						return found;
+					}
+				}));
+			}
+			final List<Mismatch> mismatches = new ArrayList<>();
+			for (final Future<List<Mismatch>> future : futures) {
+				mismatches.addAll(future.get());
+			}
+			return mismatches;
+		} catch (final ExecutionException e) {
+			throw new IOException("A formatting thread failed", e.getCause()); //$NON-NLS-1$
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the formatted snippet, {@code null} if it could not be formatted,
+	 *         or the failure, so that failures are compared too
+	 */
+	private static String format(final CodeFormatter formatter, final Snippet snippet) {
+		final TextEdit edit;
+		try {
+			edit = formatter.format(snippet.kind.getFormatterKind(), snippet.source, 0, snippet.source.length(), 0,
+					LINE_SEPARATOR);
+		} catch (final RuntimeException e) {
+			return FAILURE_PREFIX + e;
+		}
+		if (edit == null) {
+			return null;
+		}
+		final IDocument document = new Document(snippet.source);
+		try {
+			edit.apply(document, TextEdit.NONE);
+		} catch (final MalformedTreeException | BadLocationException e) {
+			return FAILURE_PREFIX + e;
+		}
+		return document.get();
+	}
+
+	private static String describe(final String result) {
+		if (result == null) {
+			return "no result"; //$NON-NLS-1$
+		}
+		if (result.startsWith(FAILURE_PREFIX)) {
+			return result;
+		}
+		return result.length() + " characters"; //$NON-NLS-1$
+	}
+
+	private static final class Snippet {
+
+		final BenchmarkKind kind;
+		final String source;
+
+		Snippet(final BenchmarkKind kind, final String source) {
+			super();
+			this.kind = kind;
+			this.source = source;
+		}
+	}
+
+	private static final class Mismatch {
+
+		final int thread;
+		final int index;
+		final String actual;
+
+		Mismatch(final int thread, final int index, final String actual) {
+			super();
+			this.thread = thread;
+			this.index = index;
+			this.actual = actual;
+		}
+	}
+}
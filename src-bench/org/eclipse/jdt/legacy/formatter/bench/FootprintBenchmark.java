@@ -0,0 +1,288 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.ToolFactory;
+import org.eclipse.jdt.core.compiler.IScanner;
+import org.eclipse.jdt.core.compiler.ITerminalSymbols;
+import org.eclipse.jdt.core.compiler.InvalidInputException;
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jdt.legacy.formatter.batch.FormatBatch;
+import org.eclipse.jdt.neon.formatter.FormatterListener;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Measures the heap a formatter needs to format a very large source, as a
+ * baseline for memory reduction work.
+ *
+ * <pre>
+ * FootprintBenchmark [--engine luna|neon]... [--lines count] [--config file] [--encoding charset] [path...]
+ * </pre>
+ *
+ * Without paths, a source of the given number of lines, 100000 by default, is
+ * generated. For each engine and source, a line reports:
+ * <ul>
+ * <li>the peak heap: the sum of the peak usage of the heap memory pools during
+ * the call, above the heap in use before it. It includes garbage not
+ * collected yet, so it depends on the heap size, which should be close to the
+ * one of the IDE.</li>
+ * <li>the retained heap: the most memory still reachable when measured after
+ * a full collection, above the heap in use before the call. The Neon formatter
+ * is measured after each phase of the call, which covers its tokens with their
+ * wrap policies and internal structure lists, and the phase with the most is
+ * reported. The Luna formatter is measured once the call is over, while it still
+ * holds the edits of its scribe.</li>
+ * </ul>
+ * Both are also reported per token of the source and per character of the
+ * source.
+ */
+public final class FootprintBenchmark extends CommandLineTool {
+
+	private static final int DEFAULT_LINES = 100000;
+	private static final int KIND = CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS;
+	private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+	private static final double MEGABYTE = 1024 * 1024;
+	private static final String AFTER_CALL = "after call"; //$NON-NLS-1$
+
+	private final Set<FormatterEngine> engines = EnumSet.noneOf(FormatterEngine.class);
+	private int lines = DEFAULT_LINES;
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private final List<Path> files = new ArrayList<>();
+
+	private FootprintBenchmark(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the benchmark with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new FootprintBenchmark(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engines.add(FormatterEngine.fromName(arguments.nextValue()));
+		} else if ("--lines".equals(option)) { //$NON-NLS-1$
+			this.lines = arguments.nextInt();
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.files.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.lines >= 1, "--lines must be positive"); //$NON-NLS-1$
+		if (this.engines.isEmpty()) {
+			this.engines.addAll(EnumSet.allOf(FormatterEngine.class));
+		}
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: FootprintBenchmark [options] [path...]"); //$NON-NLS-1$
+		stream.println("  --engine luna|neon  engine to measure, may be repeated, all by default"); //$NON-NLS-1$
+		stream.println("  --lines count       lines of the generated source, " + DEFAULT_LINES + " by default"); //$NON-NLS-1$ //$NON-NLS-2$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		final Map<String, String> settings = FormatterBenchmark.loadSettings(this.config);
+		final List<String> names = new ArrayList<>();
+		final List<String> sources = new ArrayList<>();
+		if (this.files.isEmpty()) {
+			names.add("generated"); //$NON-NLS-1$
+			sources.add(generate(this.lines));
+		} else {
+			for (final Path file : FormatBatch.findJavaFiles(this.files)) {
+				names.add(file.toString());
+				sources.add(new String(Files.readAllBytes(file), this.encoding));
+			}
+		}
+
+		this.out.println(String.format(Locale.ROOT, "%-6s %9s %9s %10s %10s %9s %10s %10s %9s  %-20s %s", //$NON-NLS-1$
+				"engine", "chars", "tokens", "peak MB", "B/token", "B/char", "retain MB", "B/token", "B/char", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+				"retained at", "source")); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 0; i < sources.size(); i++) {
+			final String source = sources.get(i);
+			final int tokens = countTokens(source, settings.get(JavaCore.COMPILER_SOURCE));
+			for (final FormatterEngine engine : this.engines) {
+				measure(engine, engine.createFormatter(settings), names.get(i), source, tokens);
+			}
+		}
+		return EXIT_OK;
+	}
+
+	private void measure(final FormatterEngine engine, final CodeFormatter formatter, final String name,
+			final String source, final int tokens) {
+		final RetainedListener listener = new RetainedListener(formatter);
+		if (formatter instanceof org.eclipse.jdt.neon.formatter.DefaultCodeFormatter) {
+			((org.eclipse.jdt.neon.formatter.DefaultCodeFormatter) formatter).setListener(listener);
+		}
+
+		final List<MemoryPoolMXBean> pools = heapPools();
+		listener.baseline = usedHeapAfterCollection();
+		for (final MemoryPoolMXBean pool : pools) {
+			pool.resetPeakUsage();
+		}
+		TextEdit edit;
+		try {
+			edit = formatter.format(KIND, source, 0, source.length(), 0, LINE_SEPARATOR);
+		} catch (final RuntimeException e) {
+			edit = null;
+		}
+		long peak = 0;
+		for (final MemoryPoolMXBean pool : pools) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		peak -= listener.baseline;
+		listener.edit = edit;
+		listener.retained(AFTER_CALL);
+
+		final String retainedAt = edit == null ? listener.retainedAt + " (failed)" : listener.retainedAt; //$NON-NLS-1$
+		this.out.println(String.format(Locale.ROOT, "%-6s %9d %9d %10.1f %10.1f %9.1f %10.1f %10.1f %9.1f  %-20s %s", //$NON-NLS-1$
+				engine.name().toLowerCase(Locale.ROOT), source.length(), tokens, peak / MEGABYTE,
+				(double) peak / tokens, (double) peak / source.length(), listener.retained / MEGABYTE,
+				(double) listener.retained / tokens, (double) listener.retained / source.length(), retainedAt,
+				name));
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+		final List<MemoryPoolMXBean> pools = new ArrayList<>();
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	private static long usedHeapAfterCollection() {
+		// a second collection catches what finalization or reference processing released
+		System.gc();
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static int countTokens(final String source, final String sourceLevel) {
+		final IScanner scanner = ToolFactory.createScanner(true, false, false, sourceLevel);
+		scanner.setSource(source.toCharArray());
+		int tokens = 0;
+		try {
+			while (scanner.getNextToken() != ITerminalSymbols.TokenNameEOF) {
+				tokens++;
+			}
+		} catch (final InvalidInputException e) {
+			// count the tokens up to the invalid one
+		}
+		return Math.max(tokens, 1);
+	}
+
+	/**
+	 * Generates a compilation unit of ordinary code: fields, methods with
+	 * javadoc, conditions, loops, invocation chains and string concatenation.
+	 *
+	 * @param lineCount the number of lines, roughly
+	 * @return the source
+	 */
+	static String generate(final int lineCount) {
+		final StringBuilder buffer = new StringBuilder(lineCount * 40);
+		buffer.append("package generated;\n\nimport java.util.ArrayList;\nimport java.util.List;\n\n"); //$NON-NLS-1$
+		buffer.append("public class Large {\n"); //$NON-NLS-1$
+		int lines = 7;
+		for (int i = 0; lines < lineCount; i++) {
+			buffer.append("\n\tprivate final List<String> values").append(i).append(" = new ArrayList<>();\n\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			buffer.append("\t/**\n\t * Collects the values of step ").append(i) //$NON-NLS-1$
+					.append(".\n\t *\n\t * @param limit the number of values\n\t * @return the values\n\t */\n"); //$NON-NLS-1$
+			buffer.append("\tpublic List<String> collect").append(i).append("(int limit, String prefix) {\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			buffer.append("\t\tfor (int j = 0; j < limit; j++) {\n"); //$NON-NLS-1$
+			buffer.append("\t\t\tif (j % 3 == 0 && prefix != null) {\n"); //$NON-NLS-1$
+			buffer.append("\t\t\t\tvalues").append(i) //$NON-NLS-1$
+					.append(".add(prefix + \" value \" + j + \" of \" + limit + \" in step ").append(i).append("\");\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			buffer.append("\t\t\t} else {\n"); //$NON-NLS-1$
+			buffer.append("\t\t\t\tvalues").append(i) //$NON-NLS-1$
+					.append(".add(String.valueOf(j).trim().toLowerCase().concat(prefix).substring(0));\n"); //$NON-NLS-1$
+			buffer.append("\t\t\t}\n\t\t}\n"); //$NON-NLS-1$
+			buffer.append("\t\treturn values").append(i).append(";\n\t}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			lines += 20;
+		}
+		buffer.append("}\n"); //$NON-NLS-1$
+		return buffer.toString();
+	}
+
+	private static final class RetainedListener implements FormatterListener {
+
+		// keeps what the call leaves behind reachable while measuring
+		final CodeFormatter formatter;
+		TextEdit edit;
+
+		long baseline;
+		long retained;
+		String retainedAt = AFTER_CALL;
+
+		RetainedListener(final CodeFormatter formatter) {
+			super();
+			this.formatter = formatter;
+		}
+
+		@Override
+		public void phaseFinished(final Phase phase, final long elapsedNanos, final int tokenCount,
+				final long allocatedBytes) {
+			retained(phase.name());
+		}
+
+		void retained(final String when) {
+			final long used = usedHeapAfterCollection() - this.baseline;
+			if (used > this.retained) {
+				this.retained = used;
+				this.retainedAt = when;
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.ThreadAllocation;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jdt.legacy.formatter.capture.FormatDump;
+import org.eclipse.jdt.legacy.formatter.capture.SlowFormatCapture;
+import org.eclipse.jdt.neon.formatter.FormatterListener;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Runs the format calls captured by {@link SlowFormatCapture} again, in a
+ * loop, to reproduce and measure them offline.
+ *
+ * <pre>
+ * FormatReplay [--engine luna|neon] [--warmup count] [--iterations count] [--pause] [--phases] dump...
+ * </pre>
+ *
+ * Each dump is replayed with the engine that captured it, or the one given
+ * with {@code --engine}, first for the warmup iterations and then for the
+ * measured ones. A line per dump reports the time of the captured call and the
+ * minimum, median and maximum time of the measured calls, with the memory they
+ * allocated.
+ * <p>
+ * To profile the calls, {@code --pause} waits for Enter before the measured
+ * iterations, so that a profiler can be attached, and {@code --phases} reports
+ * where the Neon formatter spends its time, see {@link FormatterListener}.
+ * Flight Recorder events are emitted as for any other format call.
+ */
+public final class FormatReplay extends CommandLineTool {
+
+	private static final int DEFAULT_WARMUP = 5;
+	private static final int DEFAULT_ITERATIONS = 20;
+	private static final double MILLISECOND = 1e6;
+	private static final double KILOBYTE = 1024;
+
+	private final InputStream in;
+
+	private FormatterEngine engine;
+	private int warmup = DEFAULT_WARMUP;
+	private int iterations = DEFAULT_ITERATIONS;
+	private boolean pause;
+	private boolean phases;
+	private final List<Path> dumps = new ArrayList<>();
+
+	private FormatReplay(final PrintStream out, final PrintStream err, final InputStream in) {
+		super(out, err);
+		this.in = in;
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err, System.in));
+	}
+
+	/**
+	 * Replays the dumps given in the arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to print the results
+	 * @param err  where to report errors
+	 * @param in   where to wait for Enter with {@code --pause}
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err, final InputStream in) {
+		return new FormatReplay(out, err, in).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engine = FormatterEngine.fromName(arguments.nextValue());
+		} else if ("--warmup".equals(option)) { //$NON-NLS-1$
+			this.warmup = arguments.nextInt();
+		} else if ("--iterations".equals(option)) { //$NON-NLS-1$
+			this.iterations = arguments.nextInt();
+		} else if ("--pause".equals(option)) { //$NON-NLS-1$
+			this.pause = true;
+		} else if ("--phases".equals(option)) { //$NON-NLS-1$
+			this.phases = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.dumps.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.warmup >= 0 && this.iterations >= 1,
+				"--warmup must not be negative and --iterations must be positive"); //$NON-NLS-1$
+		require(!this.dumps.isEmpty(), "No dumps given"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: FormatReplay [options] dump..."); //$NON-NLS-1$
+		stream.println("  --engine name       luna or neon, the engine of each dump by default"); //$NON-NLS-1$
+		stream.println("  --warmup count      calls before measuring, " + DEFAULT_WARMUP + " by default"); //$NON-NLS-1$ //$NON-NLS-2$
+		stream.println("  --iterations count  calls measured, " + DEFAULT_ITERATIONS + " by default"); //$NON-NLS-1$ //$NON-NLS-2$
+		stream.println("  --pause             wait for Enter before measuring, to attach a profiler"); //$NON-NLS-1$
+		stream.println("  --phases            report the time of each phase of the Neon formatter"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		this.out.println(String.format(Locale.ROOT, "%-6s %10s %10s %10s %10s %12s %7s  %s", //$NON-NLS-1$
+				"engine", "captured", "min ms", "median ms", "max ms", "KB per call", "edits", "dump")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+		for (final Path file : this.dumps) {
+			replay(file, FormatDump.read(file));
+		}
+		return EXIT_OK;
+	}
+
+	private void replay(final Path file, final FormatDump dump) throws IOException {
+		final FormatterEngine replayEngine = this.engine != null ? this.engine : dump.getEngine();
+		final CodeFormatter formatter = replayEngine.createFormatter(dump.getOptions());
+		for (int i = 0; i < this.warmup; i++) {
+			format(formatter, dump);
+		}
+
+		PhaseListener listener = null;
+		if (this.phases && formatter instanceof org.eclipse.jdt.neon.formatter.DefaultCodeFormatter) {
+			listener = new PhaseListener();
+			((org.eclipse.jdt.neon.formatter.DefaultCodeFormatter) formatter).setListener(listener);
+		}
+		if (this.pause) {
+			this.err.println("Attach the profiler and press Enter to replay " + file); //$NON-NLS-1$
+			int read;
+			do {
+				read = this.in.read();
+			} while (read != -1 && read != '\n');
+		}
+
+		final long[] latencies = new long[this.iterations];
+		String result = null;
+		final long startAllocated = ThreadAllocation.getAllocatedBytes();
+		for (int i = 0; i < this.iterations; i++) {
+			final long start = System.nanoTime();
+			result = format(formatter, dump);
+			latencies[i] = System.nanoTime() - start;
+		}
+		final long endAllocated = ThreadAllocation.getAllocatedBytes();
+		Arrays.sort(latencies);
+
+		final String allocated = startAllocated < 0 || endAllocated < 0 ? "n/a" //$NON-NLS-1$
+				: String.format(Locale.ROOT, "%.1f", (endAllocated - startAllocated) / KILOBYTE / this.iterations); //$NON-NLS-1$
+		this.out.println(String.format(Locale.ROOT, "%-6s %10.1f %10.2f %10.2f %10.2f %12s %7s  %s", //$NON-NLS-1$
+				replayEngine.name().toLowerCase(Locale.ROOT), dump.getElapsedNanos() / MILLISECOND,
+				latencies[0] / MILLISECOND, latencies[latencies.length / 2] / MILLISECOND,
+				latencies[latencies.length - 1] / MILLISECOND, allocated, result, file));
+		if (listener != null) {
+			listener.print(this.out, this.iterations);
+		}
+	}
+
+	/**
+	 * @return the number of edits, or a word telling why there are none
+	 */
+	private static String format(final CodeFormatter formatter, final FormatDump dump) {
+		try {
+			final TextEdit edit = formatter.format(dump.getKind(), dump.getSource(), dump.getRegions(),
+					dump.getIndentationLevel(), dump.getLineSeparator());
+			return edit == null ? "null" : Integer.toString(edit.getChildrenSize()); //$NON-NLS-1$
+		} catch (final RuntimeException e) {
+			return "failed"; //$NON-NLS-1$
+		}
+	}
+
+	private static final class PhaseListener implements FormatterListener {
+
+		private final Map<Phase, long[]> phaseNanos = new EnumMap<>(Phase.class);
+
+		PhaseListener() {
+			super();
+		}
+
+		@Override
+		public void phaseFinished(final Phase phase, final long elapsedNanos, final int tokenCount,
+				final long allocatedBytes) {
+			long[] total = this.phaseNanos.get(phase);
+			if (total == null) {
+				total = new long[1];
+				this.phaseNanos.put(phase, total);
+			}
+			total[0] += elapsedNanos;
+		}
+
+		void print(final PrintStream out, final int calls) {
+			for (final Map.Entry<Phase, long[]> entry : this.phaseNanos.entrySet()) {
+				out.println(String.format(Locale.ROOT, "    %-20s %10.2f ms per call", //$NON-NLS-1$
+						entry.getKey(), entry.getValue()[0] / MILLISECOND / calls));
+			}
+		}
+	}
+}
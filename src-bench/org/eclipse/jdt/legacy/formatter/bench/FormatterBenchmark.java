@@ -0,0 +1,184 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jdt.legacy.formatter.batch.FormatterProfile;
+
+/**
+ * Measures how fast the formatters are on a corpus of Java files, to compare
+ * the engines and to catch regressions.
+ *
+ * <pre>
+ * FormatterBenchmark [--engine luna|neon]... [--kind name]... [--config file]
+ *                    [--encoding charset] [--warmup seconds] [--time seconds] path...
+ * </pre>
+ *
+ * Besides the files themselves, the class bodies, method bodies, expressions
+ * and comments found in them are formatted with the matching kind, see
+ * {@link BenchmarkKind}. For each engine and kind, a line reports the
+ * throughput, the latency percentiles of single format calls and the
+ * allocation rate. All engines and kinds are measured unless some are given.
+ */
+public final class FormatterBenchmark extends CommandLineTool {
+
+	private static final int DEFAULT_WARMUP_SECONDS = 5;
+	private static final int DEFAULT_TIME_SECONDS = 10;
+	private static final double MILLISECOND = 1e6;
+
+	private final Set<FormatterEngine> engines = EnumSet.noneOf(FormatterEngine.class);
+	private final Set<BenchmarkKind> kinds = EnumSet.noneOf(BenchmarkKind.class);
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private int warmupSeconds = DEFAULT_WARMUP_SECONDS;
+	private int timeSeconds = DEFAULT_TIME_SECONDS;
+	private final List<Path> roots = new ArrayList<>();
+
+	private FormatterBenchmark(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the benchmark with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new FormatterBenchmark(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engines.add(FormatterEngine.fromName(arguments.nextValue()));
+		} else if ("--kind".equals(option)) { //$NON-NLS-1$
+			this.kinds.add(BenchmarkKind.fromName(arguments.nextValue()));
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else if ("--warmup".equals(option)) { //$NON-NLS-1$
+			this.warmupSeconds = arguments.nextInt();
+		} else if ("--time".equals(option)) { //$NON-NLS-1$
+			this.timeSeconds = arguments.nextInt();
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.warmupSeconds >= 0 && this.timeSeconds >= 0,
+				"--warmup and --time must not be negative"); //$NON-NLS-1$
+		require(!this.roots.isEmpty(), "No files or directories given"); //$NON-NLS-1$
+		if (this.engines.isEmpty()) {
+			this.engines.addAll(EnumSet.allOf(FormatterEngine.class));
+		}
+		if (this.kinds.isEmpty()) {
+			this.kinds.addAll(EnumSet.allOf(BenchmarkKind.class));
+		}
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: FormatterBenchmark [options] path..."); //$NON-NLS-1$
+		stream.println("  --engine luna|neon  engine to measure, may be repeated, all by default"); //$NON-NLS-1$
+		stream.println("  --kind name         kind of code to format, may be repeated, all by default:"); //$NON-NLS-1$
+		final StringBuilder names = new StringBuilder("                      "); //$NON-NLS-1$
+		for (final BenchmarkKind kind : BenchmarkKind.values()) {
+			names.append(' ').append(kind.getDisplayName());
+		}
+		stream.println(names);
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+		stream.println("  --warmup seconds    time spent formatting before measuring, " //$NON-NLS-1$
+				+ DEFAULT_WARMUP_SECONDS + " by default"); //$NON-NLS-1$
+		stream.println("  --time seconds      time spent measuring each engine and kind, " //$NON-NLS-1$
+				+ DEFAULT_TIME_SECONDS + " by default"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		final Map<String, String> settings = loadSettings(this.config);
+		final BenchmarkCorpus corpus = BenchmarkCorpus.load(this.roots, this.encoding);
+
+		this.out.println(String.format(Locale.ROOT, "%-6s %-14s %8s %8s %9s %8s %9s %9s %9s %9s %10s %8s", //$NON-NLS-1$
+				"engine", "kind", "snippets", "calls", "calls/s", "MB/s", "p50 ms", "p90 ms", "p99 ms", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+				"max ms", "alloc MB/s", "failed")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		for (final FormatterEngine engine : this.engines) {
+			final CodeFormatter formatter = engine.createFormatter(settings);
+			for (final BenchmarkKind kind : this.kinds) {
+				final List<String> snippets = corpus.getSnippets(kind);
+				if (snippets.isEmpty()) {
+					continue;
+				}
+				Measurement.run(formatter, kind.getFormatterKind(), snippets,
+						TimeUnit.SECONDS.toNanos(this.warmupSeconds));
+				// start measuring with a clean heap, not with the garbage of the warmup
+				System.gc();
+				final Measurement measurement = Measurement.run(formatter, kind.getFormatterKind(), snippets,
+						TimeUnit.SECONDS.toNanos(this.timeSeconds));
+				printMeasurement(engine, kind, snippets.size(), measurement);
+			}
+		}
+		return EXIT_OK;
+	}
+
+	/**
+	 * Loads the settings to benchmark with, see
+	 * {@link FormatterEngine#completeSettings(Map)} for the defaults.
+	 *
+	 * @param config a {@code .prefs} file or an exported XML profile,
+	 *               {@code null} to use the Java conventions
+	 * @return the settings
+	 * @throws IOException if the configuration cannot be read
+	 */
+	static Map<String, String> loadSettings(final Path config) throws IOException {
+		return FormatterEngine.completeSettings(config == null ? null : FormatterProfile.load(config));
+	}
+
+	private void printMeasurement(final FormatterEngine engine, final BenchmarkKind kind, final int snippetCount,
+			final Measurement measurement) {
+		final double allocationRate = measurement.getAllocationRate();
+		this.out.println(String.format(Locale.ROOT, "%-6s %-14s %8d %8d %9.1f %8.2f %9.3f %9.3f %9.3f %9.3f %10s %8d", //$NON-NLS-1$
+				engine.name().toLowerCase(Locale.ROOT), kind.getDisplayName(), snippetCount,
+				measurement.getOperations(), measurement.getOperationsPerSecond(),
+				measurement.getMegabytesPerSecond(), measurement.getLatencyNanos(50) / MILLISECOND,
+				measurement.getLatencyNanos(90) / MILLISECOND, measurement.getLatencyNanos(99) / MILLISECOND,
+				measurement.getLatencyNanos(100) / MILLISECOND,
+				allocationRate < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f", allocationRate), //$NON-NLS-1$ //$NON-NLS-2$
+				measurement.getFailures()));
+	}
+}
@@ -0,0 +1,158 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.ThreadAllocation;
+
+/**
+ * Measures a formatter repeatedly formatting a list of snippets: throughput,
+ * the latency of single calls, and the memory allocated meanwhile.
+ * <p>
+ * Allocation is measured with {@link ThreadAllocation}, on VMs that do not
+ * support it {@link #getAllocatedBytes()} is {@code -1}.
+ */
+public final class Measurement {
+
+	private static final double MEGABYTE = 1024 * 1024;
+	private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+
+	private long[] latencies = new long[1024];
+	private int operations;
+	private boolean sorted;
+	private int failures;
+	private long bytes;
+	private long elapsedNanos;
+	private long allocatedBytes;
+
+	private Measurement() {
+		super();
+	}
+
+	/**
+	 * Formats the snippets in turn, starting over until the given time is
+	 * elapsed. Every snippet is formatted at least once.
+	 *
+	 * @param formatter     the formatter
+	 * @param kind          the kind of the snippets, one of the
+	 *                      {@link CodeFormatter} {@code K_*} constants
+	 * @param snippets      the snippets, not empty
+	 * @param durationNanos how long to keep formatting
+	 * @return the measurement
+	 */
+	public static Measurement run(final CodeFormatter formatter, final int kind, final List<String> snippets,
+			final long durationNanos) {
+		if (snippets.isEmpty()) {
+			throw new IllegalArgumentException("No snippets to format"); //$NON-NLS-1$
+		}
+		final Measurement measurement = new Measurement();
+		final long startAllocated = ThreadAllocation.getAllocatedBytes();
+		final long start = System.nanoTime();
+		long now = start;
+		int index = 0;
+		while (index < snippets.size() || now - start < durationNanos) {
+			final String snippet = snippets.get(index % snippets.size());
+			boolean formatted;
+			try {
+				formatted = formatter.format(kind, snippet, 0, snippet.length(), 0, LINE_SEPARATOR) != null;
+			} catch (final RuntimeException e) {
+				formatted = false;
+			}
+			final long end = System.nanoTime();
+			measurement.record(end - now, snippet.length(), formatted);
+			now = end;
+			index++;
+		}
+		measurement.elapsedNanos = now - start;
+		final long endAllocated = ThreadAllocation.getAllocatedBytes();
+		measurement.allocatedBytes = startAllocated < 0 || endAllocated < 0 ? -1 : endAllocated - startAllocated;
+		return measurement;
+	}
+
+	private void record(final long latency, final int length, final boolean formatted) {
+		if (this.operations == this.latencies.length) {
+			this.latencies = Arrays.copyOf(this.latencies, this.operations * 2);
+		}
+		this.latencies[this.operations++] = latency;
+		this.bytes += length;
+		if (!formatted) {
+			this.failures++;
+		}
+	}
+
+	/**
+	 * @return the number of format calls
+	 */
+	public int getOperations() {
+		return this.operations;
+	}
+
+	/**
+	 * @return the number of format calls that failed or returned {@code null}
+	 */
+	public int getFailures() {
+		return this.failures;
+	}
+
+	/**
+	 * @return the total number of characters formatted
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the wall time spent formatting, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return this.elapsedNanos;
+	}
+
+	/**
+	 * @return the memory allocated by the formatting thread, or {@code -1} if
+	 *         the VM cannot tell
+	 */
+	public long getAllocatedBytes() {
+		return this.allocatedBytes;
+	}
+
+	/**
+	 * @return format calls per second
+	 */
+	public double getOperationsPerSecond() {
+		return this.operations / getElapsedSeconds();
+	}
+
+	/**
+	 * @return megabytes of source formatted per second
+	 */
+	public double getMegabytesPerSecond() {
+		return this.bytes / MEGABYTE / getElapsedSeconds();
+	}
+
+	/**
+	 * @return megabytes allocated per second, or {@code -1} if unknown
+	 */
+	public double getAllocationRate() {
+		return this.allocatedBytes < 0 ? -1 : this.allocatedBytes / MEGABYTE / getElapsedSeconds();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the latency of a single format call not exceeded by the given
+	 *         percentage of the calls, in nanoseconds
+	 */
+	public long getLatencyNanos(final double percentile) {
+		if (!this.sorted) {
+			Arrays.sort(this.latencies, 0, this.operations);
+			this.sorted = true;
+		}
+		final int rank = (int) Math.ceil(percentile / 100 * this.operations);
+		return this.latencies[Math.min(Math.max(rank, 1), this.operations) - 1];
+	}
+
+	private double getElapsedSeconds() {
+		return Math.max(this.elapsedNanos, 1) / 1e9;
+	}
+}
@@ -0,0 +1,148 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+/**
+ * Generates compilation units with one construct of scalable size, the kind
+ * of code generators produce and formatters struggle with. Everything but the
+ * comments is written on as few lines as possible, so that the formatters have
+ * to wrap it.
+ */
+public enum PathologicalSource {
+
+	/** A method invocation chain with the given number of links. */
+	CALL_CHAIN("call-chain") { //$NON-NLS-1$
+		@Override
+		void appendBody(final StringBuilder buffer, final int size) {
+			buffer.append("Object value() { return new StringBuilder()"); //$NON-NLS-1$
+			for (int i = 0; i < size; i++) {
+				buffer.append(".append(").append(i).append(')'); //$NON-NLS-1$
+			}
+			buffer.append(".toString(); }\n"); //$NON-NLS-1$
+		}
+	},
+
+	/** A string concatenation with the given number of operands. */
+	STRING_CONCATENATION("concatenation") { //$NON-NLS-1$
+		@Override
+		void appendBody(final StringBuilder buffer, final int size) {
+			buffer.append("String value(int v) { return \"s0\""); //$NON-NLS-1$
+			for (int i = 1; i < size; i++) {
+				buffer.append(i % 2 == 0 ? " + \"s" + i + '"' : " + v"); //$NON-NLS-1$
+			}
+			buffer.append("; }\n"); //$NON-NLS-1$
+		}
+	},
+
+	/** An array initializer with the given number of elements. */
+	ARRAY_INITIALIZER("array-initializer") { //$NON-NLS-1$
+		@Override
+		void appendBody(final StringBuilder buffer, final int size) {
+			buffer.append("int[] values = {"); //$NON-NLS-1$
+			for (int i = 0; i < size; i++) {
+				buffer.append(i == 0 ? " " : ", ").append(i); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			buffer.append(" };\n"); //$NON-NLS-1$
+		}
+	},
+
+	/** Lambda expressions nested the given number of levels deep. */
+	NESTED_LAMBDAS("nested-lambdas") { //$NON-NLS-1$
+		@Override
+		void appendBody(final StringBuilder buffer, final int size) {
+			buffer.append("static Object call(java.util.function.Function<Object, Object> f) { return f; }\n"); //$NON-NLS-1$
+			buffer.append("Object value() { return call(x0 -> "); //$NON-NLS-1$
+			for (int i = 1; i < size; i++) {
+				buffer.append("call(x").append(i).append(" -> "); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			buffer.append("x0"); //$NON-NLS-1$
+			for (int i = 0; i < size; i++) {
+				buffer.append(')');
+			}
+			buffer.append("; }\n"); //$NON-NLS-1$
+		}
+	},
+
+	/** An if / else if ladder with the given number of conditions. */
+	ELSE_IF_LADDER("else-if-ladder") { //$NON-NLS-1$
+		@Override
+		void appendBody(final StringBuilder buffer, final int size) {
+			buffer.append("int value(int x) { int y = -1; "); //$NON-NLS-1$
+			for (int i = 0; i < size; i++) {
+				buffer.append(i == 0 ? "if" : " else if").append(" (x == ").append(i).append(") { y = ") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+						.append(i * 2).append("; }"); //$NON-NLS-1$
+			}
+			buffer.append(" return y; }\n"); //$NON-NLS-1$
+		}
+	},
+
+	/** A javadoc comment with the given number of lines. */
+	LONG_JAVADOC("javadoc") { //$NON-NLS-1$
+		@Override
+		void appendBody(final StringBuilder buffer, final int size) {
+			buffer.append("/**\n"); //$NON-NLS-1$
+			for (int i = 0; i < size; i++) {
+				switch (i % 4) {
+					case 0:
+						buffer.append(" * Line ").append(i) //$NON-NLS-1$
+								.append(" of a description long enough to need wrapping once it is joined with the next line\n"); //$NON-NLS-1$
+						break;
+					case 1:
+						buffer.append(" * with <code>inline code</code>, a {@link java.util.List list} and <b>markup</b>.\n"); //$NON-NLS-1$
+						break;
+					case 2:
+						buffer.append(" * <p>\n"); //$NON-NLS-1$
+						break;
+					default:
+						buffer.append(" * @param p").append(i).append(" a parameter\n"); //$NON-NLS-1$ //$NON-NLS-2$
+						break;
+				}
+			}
+			buffer.append(" */\nvoid value() { }\n"); //$NON-NLS-1$
+		}
+	};
+
+	private final String displayName;
+
+	private PathologicalSource(final String displayName) {
+		this.displayName = displayName;
+	}
+
+	/**
+	 * @return the name used on the command line and in reports
+	 */
+	public String getDisplayName() {
+		return this.displayName;
+	}
+
+	/**
+	 * Generates a compilation unit.
+	 *
+	 * @param size the size of the construct, e.g. the number of links of a
+	 *             call chain
+	 * @return the source of the compilation unit
+	 */
+	public String generate(final int size) {
+		final StringBuilder buffer = new StringBuilder(64 * size + 64);
+		buffer.append("public class Generated {\n"); //$NON-NLS-1$
+		appendBody(buffer, size);
+		buffer.append("}\n"); //$NON-NLS-1$
+		return buffer.toString();
+	}
+
+	abstract void appendBody(StringBuilder buffer, int size);
+
+	/**
+	 * Finds the source with the given display name.
+	 *
+	 * @param name the display name, e.g. {@code call-chain}
+	 * @return the source
+	 * @throws IllegalArgumentException if there is no source with that name
+	 */
+	public static PathologicalSource fromName(final String name) {
+		for (final PathologicalSource source : values()) {
+			if (source.displayName.equals(name)) {
+				return source;
+			}
+		}
+		throw new IllegalArgumentException("Unknown pathological source: " + name); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,233 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+
+/**
+ * Measures how the formatting throughput grows with the number of threads,
+ * each thread formatting with its own formatter instance, to expose the state
+ * and locks the instances share.
+ *
+ * <pre>
+ * ScalingBenchmark [--engine luna|neon]... [--kind name] [--threads n,n...] [--config file]
+ *                  [--encoding charset] [--warmup seconds] [--time seconds] [--plateau percent] path...
+ * </pre>
+ *
+ * For each engine and number of threads, a line reports the calls per second
+ * of all the threads together, the speedup over a single thread and the
+ * efficiency, the speedup divided by the number of threads. A point is flagged
+ * when adding threads raised the throughput by less than the plateau
+ * percentage, 10 by default, or when there are more threads than processors.
+ */
+public final class ScalingBenchmark extends CommandLineTool {
+
+	private static final int DEFAULT_WARMUP_SECONDS = 2;
+	private static final int DEFAULT_TIME_SECONDS = 5;
+	private static final int DEFAULT_PLATEAU_PERCENT = 10;
+
+	private final Set<FormatterEngine> engines = EnumSet.noneOf(FormatterEngine.class);
+	private BenchmarkKind kind = BenchmarkKind.COMPILATION_UNIT;
+	private final List<Integer> threadCounts = new ArrayList<>();
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private int warmupSeconds = DEFAULT_WARMUP_SECONDS;
+	private int timeSeconds = DEFAULT_TIME_SECONDS;
+	private int plateauPercent = DEFAULT_PLATEAU_PERCENT;
+	private final List<Path> roots = new ArrayList<>();
+
+	private ScalingBenchmark(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the benchmark with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new ScalingBenchmark(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engines.add(FormatterEngine.fromName(arguments.nextValue()));
+		} else if ("--kind".equals(option)) { //$NON-NLS-1$
+			this.kind = BenchmarkKind.fromName(arguments.nextValue());
+		} else if ("--threads".equals(option)) { //$NON-NLS-1$
+			this.threadCounts.addAll(arguments.nextIntList());
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else if ("--warmup".equals(option)) { //$NON-NLS-1$
+			this.warmupSeconds = arguments.nextInt();
+		} else if ("--time".equals(option)) { //$NON-NLS-1$
+			this.timeSeconds = arguments.nextInt();
+		} else if ("--plateau".equals(option)) { //$NON-NLS-1$
+			this.plateauPercent = arguments.nextInt();
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.warmupSeconds >= 0 && this.timeSeconds >= 1 && this.plateauPercent >= 0,
+				"--warmup and --plateau must not be negative and --time must be positive"); //$NON-NLS-1$
+		require(!this.roots.isEmpty(), "No files or directories given"); //$NON-NLS-1$
+		if (this.engines.isEmpty()) {
+			this.engines.addAll(EnumSet.allOf(FormatterEngine.class));
+		}
+		if (this.threadCounts.isEmpty()) {
+			final int processors = Runtime.getRuntime().availableProcessors();
+			for (int count = 1; count < processors; count *= 2) {
+				this.threadCounts.add(Integer.valueOf(count));
+			}
+			this.threadCounts.add(Integer.valueOf(processors));
+		}
+		Collections.sort(this.threadCounts);
+		require(this.threadCounts.get(0).intValue() >= 1, "--threads must be positive"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: ScalingBenchmark [options] path..."); //$NON-NLS-1$
+		stream.println("  --engine luna|neon  engine to measure, may be repeated, all by default"); //$NON-NLS-1$
+		stream.println("  --kind name         kind of code to format, unit by default:"); //$NON-NLS-1$
+		final StringBuilder names = new StringBuilder("                      "); //$NON-NLS-1$
+		for (final BenchmarkKind kind : BenchmarkKind.values()) {
+			names.append(' ').append(kind.getDisplayName());
+		}
+		stream.println(names);
+		stream.println("  --threads n,n...    numbers of threads, powers of 2 up to the processors by default"); //$NON-NLS-1$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+		stream.println("  --warmup seconds    time each thread formats before measuring, " //$NON-NLS-1$
+				+ DEFAULT_WARMUP_SECONDS + " by default"); //$NON-NLS-1$
+		stream.println("  --time seconds      time spent measuring each number of threads, " //$NON-NLS-1$
+				+ DEFAULT_TIME_SECONDS + " by default"); //$NON-NLS-1$
+		stream.println("  --plateau percent   smallest throughput gain not flagged, " //$NON-NLS-1$
+				+ DEFAULT_PLATEAU_PERCENT + " by default"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		final Map<String, String> settings = FormatterBenchmark.loadSettings(this.config);
+		final List<String> snippets = BenchmarkCorpus.load(this.roots, this.encoding).getSnippets(this.kind);
+		if (snippets.isEmpty()) {
+			throw new IOException("No " + this.kind.getDisplayName() + " snippets found"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		final int processors = Runtime.getRuntime().availableProcessors();
+
+		this.out.println(String.format(Locale.ROOT, "%-6s %7s %10s %8s %10s %8s  %s", //$NON-NLS-1$
+				"engine", "threads", "calls/s", "speedup", "efficiency", "failed", "note")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		for (final FormatterEngine engine : this.engines) {
+			double single = 0;
+			double previous = 0;
+			for (final Integer count : this.threadCounts) {
+				final int threads = count.intValue();
+				final List<Measurement> measurements = measure(engine, settings, snippets, threads);
+				double throughput = 0;
+				int failures = 0;
+				for (final Measurement measurement : measurements) {
+					throughput += measurement.getOperationsPerSecond();
+					failures += measurement.getFailures();
+				}
+				if (single == 0) {
+					// the speedup of a first point with several threads is relative to an ideal single thread
+					single = throughput / threads;
+				}
+				final double speedup = throughput / single;
+				String note = ""; //$NON-NLS-1$
+				if (previous > 0 && throughput < previous * (1 + this.plateauPercent / 100.0)) {
+					note = "stops scaling"; //$NON-NLS-1$
+				}
+				if (threads > processors) {
+					note += note.isEmpty() ? "more threads than processors" : ", more threads than processors"; //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				this.out.println(String.format(Locale.ROOT, "%-6s %7d %10.1f %8.2f %9.0f%% %8d  %s", //$NON-NLS-1$
+						engine.name().toLowerCase(Locale.ROOT), threads, throughput, speedup,
+						100 * speedup / threads, failures, note));
+				previous = throughput;
+			}
+		}
+		return EXIT_OK;
+	}
+
+	private List<Measurement> measure(final FormatterEngine engine, final Map<String, String> settings,
+			final List<String> snippets, final int threads) throws IOException {
+		// the threads only start measuring once all of them are warmed up
+		final CyclicBarrier start = new CyclicBarrier(threads);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Measurement>> futures = new ArrayList<>(threads);
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(new Callable<Measurement>() {
+					@Override
+					public Measurement call() throws InterruptedException, BrokenBarrierException {
+						final CodeFormatter formatter = engine.createFormatter(settings);
+						Measurement.run(formatter, ScalingBenchmark.this.kind.getFormatterKind(), snippets,
+								TimeUnit.SECONDS.toNanos(ScalingBenchmark.this.warmupSeconds));
+						start.await();
+						return Measurement.run(formatter, ScalingBenchmark.this.kind.getFormatterKind(), snippets,
+								TimeUnit.SECONDS.toNanos(ScalingBenchmark.this.timeSeconds));
+					}
+				}));
+			}
+			final List<Measurement> measurements = new ArrayList<>(threads);
+			for (final Future<Measurement> future : futures) {
+				measurements.add(future.get());
+			}
+			return measurements;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e); //$NON-NLS-1$
+		} catch (final ExecutionException e) {
+			throw new IOException("A formatting thread failed", e.getCause()); //$NON-NLS-1$
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
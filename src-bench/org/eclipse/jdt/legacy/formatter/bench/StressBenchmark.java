@@ -0,0 +1,189 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+
+/**
+ * Measures how the formatting time grows with the size of
+ * {@link PathologicalSource pathological sources}, to make super-linear
+ * behavior visible.
+ *
+ * <pre>
+ * StressBenchmark [--engine luna|neon]... [--source name]... [--sizes n,n...]
+ *                 [--config file] [--time seconds] [--limit seconds] [--csv]
+ * </pre>
+ *
+ * For each engine, source and size, a line reports the median time of a format
+ * call and the growth exponent since the previous size: about 1 when the time
+ * grows linearly, 2 when it grows quadratically. A series stops once a call
+ * takes longer than the limit. With {@code --csv}, the lines are comma
+ * separated values ready to be plotted.
+ */
+public final class StressBenchmark extends CommandLineTool {
+
+	private static final int[] DEFAULT_SIZES = { 16, 32, 64, 128, 256, 512, 1024 };
+	private static final int DEFAULT_TIME_SECONDS = 1;
+	private static final int DEFAULT_LIMIT_SECONDS = 10;
+	private static final double MILLISECOND = 1e6;
+	private static final int KIND = CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS;
+
+	private final Set<FormatterEngine> engines = EnumSet.noneOf(FormatterEngine.class);
+	private final Set<PathologicalSource> sources = EnumSet.noneOf(PathologicalSource.class);
+	private final List<Integer> sizes = new ArrayList<>();
+	private Path config;
+	private int timeSeconds = DEFAULT_TIME_SECONDS;
+	private int limitSeconds = DEFAULT_LIMIT_SECONDS;
+	private boolean csv;
+
+	private StressBenchmark(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the benchmark with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new StressBenchmark(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engines.add(FormatterEngine.fromName(arguments.nextValue()));
+		} else if ("--source".equals(option)) { //$NON-NLS-1$
+			this.sources.add(PathologicalSource.fromName(arguments.nextValue()));
+		} else if ("--sizes".equals(option)) { //$NON-NLS-1$
+			this.sizes.addAll(arguments.nextIntList());
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--time".equals(option)) { //$NON-NLS-1$
+			this.timeSeconds = arguments.nextInt();
+		} else if ("--limit".equals(option)) { //$NON-NLS-1$
+			this.limitSeconds = arguments.nextInt();
+		} else if ("--csv".equals(option)) { //$NON-NLS-1$
+			this.csv = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.timeSeconds >= 0 && this.limitSeconds >= 1,
+				"--time must not be negative and --limit must be positive"); //$NON-NLS-1$
+		if (this.engines.isEmpty()) {
+			this.engines.addAll(EnumSet.allOf(FormatterEngine.class));
+		}
+		if (this.sources.isEmpty()) {
+			this.sources.addAll(EnumSet.allOf(PathologicalSource.class));
+		}
+		if (this.sizes.isEmpty()) {
+			for (final int size : DEFAULT_SIZES) {
+				this.sizes.add(Integer.valueOf(size));
+			}
+		}
+		Collections.sort(this.sizes);
+		require(this.sizes.get(0).intValue() >= 1, "--sizes must be positive"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: StressBenchmark [options]"); //$NON-NLS-1$
+		stream.println("  --engine luna|neon  engine to measure, may be repeated, all by default"); //$NON-NLS-1$
+		stream.println("  --source name       generated source, may be repeated, all by default:"); //$NON-NLS-1$
+		final StringBuilder names = new StringBuilder("                      "); //$NON-NLS-1$
+		for (final PathologicalSource source : PathologicalSource.values()) {
+			names.append(' ').append(source.getDisplayName());
+		}
+		stream.println(names);
+		stream.println("  --sizes n,n...      sizes of the generated construct, 16 to 1024 by default"); //$NON-NLS-1$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --time seconds      time spent measuring each size, " + DEFAULT_TIME_SECONDS //$NON-NLS-1$
+				+ " by default"); //$NON-NLS-1$
+		stream.println("  --limit seconds     larger sizes are skipped once a call takes longer, " //$NON-NLS-1$
+				+ DEFAULT_LIMIT_SECONDS + " by default"); //$NON-NLS-1$
+		stream.println("  --csv               print comma separated values"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		final Map<String, String> settings = FormatterBenchmark.loadSettings(this.config);
+		this.out.println(this.csv ? "engine,source,size,chars,median_ms,growth" //$NON-NLS-1$
+				: String.format(Locale.ROOT, "%-6s %-18s %7s %9s %11s %7s", //$NON-NLS-1$
+						"engine", "source", "size", "chars", "median ms", "growth")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		for (final FormatterEngine engine : this.engines) {
+			final CodeFormatter formatter = engine.createFormatter(settings);
+			for (final PathologicalSource source : this.sources) {
+				measureSeries(engine, formatter, source);
+			}
+		}
+		return EXIT_OK;
+	}
+
+	private void measureSeries(final FormatterEngine engine, final CodeFormatter formatter,
+			final PathologicalSource source) {
+		// warm up on the smallest size, the larger ones take long enough to be measured cold
+		Measurement.run(formatter, KIND, Collections.singletonList(source.generate(this.sizes.get(0).intValue())),
+				TimeUnit.SECONDS.toNanos(this.timeSeconds));
+		int previousSize = 0;
+		long previousMedian = 0;
+		for (final Integer size : this.sizes) {
+			final String generated = source.generate(size.intValue());
+			System.gc();
+			final Measurement measurement = Measurement.run(formatter, KIND, Collections.singletonList(generated),
+					TimeUnit.SECONDS.toNanos(this.timeSeconds));
+			final long median = measurement.getLatencyNanos(50);
+			final double growth = previousSize == 0 || previousMedian == 0 ? Double.NaN
+					: Math.log((double) median / previousMedian) / Math.log((double) size.intValue() / previousSize);
+			printPoint(engine, source, size.intValue(), generated.length(), median, growth,
+					measurement.getFailures() > 0);
+			if (median > TimeUnit.SECONDS.toNanos(this.limitSeconds)) {
+				break;
+			}
+			previousSize = size.intValue();
+			previousMedian = median;
+		}
+	}
+
+	private void printPoint(final FormatterEngine engine, final PathologicalSource source, final int size,
+			final int length, final long median, final double growth, final boolean failed) {
+		final String engineName = engine.name().toLowerCase(Locale.ROOT);
+		final String growthText = Double.isNaN(growth) ? "" : String.format(Locale.ROOT, "%.2f", growth); //$NON-NLS-1$ //$NON-NLS-2$
+		if (this.csv) {
+			this.out.println(String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%s", engineName, source.getDisplayName(), //$NON-NLS-1$
+					size, length, median / MILLISECOND, growthText));
+		} else {
+			this.out.println(String.format(Locale.ROOT, "%-6s %-18s %7d %9d %11.3f %7s%s", engineName, //$NON-NLS-1$
+					source.getDisplayName(), size, length, median / MILLISECOND, growthText,
+					failed ? "  formatter failed" : "")); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package org.eclipse.jdt.legacy.formatter.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.batch.CommandLineTool;
+import org.eclipse.jdt.legacy.formatter.batch.FormatBatch;
+import org.eclipse.jdt.neon.formatter.DefaultCodeFormatter;
+import org.eclipse.jdt.neon.formatter.FormatterListener;
+import org.eclipse.jdt.neon.formatter.linewrap.WrapStatistics;
+import org.eclipse.jdt.neon.formatter.linewrap.WrapStatistics.RestartCause;
+
+/**
+ * Formats Java files with the Neon formatter and reports the files that cost
+ * its wrap search the most work, see {@link WrapStatistics}.
+ *
+ * <pre>
+ * WrapReport [--config file] [--encoding charset] [--top count] path...
+ * </pre>
+ *
+ * A line per file reports the wrap searches, the memoized results reused,
+ * missing and invalidated, the restarts by cause, the deepest search and
+ * apply recursion and the formatting time. Files are sorted by searches, the
+ * most first.
+ */
+public final class WrapReport extends CommandLineTool {
+
+	private static final int DEFAULT_TOP = 20;
+	private static final int KIND = CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS;
+	private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+	private static final double MILLISECOND = 1e6;
+
+	private Path config;
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private int top = DEFAULT_TOP;
+	private final List<Path> roots = new ArrayList<>();
+
+	private WrapReport(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Prints the report for the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to print the report
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new WrapReport(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else if ("--top".equals(option)) { //$NON-NLS-1$
+			this.top = arguments.nextInt();
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.top >= 1, "--top must be positive"); //$NON-NLS-1$
+		require(!this.roots.isEmpty(), "No files or directories given"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: WrapReport [options] path..."); //$NON-NLS-1$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+		stream.println("  --top count         number of files reported, " + DEFAULT_TOP + " by default"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Override
+	protected int execute() throws IOException {
+		final DefaultCodeFormatter formatter = (DefaultCodeFormatter) FormatterEngine.NEON
+				.createFormatter(FormatterBenchmark.loadSettings(this.config));
+		final StatisticsListener listener = new StatisticsListener();
+		formatter.setListener(listener);
+		final List<Path> files = FormatBatch.findJavaFiles(this.roots);
+		final List<FileReport> reports = new ArrayList<>(files.size());
+		for (final Path file : files) {
+			final String source = new String(Files.readAllBytes(file), this.encoding);
+			listener.statistics = null;
+			final long start = System.nanoTime();
+			boolean formatted;
+			try {
+				formatted = formatter.format(KIND, source, 0, source.length(), 0, LINE_SEPARATOR) != null;
+			} catch (final RuntimeException e) {
+				formatted = false;
+			}
+			if (listener.statistics != null) {
+				reports.add(new FileReport(file, System.nanoTime() - start, formatted, listener.statistics));
+			} else {
+				this.err.println("No wrap search for " + file); //$NON-NLS-1$
+			}
+		}
+		Collections.sort(reports, new Comparator<FileReport>() {
+			@Override
+			public int compare(final FileReport a, final FileReport b) {
+				return Integer.compare(b.statistics.getSearches(), a.statistics.getSearches());
+			}
+		});
+
+		this.out.println(String.format(Locale.ROOT, "%9s %9s %9s %9s %8s %8s %8s %6s %6s %9s  %s", //$NON-NLS-1$
+				"searches", "memo hits", "misses", "invalid", "top prio", "forced", "separate", "search", "apply", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+				"ms", "file")); //$NON-NLS-1$ //$NON-NLS-2$
+		for (final FileReport report : reports.subList(0, Math.min(this.top, reports.size()))) {
+			final WrapStatistics statistics = report.statistics;
+			this.out.println(String.format(Locale.ROOT, "%9d %9d %9d %9d %8d %8d %8d %6d %6d %9.1f  %s%s", //$NON-NLS-1$
+					statistics.getSearches(), statistics.getMemoHits(), statistics.getMemoMisses(),
+					statistics.getInvalidations(), statistics.getRestarts(RestartCause.TOP_PRIORITY_WRAP),
+					statistics.getRestarts(RestartCause.FORCE_WRAP),
+					statistics.getRestarts(RestartCause.SEPARATE_LINES_ON_WRAP), statistics.getMaxSearchDepth(),
+					statistics.getMaxApplyDepth(), report.elapsedNanos / MILLISECOND, report.file,
+					report.formatted ? "" : "  (not formatted)")); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return EXIT_OK;
+	}
+
+	private static final class StatisticsListener implements FormatterListener {
+
+		WrapStatistics statistics;
+
+		StatisticsListener() {
+			super();
+		}
+
+		@Override
+		public void phaseFinished(final Phase phase, final long elapsedNanos, final int tokenCount,
+				final long allocatedBytes) {
+			// only the wrap search is reported
+		}
+
+		@Override
+		public void wrapsExecuted(final WrapStatistics wrapStatistics) {
+			this.statistics = wrapStatistics;
+		}
+	}
+
+	private static final class FileReport {
+
+		final Path file;
+		final long elapsedNanos;
+		final boolean formatted;
+		final WrapStatistics statistics;
+
+		FileReport(final Path file, final long elapsedNanos, final boolean formatted,
+				final WrapStatistics statistics) {
+			super();
+			this.file = file;
+			this.elapsedNanos = elapsedNanos;
+			this.formatted = formatted;
+			this.statistics = statistics;
+		}
+	}
+}
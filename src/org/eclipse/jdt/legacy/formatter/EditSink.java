@@ -0,0 +1,45 @@
+package org.eclipse.jdt.legacy.formatter;
+
+/**
+ * Receives the changes a formatter makes to a source as soon as they are
+ * final, instead of having them collected into a {@code MultiTextEdit}.
+ * <p>
+ * Replacements come in source order and do not overlap, so the formatted
+ * source can be written out as formatting goes, see {@link SourceRewriter}. If
+ * formatting fails after some replacements were given, the formatter reports
+ * the failure and whatever the sink made of them must be discarded. If a
+ * replacement already given has to change, the formatter {@link #restart()
+ * restarts} the sink.
+ */
+public interface EditSink {
+
+	/**
+	 * Receives a replacement.
+	 *
+	 * @param offset      the start of the replaced part of the source, not
+	 *                    before the end of the previous replacement
+	 * @param length      the length of the replaced part
+	 * @param replacement the new text
+	 */
+	void replace(int offset, int length, String replacement);
+
+	/**
+	 * Tells the formatter it can stop, the remaining replacements would not
+	 * be of any use.
+	 *
+	 * @return whether the sink needs no more replacements
+	 */
+	default boolean isDone() {
+		return false;
+	}
+
+	/**
+	 * Discards the replacements received so far, the formatter gives them all
+	 * again. This happens when a replacement already given has to change.
+	 *
+	 * @return whether the sink could discard them, if not the formatter fails
+	 */
+	default boolean restart() {
+		return false;
+	}
+}
@@ -0,0 +1,140 @@
+package org.eclipse.jdt.legacy.formatter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.core.formatter.DefaultCodeFormatterConstants;
+import org.eclipse.jface.text.IRegion;
+
+/**
+ * The formatter implementations shipped by this plugin, so that tools running
+ * outside of the workbench can pick one without going through the
+ * {@code org.eclipse.jdt.core.javaFormatter} extension point.
+ */
+public enum FormatterEngine {
+
+	/**
+	 * The Eclipse Luna (4.4) formatter.
+	 */
+	LUNA {
+		@Override
+		CodeFormatter newFormatter(final Map<String, String> settings) {
+			return new org.eclipse.jdt.luna.formatter.DefaultCodeFormatter(settings);
+		}
+
+		@Override
+		public boolean format(final CodeFormatter formatter, final int kind, final String source,
+				final IRegion[] regions, final int indentationLevel, final String lineSeparator, final EditSink sink) {
+			return ((org.eclipse.jdt.luna.formatter.DefaultCodeFormatter) formatter).format(kind, source, regions,
+					indentationLevel, lineSeparator, sink);
+		}
+	},
+
+	/**
+	 * The Eclipse Neon (4.6) formatter.
+	 */
+	NEON {
+		@Override
+		CodeFormatter newFormatter(final Map<String, String> settings) {
+			return new org.eclipse.jdt.neon.formatter.DefaultCodeFormatter(settings);
+		}
+
+		@Override
+		public boolean format(final CodeFormatter formatter, final int kind, final String source,
+				final IRegion[] regions, final int indentationLevel, final String lineSeparator, final EditSink sink) {
+			return ((org.eclipse.jdt.neon.formatter.DefaultCodeFormatter) formatter).format(kind, source, regions,
+					indentationLevel, lineSeparator, sink);
+		}
+	};
+
+	/**
+	 * Creates a new formatter of this engine.
+	 * <p>
+	 * Sources are parsed as Java 8 unless the settings give a
+	 * {@link JavaCore#COMPILER_SOURCE} level: outside of the workbench the
+	 * Luna formatter would otherwise fall back to the Java 1.3 default of
+	 * {@link JavaCore#getOptions()} and reject generics, for-each loops and
+	 * annotations.
+	 *
+	 * @param settings the formatter settings, as stored in the
+	 *                 {@code org.eclipse.jdt.core.prefs} file of a project;
+	 *                 {@code null} to use the Java conventions settings
+	 * @return a new formatter instance; a Luna formatter must not be shared
+	 *         between threads, a Neon formatter may be
+	 */
+	public CodeFormatter createFormatter(final Map<String, String> settings) {
+		return newFormatter(completeSettings(settings));
+	}
+
+	abstract CodeFormatter newFormatter(Map<String, String> settings);
+
+	/**
+	 * Formats the source with a formatter of this engine and gives the changes
+	 * to the sink instead of returning the edits. Together with
+	 * {@link SourceRewriter#checker(String)}, this is what the
+	 * {@code isFormatted} methods of the engines do, except that the sources
+	 * that cannot be formatted are told apart.
+	 *
+	 * @param formatter        a formatter created by
+	 *                         {@link #createFormatter(Map)} of this engine
+	 * @param kind             the kind of code snippet
+	 * @param source           the source to format
+	 * @param regions          the regions to format
+	 * @param indentationLevel the initial indentation level
+	 * @param lineSeparator    the line separator, {@code null} to use the one
+	 *                         of the settings
+	 * @param sink             where to give the changes
+	 * @return {@code false} if the source could not be formatted,
+	 *         {@code true} otherwise, also when formatting stopped because the
+	 *         sink was done
+	 * @throws ClassCastException if the formatter is not one of this engine
+	 */
+	public abstract boolean format(CodeFormatter formatter, int kind, String source, IRegion[] regions,
+			int indentationLevel, String lineSeparator, EditSink sink);
+
+	/**
+	 * Adds the defaults of {@link #createFormatter(Map)} to the given settings.
+	 *
+	 * @param settings the formatter settings, {@code null} to use the Java
+	 *                 conventions settings
+	 * @return the settings to create a formatter with, a copy if defaults were
+	 *         added
+	 */
+	public static Map<String, String> completeSettings(final Map<String, String> settings) {
+		if (settings != null && settings.containsKey(JavaCore.COMPILER_SOURCE)) {
+			return settings;
+		}
+		final Map<String, String> completed;
+		if (settings == null) {
+			// the JDT core API returns a raw map, it only holds strings
+			@SuppressWarnings("unchecked")
+			final Map<String, String> conventions = DefaultCodeFormatterConstants.getJavaConventionsSettings();
+			completed = new HashMap<>(conventions);
+		} else {
+			completed = new HashMap<>(settings);
+		}
+		completed.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_1_8);
+		if (!completed.containsKey(JavaCore.COMPILER_COMPLIANCE)) {
+			completed.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_1_8);
+		}
+		return completed;
+	}
+
+	/**
+	 * Finds the engine with the given name, ignoring case.
+	 *
+	 * @param name the engine name, e.g. {@code luna} or {@code neon}
+	 * @return the engine
+	 * @throws IllegalArgumentException if there is no engine with that name
+	 */
+	public static FormatterEngine fromName(final String name) {
+		for (final FormatterEngine engine : values()) {
+			if (engine.name().equalsIgnoreCase(name)) {
+				return engine;
+			}
+		}
+		throw new IllegalArgumentException("Unknown formatter engine: " + name); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,105 @@
+package org.eclipse.jdt.legacy.formatter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jdt.core.formatter.DefaultCodeFormatterConstants;
+import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+
+/**
+ * Computes a stable digest of formatter settings, so that results obtained
+ * with some settings can be recognized later, possibly in another process.
+ * <p>
+ * The digest is taken over the effective formatter options, i.e. after
+ * defaults have been applied, so that a partial settings map and the complete
+ * map it expands to have the same fingerprint. Entries that are not formatter
+ * options, like the compiler source level, are included as given since the
+ * formatters read them too.
+ */
+@SuppressWarnings("restriction")
+public final class OptionsFingerprint {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private OptionsFingerprint() {
+		super();
+	}
+
+	/**
+	 * Computes the fingerprint of the given settings.
+	 *
+	 * @param settings the formatter settings; {@code null} for the Java
+	 *                 conventions settings
+	 * @return the fingerprint as a hexadecimal string
+	 */
+	public static String of(final Map<String, String> settings) {
+		final Map<String, String> effective = new TreeMap<>();
+		final DefaultCodeFormatterOptions options;
+		if (settings == null) {
+			// the JDT core API returns a raw map, it only holds strings
+			@SuppressWarnings("unchecked")
+			final Map<String, String> conventions = DefaultCodeFormatterConstants.getJavaConventionsSettings();
+			options = new DefaultCodeFormatterOptions(conventions);
+		} else {
+			effective.putAll(settings);
+			options = new DefaultCodeFormatterOptions(settings);
+		}
+		effective.putAll(options.getMap());
+
+		final MessageDigest digest = newDigest();
+		for (final Map.Entry<String, String> entry : effective.entrySet()) {
+			update(digest, entry.getKey());
+			update(digest, entry.getValue());
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * @return a new SHA-256 digest
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (final NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds a string to a digest, in a way that keeps consecutive strings apart.
+	 *
+	 * @param digest the digest to update
+	 * @param value  the string to add, may be {@code null}
+	 */
+	public static void update(final MessageDigest digest, final String value) {
+		if (value == null) {
+			digest.update((byte) 0);
+			return;
+		}
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update((byte) 1);
+		digest.update((byte) (bytes.length >>> 24));
+		digest.update((byte) (bytes.length >>> 16));
+		digest.update((byte) (bytes.length >>> 8));
+		digest.update((byte) bytes.length);
+		digest.update(bytes);
+	}
+
+	/**
+	 * @param bytes the bytes to convert
+	 * @return the bytes as a lowercase hexadecimal string
+	 */
+	public static String toHex(final byte[] bytes) {
+		final char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX_DIGITS[(bytes[i] >>> 4) & 0xF];
+			chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
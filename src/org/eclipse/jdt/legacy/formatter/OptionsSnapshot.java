@@ -0,0 +1,156 @@
+package org.eclipse.jdt.legacy.formatter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+
+/**
+ * An immutable, parsed view of a formatter settings map.
+ * <p>
+ * Parsing a settings map into {@link DefaultCodeFormatterOptions} means
+ * hundreds of lookups and conversions, which dominates the cost of creating a
+ * formatter. Snapshots are interned, so formatters created with equal settings
+ * maps share one parsed instance and creating them costs little more than a
+ * hash lookup.
+ */
+@SuppressWarnings("restriction")
+public final class OptionsSnapshot {
+
+	// the number of distinct settings in use is expected to be tiny, this only
+	// protects against unbounded growth when settings are generated on the fly
+	private static final int MAX_INTERNED = 64;
+
+	// least recently used first, guarded by itself
+	private static final Map<Map<String, String>, OptionsSnapshot> INTERNED = new LinkedHashMap<Map<String, String>, OptionsSnapshot>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Map<String, String>, OptionsSnapshot> eldest) {
+			return size() > MAX_INTERNED;
+		}
+	};
+
+	private final Map<String, String> settings;
+	private final DefaultCodeFormatterOptions options;
+	private final Map<String, String> optionsMap;
+	private volatile String fingerprint;
+
+	private OptionsSnapshot(final Map<String, String> settings) {
+		super();
+		this.settings = settings;
+		this.options = new CopyableOptions(settings);
+		this.optionsMap = Collections.unmodifiableMap(this.options.getMap());
+	}
+
+	/**
+	 * Returns the snapshot of the given settings, reusing an existing one if
+	 * the same settings have been seen before.
+	 *
+	 * @param settings the formatter settings; later changes to the map are not
+	 *                 reflected in the snapshot
+	 * @return the snapshot
+	 */
+	public static OptionsSnapshot of(final Map<String, String> settings) {
+		synchronized (INTERNED) {
+			final OptionsSnapshot existing = INTERNED.get(settings);
+			if (existing != null) {
+				return existing;
+			}
+		}
+		// parsed outside of the lock, another thread may intern equal settings meanwhile
+		final Map<String, String> copy = Collections.unmodifiableMap(new HashMap<>(settings));
+		final OptionsSnapshot snapshot = new OptionsSnapshot(copy);
+		synchronized (INTERNED) {
+			final OptionsSnapshot raced = INTERNED.get(copy);
+			if (raced != null) {
+				return raced;
+			}
+			INTERNED.put(copy, snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the settings this snapshot was created from, unmodifiable
+	 */
+	public Map<String, String> getSettings() {
+		return this.settings;
+	}
+
+	/**
+	 * Returns the parsed options. The instance is shared by every user of the
+	 * snapshot and must not be modified; use {@link #createOptions()} to get a
+	 * private copy.
+	 *
+	 * @return the shared parsed options
+	 */
+	public DefaultCodeFormatterOptions getOptions() {
+		return this.options;
+	}
+
+	/**
+	 * @return the effective formatter options, defaults included, unmodifiable
+	 */
+	public Map<String, String> getOptionsMap() {
+		return this.optionsMap;
+	}
+
+	/**
+	 * @return a new copy of the parsed options that the caller is free to
+	 *         modify
+	 */
+	public DefaultCodeFormatterOptions createOptions() {
+		return copyOf(this.options);
+	}
+
+	/**
+	 * Copies parsed options. Options that come from a snapshot, or from a copy
+	 * of them, are copied field by field, which is much cheaper than parsing
+	 * their map again.
+	 *
+	 * @param options the options to copy
+	 * @return a new copy of the options that the caller is free to modify
+	 */
+	public static DefaultCodeFormatterOptions copyOf(final DefaultCodeFormatterOptions options) {
+		if (options instanceof CopyableOptions) {
+			return ((CopyableOptions) options).copy();
+		}
+		return new DefaultCodeFormatterOptions(options.getMap());
+	}
+
+	/**
+	 * @return the {@link OptionsFingerprint fingerprint} of the settings
+	 */
+	public String getFingerprint() {
+		String result = this.fingerprint;
+		if (result == null) {
+			result = OptionsFingerprint.of(this.settings);
+			this.fingerprint = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Options that can be cloned. All their fields are primitives, strings or
+	 * tag arrays that are replaced rather than modified, so a shallow copy is
+	 * independent of the original.
+	 */
+	private static final class CopyableOptions extends DefaultCodeFormatterOptions implements Cloneable {
+
+		CopyableOptions(final Map<String, String> settings) {
+			super(settings);
+		}
+
+		CopyableOptions copy() {
+			try {
+				return (CopyableOptions) clone();
+			} catch (final CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
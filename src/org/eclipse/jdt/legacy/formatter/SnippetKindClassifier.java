@@ -0,0 +1,305 @@
+package org.eclipse.jdt.legacy.formatter;
+
+import org.eclipse.jdt.core.compiler.InvalidInputException;
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.internal.compiler.parser.Scanner;
+import org.eclipse.jdt.internal.compiler.parser.TerminalTokens;
+
+/**
+ * Looks at the tokens of a snippet to find out which kinds of code it cannot
+ * possibly be, so that formatting {@link CodeFormatter#K_UNKNOWN} snippets does
+ * not need to run the parser in modes that are bound to fail.
+ * <p>
+ * The rules are deliberately conservative: a kind is only ruled out when no
+ * valid source of that kind can have the observed tokens, e.g. an expression
+ * never contains a semicolon outside of braces and a compilation unit never
+ * starts with {@code return}. Whenever in doubt, the kind is kept, so probing
+ * the remaining kinds in the usual order gives exactly the same result as
+ * probing all of them.
+ */
+@SuppressWarnings("restriction")
+public final class SnippetKindClassifier implements TerminalTokens {
+
+	/**
+	 * All the kinds a snippet may be probed for.
+	 */
+	public static final int ALL_KINDS = CodeFormatter.K_EXPRESSION | CodeFormatter.K_STATEMENTS
+			| CodeFormatter.K_CLASS_BODY_DECLARATIONS | CodeFormatter.K_COMPILATION_UNIT;
+
+	// identifiers that may start a compilation unit with recent source levels
+	private static final char[][] RESTRICTED_IDENTIFIERS = { "module".toCharArray(), //$NON-NLS-1$
+			"open".toCharArray(), "record".toCharArray(), //$NON-NLS-1$ //$NON-NLS-2$
+			"sealed".toCharArray(), "non".toCharArray() }; //$NON-NLS-1$ //$NON-NLS-2$
+
+	private int firstToken = TokenNameEOF;
+	private boolean firstIsPlainIdentifier;
+	private int lastToken = TokenNameEOF;
+	private int braceDepth;
+	private boolean topLevelSemicolon;
+	private boolean invalid;
+
+	/**
+	 * Constructor.
+	 */
+	public SnippetKindClassifier() {
+		super();
+	}
+
+	/**
+	 * Scans a whole source and classifies it.
+	 *
+	 * @param scanner a scanner, its source and positions are reset
+	 * @param source  the snippet
+	 * @return a combination of the {@code K_*} bits in {@link #ALL_KINDS} the
+	 *         snippet may be
+	 */
+	public static int classify(final Scanner scanner, final char[] source) {
+		scanner.setSource(source);
+		scanner.resetTo(0, source.length - 1);
+		final SnippetKindClassifier classifier = new SnippetKindClassifier();
+		try {
+			while (true) {
+				final int token = scanner.getNextToken();
+				if (token == TokenNameEOF) {
+					break;
+				}
+				classifier.add(token, source, scanner.startPosition, scanner.currentPosition);
+			}
+		} catch (final InvalidInputException e) {
+			classifier.invalid = true;
+		} finally {
+			scanner.setSource((char[]) null);
+		}
+		return classifier.getPossibleKinds();
+	}
+
+	/**
+	 * Adds the next token of the snippet.
+	 *
+	 * @param tokenType the token type, one of {@link TerminalTokens}
+	 * @param source    the snippet
+	 * @param start     the start position of the token
+	 * @param end       the position right after the token
+	 */
+	public void add(final int tokenType, final char[] source, final int start, final int end) {
+		switch (tokenType) {
+			case TokenNameWHITESPACE:
+			case TokenNameCOMMENT_LINE:
+			case TokenNameCOMMENT_BLOCK:
+			case TokenNameCOMMENT_JAVADOC:
+				return;
+			case TokenNameNotAToken:
+				this.invalid = true;
+				return;
+			case TokenNameLBRACE:
+				this.braceDepth++;
+				break;
+			case TokenNameRBRACE:
+				this.braceDepth--;
+				break;
+			case TokenNameSEMICOLON:
+				if (this.braceDepth <= 0) {
+					this.topLevelSemicolon = true;
+				}
+				break;
+			default:
+				break;
+		}
+		if (this.firstToken == TokenNameEOF) {
+			this.firstToken = tokenType;
+			this.firstIsPlainIdentifier = tokenType == TokenNameIdentifier
+					&& !isRestrictedIdentifier(source, start, end);
+		}
+		this.lastToken = tokenType;
+	}
+
+	/**
+	 * @return a combination of the {@code K_*} bits in {@link #ALL_KINDS} the
+	 *         tokens added so far may be
+	 */
+	public int getPossibleKinds() {
+		if (this.invalid || this.firstToken == TokenNameEOF) {
+			return ALL_KINDS;
+		}
+		int kinds = ALL_KINDS;
+		if (this.topLevelSemicolon || cannotStartExpression(this.firstToken)) {
+			kinds &= ~CodeFormatter.K_EXPRESSION;
+		}
+		final boolean endsLikeDeclaration = this.lastToken == TokenNameSEMICOLON || this.lastToken == TokenNameRBRACE;
+		if (!endsLikeDeclaration || cannotStartStatements(this.firstToken)) {
+			kinds &= ~CodeFormatter.K_STATEMENTS;
+		}
+		if (!endsLikeDeclaration || cannotStartClassBody(this.firstToken)) {
+			kinds &= ~CodeFormatter.K_CLASS_BODY_DECLARATIONS;
+		}
+		if (this.firstIsPlainIdentifier || cannotStartCompilationUnit(this.firstToken)) {
+			kinds &= ~CodeFormatter.K_COMPILATION_UNIT;
+		}
+		return kinds;
+	}
+
+	private static boolean isRestrictedIdentifier(final char[] source, final int start, final int end) {
+		final int length = end - start;
+		next: for (final char[] identifier : RESTRICTED_IDENTIFIERS) {
+			if (identifier.length != length) {
+				continue;
+			}
+			for (int i = 0; i < length; i++) {
+				if (source[start + i] != identifier[i]) {
+					continue next;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean cannotStartExpression(final int token) {
+		switch (token) {
+			case TokenNamepackage:
+			case TokenNameimport:
+			case TokenNameclass:
+			case TokenNameinterface:
+			case TokenNameenum:
+			case TokenNameif:
+			case TokenNameelse:
+			case TokenNamefor:
+			case TokenNamewhile:
+			case TokenNamedo:
+			case TokenNametry:
+			case TokenNamecatch:
+			case TokenNamefinally:
+			case TokenNamereturn:
+			case TokenNamethrow:
+			case TokenNamebreak:
+			case TokenNamecontinue:
+			case TokenNameassert:
+			case TokenNamecase:
+			case TokenNamedefault:
+			case TokenNamesynchronized:
+			case TokenNamepublic:
+			case TokenNameprotected:
+			case TokenNameprivate:
+			case TokenNamestatic:
+			case TokenNameabstract:
+			case TokenNamefinal:
+			case TokenNamenative:
+			case TokenNametransient:
+			case TokenNamevolatile:
+			case TokenNamestrictfp:
+			case TokenNameAT:
+			case TokenNameSEMICOLON:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean cannotStartStatements(final int token) {
+		switch (token) {
+			case TokenNamepackage:
+			case TokenNameimport:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean cannotStartClassBody(final int token) {
+		switch (token) {
+			case TokenNamepackage:
+			case TokenNameimport:
+			case TokenNameif:
+			case TokenNameelse:
+			case TokenNamefor:
+			case TokenNamewhile:
+			case TokenNamedo:
+			case TokenNametry:
+			case TokenNamecatch:
+			case TokenNamefinally:
+			case TokenNamereturn:
+			case TokenNamethrow:
+			case TokenNamebreak:
+			case TokenNamecontinue:
+			case TokenNameassert:
+			case TokenNameswitch:
+			case TokenNamecase:
+			case TokenNamenew:
+			case TokenNamethis:
+			case TokenNamesuper:
+			case TokenNamenull:
+			case TokenNametrue:
+			case TokenNamefalse:
+			case TokenNameIntegerLiteral:
+			case TokenNameLongLiteral:
+			case TokenNameFloatingPointLiteral:
+			case TokenNameDoubleLiteral:
+			case TokenNameCharacterLiteral:
+			case TokenNameStringLiteral:
+			case TokenNameLPAREN:
+			case TokenNamePLUS_PLUS:
+			case TokenNameMINUS_MINUS:
+			case TokenNamePLUS:
+			case TokenNameMINUS:
+			case TokenNameNOT:
+			case TokenNameTWIDDLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean cannotStartCompilationUnit(final int token) {
+		switch (token) {
+			case TokenNameif:
+			case TokenNameelse:
+			case TokenNamefor:
+			case TokenNamewhile:
+			case TokenNamedo:
+			case TokenNametry:
+			case TokenNamecatch:
+			case TokenNamefinally:
+			case TokenNamereturn:
+			case TokenNamethrow:
+			case TokenNamebreak:
+			case TokenNamecontinue:
+			case TokenNameassert:
+			case TokenNameswitch:
+			case TokenNamecase:
+			case TokenNamedefault:
+			case TokenNamenew:
+			case TokenNamethis:
+			case TokenNamesuper:
+			case TokenNamenull:
+			case TokenNametrue:
+			case TokenNamefalse:
+			case TokenNameIntegerLiteral:
+			case TokenNameLongLiteral:
+			case TokenNameFloatingPointLiteral:
+			case TokenNameDoubleLiteral:
+			case TokenNameCharacterLiteral:
+			case TokenNameStringLiteral:
+			case TokenNamevoid:
+			case TokenNameboolean:
+			case TokenNamebyte:
+			case TokenNamechar:
+			case TokenNameshort:
+			case TokenNameint:
+			case TokenNamelong:
+			case TokenNamefloat:
+			case TokenNamedouble:
+			case TokenNameLPAREN:
+			case TokenNameLBRACE:
+			case TokenNameLESS:
+			case TokenNamePLUS_PLUS:
+			case TokenNameMINUS_MINUS:
+			case TokenNamePLUS:
+			case TokenNameMINUS:
+			case TokenNameNOT:
+			case TokenNameTWIDDLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
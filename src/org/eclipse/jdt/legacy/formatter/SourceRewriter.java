@@ -0,0 +1,171 @@
+package org.eclipse.jdt.legacy.formatter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Applies replacements to a source string as they come, in a single pass.
+ * <p>
+ * This is what applying a formatter's {@code MultiTextEdit} to a document
+ * amounts to, without creating the edit objects, validating the edit tree and
+ * copying the document around. Replacements must be given in source order and
+ * must not overlap.
+ * <p>
+ * The result is either built in memory, see {@link #toString()}, or written to
+ * an {@link Appendable} such as a file writer as the replacements come. A
+ * rewriter created with {@link #checker(String)} does neither, it only finds
+ * out whether any replacement changes the source. Formatters stop as soon as
+ * it is {@link #isDone() done}.
+ */
+public final class SourceRewriter implements EditSink {
+
+	private final String source;
+	private final Appendable output;
+	private final StringBuilder result;
+	// what the in-memory result held before the first replacement
+	private final int resultStart;
+	private int sourcePosition;
+	private boolean changed;
+
+	/**
+	 * Constructor, the result is built in memory.
+	 *
+	 * @param source the source to rewrite
+	 */
+	public SourceRewriter(final String source) {
+		// formatting usually adds some whitespace, leave room for it
+		this(source, new StringBuilder(source.length() + (source.length() >> 3) + 16));
+	}
+
+	/**
+	 * Constructor, the result is written to the given output. Call
+	 * {@link #finish()} once all the replacements are given to write the rest
+	 * of the source.
+	 *
+	 * @param source the source to rewrite
+	 * @param output where to write the result
+	 */
+	public SourceRewriter(final String source, final Appendable output) {
+		super();
+		this.source = source;
+		this.output = output;
+		this.result = output instanceof StringBuilder ? (StringBuilder) output : null;
+		this.resultStart = this.result == null ? 0 : this.result.length();
+	}
+
+	/**
+	 * Creates a rewriter that only checks whether the replacements change the
+	 * source. Replacements need not be in source order.
+	 *
+	 * @param source the source to check
+	 * @return the new rewriter
+	 */
+	public static SourceRewriter checker(final String source) {
+		return new SourceRewriter(source, (Appendable) null);
+	}
+
+	/**
+	 * Replaces a part of the source.
+	 *
+	 * @param offset      the start of the replaced part, not before the end of
+	 *                    the previous replacement
+	 * @param length      the length of the replaced part
+	 * @param replacement the new text
+	 * @throws IllegalArgumentException if the replacement is out of order or
+	 *                                  outside of the source
+	 * @throws UncheckedIOException     if writing to the output fails
+	 */
+	@Override
+	public void replace(final int offset, final int length, final String replacement) {
+		final int minOffset = this.output == null ? 0 : this.sourcePosition;
+		if (offset < minOffset || length < 0 || offset + length > this.source.length()) {
+			throw new IllegalArgumentException("Replacement [" + offset + ", " + (offset + length) //$NON-NLS-1$ //$NON-NLS-2$
+					+ ") out of order or out of bounds, already rewritten up to " + this.sourcePosition); //$NON-NLS-1$
+		}
+		if (!this.changed) {
+			this.changed = length != replacement.length() || !this.source.startsWith(replacement, offset);
+		}
+		if (this.output != null) {
+			try {
+				this.output.append(this.source, this.sourcePosition, offset);
+				this.output.append(replacement);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.sourcePosition = offset + length;
+		}
+	}
+
+	/**
+	 * Writes the part of the source after the last replacement to the output.
+	 * No replacement can be given afterwards.
+	 *
+	 * @throws UncheckedIOException if writing to the output fails
+	 */
+	public void finish() {
+		if (this.output != null) {
+			try {
+				this.output.append(this.source, this.sourcePosition, this.source.length());
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.sourcePosition = this.source.length();
+		}
+	}
+
+	/**
+	 * @return whether any replacement given so far changed the source
+	 */
+	public boolean isChanged() {
+		return this.changed;
+	}
+
+	/**
+	 * @return whether this is a {@link #checker(String) checker} that has already
+	 *         found a change, so further replacements are useless
+	 */
+	@Override
+	public boolean isDone() {
+		return this.output == null && this.changed;
+	}
+
+	/**
+	 * Discards the replacements given so far, unless they have been written to
+	 * an output other than the in-memory result.
+	 *
+	 * @return whether the replacements could be discarded
+	 */
+	@Override
+	public boolean restart() {
+		if (this.output != null && this.result == null) {
+			return false;
+		}
+		if (this.result != null) {
+			this.result.setLength(this.resultStart);
+		}
+		this.sourcePosition = 0;
+		this.changed = false;
+		return true;
+	}
+
+	/**
+	 * @return the source with all the replacements given so far applied
+	 * @throws IllegalStateException if the result is not built in memory
+	 */
+	@Override
+	public String toString() {
+		if (this.result == null) {
+			throw new IllegalStateException("Rewriter does not build the result in memory"); //$NON-NLS-1$
+		}
+		if (this.sourcePosition == 0 && this.result.length() == 0) {
+			return this.source;
+		}
+		// the result already holds most of the string, only the rest of the source is copied in
+		final int length = this.result.length();
+		this.result.append(this.source, this.sourcePosition, this.source.length());
+		final String string = this.result.toString();
+		// further replacements go after the ones given so far
+		this.result.setLength(length);
+		return string;
+	}
+}
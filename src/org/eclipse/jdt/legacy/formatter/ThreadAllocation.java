@@ -0,0 +1,58 @@
+package org.eclipse.jdt.legacy.formatter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Tells how much memory the current thread has allocated, with
+ * {@code com.sun.management.ThreadMXBean}. On VMs that do not provide it the
+ * amount is {@code -1}.
+ */
+public final class ThreadAllocation {
+
+	// looked up reflectively, the interface is not visible to every bundle
+	private static final Method ALLOCATED_BYTES = findAllocatedBytesMethod();
+
+	private ThreadAllocation() {
+		super();
+	}
+
+	/**
+	 * @return whether {@link #getAllocatedBytes()} is supported by this VM
+	 */
+	public static boolean isSupported() {
+		return ALLOCATED_BYTES != null;
+	}
+
+	/**
+	 * @return the memory allocated by the current thread since it started, in
+	 *         bytes, or {@code -1} if the VM cannot tell
+	 */
+	public static long getAllocatedBytes() {
+		if (ALLOCATED_BYTES == null) {
+			return -1;
+		}
+		try {
+			return ((Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(),
+					Long.valueOf(Thread.currentThread().getId()))).longValue();
+		} catch (final ReflectiveOperationException e) {
+			return -1;
+		}
+	}
+
+	private static Method findAllocatedBytesMethod() {
+		try {
+			final Class<?> type = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+			final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!type.isInstance(bean)) {
+				return null;
+			}
+			final Method method = type.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+			method.invoke(bean, Long.valueOf(Thread.currentThread().getId()));
+			return method;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package org.eclipse.jdt.legacy.formatter.batch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the command line tools: parses {@code --option [value]} arguments
+ * and operands, prints the usage when they are invalid and maps failures to
+ * exit codes.
+ * <p>
+ * A tool is run with {@link #run(String[])}, which calls
+ * {@link #parseOption(String, Arguments)} for every option and
+ * {@link #parseOperand(String)} for every other argument, then
+ * {@link #checkArguments()} and finally {@link #execute()}.
+ */
+public abstract class CommandLineTool {
+
+	/** Exit code when the tool completed normally. */
+	public static final int EXIT_OK = 0;
+	/** Exit code for invalid arguments or I/O errors. */
+	public static final int EXIT_ERROR = 2;
+
+	private static final String OPTION_PREFIX = "--"; //$NON-NLS-1$
+
+	/** Where the tool reports its results. */
+	protected final PrintStream out;
+	/** Where the tool reports errors. */
+	protected final PrintStream err;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out where to report the results
+	 * @param err where to report errors
+	 */
+	protected CommandLineTool(final PrintStream out, final PrintStream err) {
+		super();
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Parses the arguments and runs the tool.
+	 *
+	 * @param args the command line arguments
+	 * @return the exit code
+	 */
+	protected final int run(final String[] args) {
+		final Arguments arguments = new Arguments(args);
+		try {
+			while (arguments.hasNext()) {
+				final String arg = arguments.next();
+				final boolean known = arg.startsWith(OPTION_PREFIX) ? parseOption(arg, arguments) : parseOperand(arg);
+				if (!known) {
+					throw new IllegalArgumentException(
+							(arg.startsWith(OPTION_PREFIX) ? "Unknown option: " : "Unexpected argument: ") + arg); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			checkArguments();
+		} catch (final IllegalArgumentException e) {
+			this.err.println(e.getMessage());
+			printUsage(this.err);
+			return EXIT_ERROR;
+		}
+		try {
+			return execute();
+		} catch (final IOException e) {
+			this.err.println("Error: " + e.getMessage()); //$NON-NLS-1$
+			return EXIT_ERROR;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.err.println("Interrupted"); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+	}
+
+	/**
+	 * Parses an option, taking its value from the arguments if it has one.
+	 *
+	 * @param option    the option, starting with {@code --}
+	 * @param arguments the arguments after the option
+	 * @return false if the option is unknown
+	 * @throws IllegalArgumentException if the value is missing or invalid
+	 */
+	protected abstract boolean parseOption(String option, Arguments arguments);
+
+	/**
+	 * Parses an argument that is not an option. By default there are none.
+	 *
+	 * @param operand the argument
+	 * @return false if the tool takes no such argument
+	 * @throws IllegalArgumentException if the argument is invalid
+	 */
+	protected boolean parseOperand(final String operand) {
+		return false;
+	}
+
+	/**
+	 * Checks the parsed arguments together and fills in the defaults.
+	 *
+	 * @throws IllegalArgumentException if they are invalid
+	 */
+	protected void checkArguments() {
+		// nothing to check by default
+	}
+
+	/**
+	 * Prints the usage of the tool.
+	 *
+	 * @param stream where to print it
+	 */
+	protected abstract void printUsage(PrintStream stream);
+
+	/**
+	 * Runs the tool once its arguments are parsed.
+	 *
+	 * @return the exit code
+	 * @throws IOException          if reading or writing a file fails
+	 * @throws InterruptedException if the tool is interrupted while waiting
+	 */
+	protected abstract int execute() throws IOException, InterruptedException;
+
+	/**
+	 * Checks an argument.
+	 *
+	 * @param condition whether the argument is valid
+	 * @param message   what is wrong otherwise
+	 * @throws IllegalArgumentException if the condition does not hold
+	 */
+	protected static void require(final boolean condition, final String message) {
+		if (!condition) {
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+	/**
+	 * The command line arguments still to be parsed.
+	 */
+	public static final class Arguments {
+
+		private final String[] args;
+		private int index;
+
+		Arguments(final String[] args) {
+			super();
+			this.args = args;
+		}
+
+		boolean hasNext() {
+			return this.index < this.args.length;
+		}
+
+		String next() {
+			return this.args[this.index++];
+		}
+
+		/**
+		 * @return the value of the option just parsed
+		 * @throws IllegalArgumentException if there is none
+		 */
+		public String nextValue() {
+			if (!hasNext()) {
+				throw new IllegalArgumentException("Missing value for " + this.args[this.index - 1]); //$NON-NLS-1$
+			}
+			return next();
+		}
+
+		/**
+		 * @return the value of the option just parsed, as an integer
+		 * @throws IllegalArgumentException if there is none or it is not an
+		 *                                  integer
+		 */
+		public int nextInt() {
+			final String value = nextValue();
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (final NumberFormatException e) {
+				throw invalidValue(value);
+			}
+		}
+
+		/**
+		 * @return the value of the option just parsed, a comma separated list
+		 *         of integers
+		 * @throws IllegalArgumentException if there is none or it is not a
+		 *                                  list of integers
+		 */
+		public List<Integer> nextIntList() {
+			final String list = nextValue();
+			final List<Integer> values = new ArrayList<>();
+			try {
+				for (final String value : list.split(",")) { //$NON-NLS-1$
+					values.add(Integer.valueOf(value.trim()));
+				}
+			} catch (final NumberFormatException e) {
+				throw invalidValue(list);
+			}
+			return values;
+		}
+
+		/**
+		 * @return the value of the option just parsed, as a path
+		 * @throws IllegalArgumentException if there is none or it is not a
+		 *                                  valid path
+		 */
+		public Path nextPath() {
+			return Paths.get(nextValue());
+		}
+
+		/**
+		 * @return the value of the option just parsed, as a charset
+		 * @throws IllegalArgumentException if there is none or it is not a
+		 *                                  supported charset
+		 */
+		public Charset nextCharset() {
+			return Charset.forName(nextValue());
+		}
+
+		private IllegalArgumentException invalidValue(final String value) {
+			return new IllegalArgumentException(
+					"Invalid value for " + this.args[this.index - 2] + ": " + value); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+}
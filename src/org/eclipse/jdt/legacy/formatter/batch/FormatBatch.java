@@ -0,0 +1,387 @@
+package org.eclipse.jdt.legacy.formatter.batch;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.OptionsFingerprint;
+import org.eclipse.jdt.legacy.formatter.OptionsSnapshot;
+import org.eclipse.jdt.legacy.formatter.SourceRewriter;
+import org.eclipse.jdt.legacy.formatter.cache.CachedResult;
+import org.eclipse.jdt.legacy.formatter.cache.FormatCache;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Formats many source units at once on a pool of worker threads.
+ * <p>
+ * Luna formatter instances must not be shared between threads, so every worker
+ * thread creates its own formatter the first time it picks up a unit and
+ * reuses it for all the following ones. Units are handed to the workers largest first, so
+ * that a single huge file started late does not hold up the end of the run.
+ */
+public final class FormatBatch {
+
+	private static final String JAVA_EXTENSION = ".java"; //$NON-NLS-1$
+
+	/**
+	 * Settings of a batch run.
+	 */
+	public static final class Options {
+
+		private final FormatterEngine engine;
+		private final Map<String, String> settings;
+		private int parallelism = Runtime.getRuntime().availableProcessors();
+		private int indentationLevel;
+		private String lineSeparator;
+		private FormatCache cache;
+		private boolean checkOnly;
+		private volatile String fingerprint;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param engine   the formatter engine to use
+		 * @param settings the formatter settings; {@code null} to use the Java
+		 *                 conventions settings
+		 */
+		public Options(final FormatterEngine engine, final Map<String, String> settings) {
+			super();
+			if (engine == null) {
+				throw new IllegalArgumentException("engine must not be null"); //$NON-NLS-1$
+			}
+			this.engine = engine;
+			this.settings = settings == null ? null : Collections.unmodifiableMap(new HashMap<>(settings));
+		}
+
+		/**
+		 * @return the formatter engine to use
+		 */
+		public FormatterEngine getEngine() {
+			return this.engine;
+		}
+
+		/**
+		 * @return the formatter settings, {@code null} for the Java conventions
+		 */
+		public Map<String, String> getSettings() {
+			return this.settings;
+		}
+
+		/**
+		 * @return the number of worker threads
+		 */
+		public int getParallelism() {
+			return this.parallelism;
+		}
+
+		/**
+		 * @param parallelism the number of worker threads, defaults to the
+		 *                    number of available processors
+		 * @return this
+		 */
+		public Options setParallelism(final int parallelism) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("parallelism must be positive"); //$NON-NLS-1$
+			}
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * @return the initial indentation level of every unit
+		 */
+		public int getIndentationLevel() {
+			return this.indentationLevel;
+		}
+
+		/**
+		 * @param indentationLevel the initial indentation level of every unit,
+		 *                         defaults to 0
+		 * @return this
+		 */
+		public Options setIndentationLevel(final int indentationLevel) {
+			this.indentationLevel = indentationLevel;
+			return this;
+		}
+
+		/**
+		 * @return the line separator, {@code null} to use the one of the
+		 *         settings
+		 */
+		public String getLineSeparator() {
+			return this.lineSeparator;
+		}
+
+		/**
+		 * @param lineSeparator the line separator, {@code null} to use the one
+		 *                      of the settings
+		 * @return this
+		 */
+		public Options setLineSeparator(final String lineSeparator) {
+			this.lineSeparator = lineSeparator;
+			return this;
+		}
+
+		/**
+		 * @return the cache of results, {@code null} if none
+		 */
+		public FormatCache getCache() {
+			return this.cache;
+		}
+
+		/**
+		 * @param cache a cache of results to look up before formatting and to
+		 *              fill afterwards, {@code null} for none
+		 * @return this
+		 */
+		public Options setCache(final FormatCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * @return true if the units are only checked
+		 */
+		public boolean isCheckOnly() {
+			return this.checkOnly;
+		}
+
+		/**
+		 * @param checkOnly true to only check whether the units are formatted:
+		 *                  formatting stops at the first change and no edits
+		 *                  are created, so the results tell whether the units
+		 *                  would change but not how; defaults to false
+		 * @return this
+		 */
+		public Options setCheckOnly(final boolean checkOnly) {
+			this.checkOnly = checkOnly;
+			return this;
+		}
+
+		/**
+		 * @return the fingerprint of the settings
+		 */
+		public String getFingerprint() {
+			String result = this.fingerprint;
+			if (result == null) {
+				result = this.settings == null ? OptionsFingerprint.of(null)
+						: OptionsSnapshot.of(this.settings).getFingerprint();
+				this.fingerprint = result;
+			}
+			return result;
+		}
+	}
+
+	private FormatBatch() {
+		super();
+	}
+
+	/**
+	 * Lists the Java files found under the given paths.
+	 *
+	 * @param roots source files or directories to search for them
+	 * @return the files, sorted
+	 * @throws IOException if a path does not exist or cannot be searched
+	 */
+	public static List<Path> findJavaFiles(final List<Path> roots) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		for (final Path root : roots) {
+			if (Files.isDirectory(root)) {
+				Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+						if (attrs.isRegularFile() && file.getFileName().toString().endsWith(JAVA_EXTENSION)) {
+							files.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} else if (Files.isRegularFile(root)) {
+				files.add(root);
+			} else {
+				throw new IOException("No such file or directory: " + root); //$NON-NLS-1$
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Formats all the given units.
+	 * <p>
+	 * Exceptions thrown by the formatter for a unit are reported in its result
+	 * and do not stop the run, and so are errors such as a
+	 * {@link StackOverflowError} on a deeply nested source. Only errors of the
+	 * virtual machine that leave it unusable, such as an
+	 * {@link OutOfMemoryError}, are thrown.
+	 *
+	 * @param units   the units to format
+	 * @param options the batch settings
+	 * @return one result per unit, in the iteration order of {@code units}
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *                              waiting for the workers
+	 */
+	public static List<FormatResult> formatAll(final Collection<SourceUnit> units, final Options options)
+			throws InterruptedException {
+		final SourceUnit[] input = units.toArray(new SourceUnit[units.size()]);
+		final FormatResult[] results = new FormatResult[input.length];
+
+		final ThreadLocal<CodeFormatter> formatters = new ThreadLocal<CodeFormatter>() {
+			@Override
+			protected CodeFormatter initialValue() {
+				return options.getEngine().createFormatter(options.getSettings());
+			}
+		};
+
+		final int parallelism = Math.min(options.getParallelism(), input.length);
+		if (parallelism <= 1) {
+			for (int i = 0; i < input.length; i++) {
+				results[i] = format(formatters, input[i], options);
+			}
+			return Arrays.asList(results);
+		}
+
+		final Integer[] order = new Integer[input.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Integer.compare(input[b].getSource().length(), input[a].getSource().length());
+			}
+		});
+
+		final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory());
+		try {
+			// the executor queue is FIFO, so submitting in order is enough to start the largest units first
+			final List<Future<?>> futures = new ArrayList<>(order.length);
+			for (final Integer index : order) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						results[index] = format(formatters, input[index], options);
+					}
+				}));
+			}
+			for (final Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (final ExecutionException e) {
+					// format() only lets the fatal errors of the virtual machine through
+					final Throwable cause = e.getCause();
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IllegalStateException(cause);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return Arrays.asList(results);
+	}
+
+	private static FormatResult format(final ThreadLocal<CodeFormatter> formatters, final SourceUnit unit,
+			final Options options) {
+		final String source = unit.getSource();
+		final String lineSeparator = unit.getLineSeparator() != null ? unit.getLineSeparator()
+				: options.getLineSeparator();
+
+		final FormatCache cache = options.getCache();
+		String key = null;
+		if (cache != null) {
+			key = cache.computeKey(options.getEngine(), options.getFingerprint(), unit.getKind(), source,
+					options.getIndentationLevel(), lineSeparator);
+			final CachedResult cached = cache.get(key);
+			if (cached != null) {
+				return new FormatResult(unit, cached.toTextEdit(), null);
+			}
+		}
+
+		final TextEdit edit;
+		try {
+			if (options.isCheckOnly()) {
+				return check(formatters.get(), unit, lineSeparator, options, key);
+			}
+			edit = formatters.get().format(unit.getKind(), source, 0, source.length(), options.getIndentationLevel(),
+					lineSeparator);
+		} catch (final RuntimeException e) {
+			return new FormatResult(unit, null, e);
+		} catch (final Error e) {
+			// a stack overflow only ends the failing call, other errors of the virtual machine leave it unusable
+			if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError)) {
+				throw e;
+			}
+			// the formatter may have been left halfway through the unit, the next one gets a new formatter
+			formatters.remove();
+			return new FormatResult(unit, null, e);
+		}
+		if (cache != null) {
+			cache.put(key, source, edit);
+		}
+		return new FormatResult(unit, edit, null);
+	}
+
+	private static FormatResult check(final CodeFormatter formatter, final SourceUnit unit, final String lineSeparator,
+			final Options options, final String key) {
+		final String source = unit.getSource();
+		final SourceRewriter checker = SourceRewriter.checker(source);
+		final boolean formattable = options.getEngine().format(formatter, unit.getKind(), source,
+				new IRegion[] { new Region(0, source.length()) }, options.getIndentationLevel(), lineSeparator, checker);
+		final FormatCache cache = options.getCache();
+		if (!formattable) {
+			if (cache != null) {
+				cache.put(key, source, null);
+			}
+			return new FormatResult(unit, null, null);
+		}
+		// the edits of a changed unit are not known, it is formatted in full when applying them
+		if (cache != null && !checker.isChanged()) {
+			cache.put(key, source, new MultiTextEdit());
+		}
+		return new FormatResult(unit, checker.isChanged());
+	}
+
+	private static final class WorkerThreadFactory implements ThreadFactory {
+
+		private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+		private final int pool = POOL_COUNT.incrementAndGet();
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		WorkerThreadFactory() {
+			super();
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r,
+					"FormatBatch-" + this.pool + "-worker-" + this.threadCount.incrementAndGet()); //$NON-NLS-1$ //$NON-NLS-2$
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
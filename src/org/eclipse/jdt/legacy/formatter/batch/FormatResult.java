@@ -0,0 +1,114 @@
+package org.eclipse.jdt.legacy.formatter.batch;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * The outcome of formatting one {@link SourceUnit}.
+ */
+public final class FormatResult {
+
+	private final SourceUnit unit;
+	private final TextEdit edit;
+	private final Throwable failure;
+	// set for units that were only checked
+	private final Boolean changed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param unit    the formatted unit
+	 * @param edit    the edit returned by the formatter, {@code null} if the
+	 *                source could not be formatted
+	 * @param failure the exception or error thrown by the formatter, if any
+	 */
+	public FormatResult(final SourceUnit unit, final TextEdit edit, final Throwable failure) {
+		super();
+		this.unit = unit;
+		this.edit = edit;
+		this.failure = failure;
+		this.changed = null;
+	}
+
+	/**
+	 * Constructor for a unit that was only checked, see
+	 * {@link FormatBatch.Options#setCheckOnly(boolean)}.
+	 *
+	 * @param unit    the checked unit
+	 * @param changed true if formatting changes the source of the unit
+	 */
+	public FormatResult(final SourceUnit unit, final boolean changed) {
+		super();
+		this.unit = unit;
+		this.edit = null;
+		this.failure = null;
+		this.changed = Boolean.valueOf(changed);
+	}
+
+	/**
+	 * @return the formatted unit
+	 */
+	public SourceUnit getUnit() {
+		return this.unit;
+	}
+
+	/**
+	 * @return the edit returned by the formatter, {@code null} if the source
+	 *         could not be formatted or was only checked
+	 */
+	public TextEdit getEdit() {
+		return this.edit;
+	}
+
+	/**
+	 * @return the exception or error thrown by the formatter, {@code null} if it
+	 *         completed normally
+	 */
+	public Throwable getFailure() {
+		return this.failure;
+	}
+
+	/**
+	 * @return true if the formatter produced an edit for the unit or checked
+	 *         it
+	 */
+	public boolean isFormattable() {
+		return this.edit != null || this.changed != null;
+	}
+
+	/**
+	 * @return true if formatting changes the source of the unit
+	 */
+	public boolean isChanged() {
+		if (this.changed != null) {
+			return this.changed.booleanValue();
+		}
+		if (this.edit == null) {
+			return false;
+		}
+		final String source = this.unit.getSource();
+		return !source.equals(getFormattedSource());
+	}
+
+	/**
+	 * Applies the edit to the source of the unit.
+	 *
+	 * @return the formatted source, {@code null} if the source could not be
+	 *         formatted or was only checked
+	 */
+	public String getFormattedSource() {
+		if (this.edit == null) {
+			return null;
+		}
+		final IDocument document = new Document(this.unit.getSource());
+		try {
+			this.edit.copy().apply(document, TextEdit.NONE);
+		} catch (final MalformedTreeException | BadLocationException e) {
+			throw new IllegalStateException("Invalid edit for " + this.unit, e); //$NON-NLS-1$
+		}
+		return document.get();
+	}
+}
@@ -0,0 +1,237 @@
+package org.eclipse.jdt.legacy.formatter.batch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.cache.FormatCache;
+
+/**
+ * Formats Java source trees from the command line, without a workbench.
+ *
+ * <pre>
+ * FormatterCommandLine (--check | --apply) [--engine luna|neon] [--config file]
+ *                      [--threads n] [--encoding charset]
+ *                      [--cache directory [--cache-size megabytes]] path...
+ * </pre>
+ *
+ * In {@code --check} mode the files that are not formatted are listed and the
+ * exit code is {@value #EXIT_NOT_FORMATTED} if there is any; formatting a file
+ * stops at its first change, so badly formatted files are rejected quickly. In
+ * {@code --apply} mode they are rewritten in place. Files that cannot be
+ * parsed are left untouched and reported; in {@code --check} mode they count
+ * as not formatted. Files that are not valid in the given encoding are
+ * reported as failures and never rewritten. The configuration is either
+ * a project {@code org.eclipse.jdt.core.prefs} file or an exported formatter
+ * profile; the Java conventions are used if none is given. With
+ * {@code --cache}, results are kept in the given directory so that files that
+ * did not change since a previous run are not formatted again.
+ */
+public final class FormatterCommandLine extends CommandLineTool {
+
+	/** Exit code in check mode when some file is not formatted or cannot be parsed. */
+	public static final int EXIT_NOT_FORMATTED = 1;
+	/** Exit code when some file could not be decoded or the formatter failed on it. */
+	public static final int EXIT_FORMATTER_FAILURE = 3;
+
+	// files are read and formatted in chunks to bound memory usage on large trees
+	private static final int CHUNK_SIZE = 2000;
+	private static final double MEGABYTE = 1024 * 1024;
+	private static final int DEFAULT_CACHE_SIZE_MB = 256;
+
+	private boolean apply;
+	private boolean check;
+	private FormatterEngine engine = FormatterEngine.LUNA;
+	private Path config;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private Charset encoding = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private Path cacheDirectory;
+	private int cacheSize = DEFAULT_CACHE_SIZE_MB;
+	private final List<Path> roots = new ArrayList<>();
+
+	private int fileCount;
+	private long byteCount;
+	private int changedCount;
+	private int unparseableCount;
+	private int failureCount;
+
+	private FormatterCommandLine(final PrintStream out, final PrintStream err) {
+		super(out, err);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the formatter with the given arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out  where to report the results
+	 * @param err  where to report errors
+	 * @return the exit code
+	 */
+	public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+		return new FormatterCommandLine(out, err).run(args);
+	}
+
+	@Override
+	protected boolean parseOption(final String option, final Arguments arguments) {
+		if ("--check".equals(option)) { //$NON-NLS-1$
+			this.check = true;
+		} else if ("--apply".equals(option)) { //$NON-NLS-1$
+			this.apply = true;
+		} else if ("--engine".equals(option)) { //$NON-NLS-1$
+			this.engine = FormatterEngine.fromName(arguments.nextValue());
+		} else if ("--config".equals(option)) { //$NON-NLS-1$
+			this.config = arguments.nextPath();
+		} else if ("--threads".equals(option)) { //$NON-NLS-1$
+			this.threads = arguments.nextInt();
+		} else if ("--encoding".equals(option)) { //$NON-NLS-1$
+			this.encoding = arguments.nextCharset();
+		} else if ("--cache".equals(option)) { //$NON-NLS-1$
+			this.cacheDirectory = arguments.nextPath();
+		} else if ("--cache-size".equals(option)) { //$NON-NLS-1$
+			this.cacheSize = arguments.nextInt();
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected boolean parseOperand(final String operand) {
+		this.roots.add(Paths.get(operand));
+		return true;
+	}
+
+	@Override
+	protected void checkArguments() {
+		require(this.check != this.apply, "Exactly one of --check and --apply is required"); //$NON-NLS-1$
+		require(this.threads >= 1, "--threads must be positive"); //$NON-NLS-1$
+		require(this.cacheSize >= 1, "--cache-size must be positive"); //$NON-NLS-1$
+		require(!this.roots.isEmpty(), "No files or directories given"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void printUsage(final PrintStream stream) {
+		stream.println("Usage: FormatterCommandLine (--check | --apply) [options] path..."); //$NON-NLS-1$
+		stream.println("  --check             list files that are not formatted, exit with " //$NON-NLS-1$
+				+ EXIT_NOT_FORMATTED + " if any or if some file cannot be parsed"); //$NON-NLS-1$
+		stream.println("  --apply             rewrite files that are not formatted"); //$NON-NLS-1$
+		stream.println("  --engine luna|neon  formatter to use, luna by default"); //$NON-NLS-1$
+		stream.println("  --config file       org.eclipse.jdt.core.prefs file or exported XML profile"); //$NON-NLS-1$
+		stream.println("  --threads n         number of worker threads, one per processor by default"); //$NON-NLS-1$
+		stream.println("  --encoding charset  encoding of the source files, UTF-8 by default"); //$NON-NLS-1$
+		stream.println("  --cache directory   keep results in the directory to skip unchanged files"); //$NON-NLS-1$
+		stream.println("  --cache-size mb     maximum size of the cache, " + DEFAULT_CACHE_SIZE_MB //$NON-NLS-1$
+				+ " MB by default"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected int execute() throws IOException, InterruptedException {
+		final Map<String, String> settings = this.config == null ? null : FormatterProfile.load(this.config);
+		final FormatBatch.Options options = new FormatBatch.Options(this.engine, settings)
+				.setParallelism(this.threads).setCheckOnly(this.check);
+		if (this.cacheDirectory != null) {
+			options.setCache(new FormatCache(this.cacheDirectory, this.cacheSize * (long) MEGABYTE));
+		}
+
+		final List<Path> files = FormatBatch.findJavaFiles(this.roots);
+		final long start = System.nanoTime();
+		for (int i = 0; i < files.size(); i += CHUNK_SIZE) {
+			processChunk(files.subList(i, Math.min(i + CHUNK_SIZE, files.size())), options);
+		}
+		final long elapsed = System.nanoTime() - start;
+
+		printSummary(elapsed);
+		if (this.failureCount > 0) {
+			return EXIT_FORMATTER_FAILURE;
+		}
+		return this.check && this.changedCount + this.unparseableCount > 0 ? EXIT_NOT_FORMATTED : EXIT_OK;
+	}
+
+	private void processChunk(final List<Path> files, final FormatBatch.Options options)
+			throws IOException, InterruptedException {
+		final List<SourceUnit> units = new ArrayList<>(files.size());
+		final List<Path> unitFiles = new ArrayList<>(files.size());
+		// decoding replaces malformed input by default, writing the result back would corrupt the file
+		final CharsetDecoder decoder = this.encoding.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		for (final Path file : files) {
+			final byte[] bytes = Files.readAllBytes(file);
+			this.byteCount += bytes.length;
+			final String source;
+			try {
+				source = decoder.decode(ByteBuffer.wrap(bytes)).toString();
+			} catch (final CharacterCodingException e) {
+				this.fileCount++;
+				this.failureCount++;
+				this.err.println(file + ": not valid " + this.encoding.name() + ", left untouched"); //$NON-NLS-1$ //$NON-NLS-2$
+				continue;
+			}
+			units.add(new SourceUnit(file.toString(), source, SourceUnit.DEFAULT_KIND, detectLineSeparator(source)));
+			unitFiles.add(file);
+		}
+
+		final List<FormatResult> results = FormatBatch.formatAll(units, options);
+		for (int i = 0; i < results.size(); i++) {
+			final FormatResult result = results.get(i);
+			this.fileCount++;
+			if (result.getFailure() != null) {
+				this.failureCount++;
+				this.err.println(result.getUnit() + ": formatter failure: " + result.getFailure()); //$NON-NLS-1$
+				continue;
+			}
+			if (!result.isFormattable()) {
+				// same as in the workbench, sources with syntax errors are left untouched
+				this.unparseableCount++;
+				this.err.println(result.getUnit() + ": cannot be parsed, left untouched"); //$NON-NLS-1$
+				continue;
+			}
+			if (!result.isChanged()) {
+				continue;
+			}
+			this.changedCount++;
+			this.out.println(result.getUnit());
+			if (this.apply) {
+				Files.write(unitFiles.get(i), result.getFormattedSource().getBytes(this.encoding));
+			}
+		}
+	}
+
+	private static String detectLineSeparator(final String source) {
+		final int index = source.indexOf('\n');
+		if (index < 0) {
+			return source.indexOf('\r') < 0 ? null : "\r"; //$NON-NLS-1$
+		}
+		return index > 0 && source.charAt(index - 1) == '\r' ? "\r\n" : "\n"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void printSummary(final long elapsedNanos) {
+		final double seconds = Math.max(elapsedNanos, 1) / 1e9;
+		final double megabytes = this.byteCount / MEGABYTE;
+		this.err.println(String.format(Locale.ROOT,
+				"%s: %d files (%.2f MB) in %.2f s, %.1f files/s, %.2f MB/s; %d %s, %d not parsed, %d failed", //$NON-NLS-1$
+				this.engine.name().toLowerCase(Locale.ROOT), this.fileCount, megabytes, seconds,
+				this.fileCount / seconds, megabytes / seconds, this.changedCount,
+				this.apply ? "formatted" : "not formatted", this.unparseableCount, this.failureCount)); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,89 @@
+package org.eclipse.jdt.legacy.formatter.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads formatter settings from the files Eclipse produces.
+ * <p>
+ * Two formats are supported: the {@code .settings/org.eclipse.jdt.core.prefs}
+ * file of a project, and a profile exported from the formatter preference page
+ * (an XML file with {@code <setting id="..." value="..."/>} elements).
+ */
+public final class FormatterProfile {
+
+	private static final String JDT_CORE_PREFIX = "org.eclipse.jdt.core."; //$NON-NLS-1$
+	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
+	private static final String DISALLOW_DOCTYPE_FEATURE = "http://apache.org/xml/features/disallow-doctype-decl"; //$NON-NLS-1$
+
+	private FormatterProfile() {
+		super();
+	}
+
+	/**
+	 * Loads the settings stored in the given file.
+	 *
+	 * @param file a {@code .prefs} file or an exported XML profile
+	 * @return the JDT core settings found in the file
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static Map<String, String> load(final Path file) throws IOException {
+		if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(XML_EXTENSION)) {
+			return loadXmlProfile(file);
+		}
+		return loadPreferences(file);
+	}
+
+	private static Map<String, String> loadPreferences(final Path file) throws IOException {
+		final Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+		final Map<String, String> settings = new HashMap<>();
+		for (final String key : properties.stringPropertyNames()) {
+			if (key.startsWith(JDT_CORE_PREFIX)) {
+				settings.put(key, properties.getProperty(key));
+			}
+		}
+		return settings;
+	}
+
+	private static Map<String, String> loadXmlProfile(final Path file) throws IOException {
+		final Document document;
+		try (InputStream in = Files.newInputStream(file)) {
+			// profiles may come from the code being checked, never resolve external entities or DTDs
+			final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature(DISALLOW_DOCTYPE_FEATURE, true);
+			factory.setExpandEntityReferences(false);
+			document = factory.newDocumentBuilder().parse(in);
+		} catch (final ParserConfigurationException | SAXException e) {
+			throw new IOException("Invalid formatter profile " + file, e); //$NON-NLS-1$
+		}
+		final Map<String, String> settings = new HashMap<>();
+		final NodeList nodes = document.getElementsByTagName("setting"); //$NON-NLS-1$
+		for (int i = 0; i < nodes.getLength(); i++) {
+			final Element setting = (Element) nodes.item(i);
+			final String id = setting.getAttribute("id"); //$NON-NLS-1$
+			if (id.startsWith(JDT_CORE_PREFIX)) {
+				settings.put(id, setting.getAttribute("value")); //$NON-NLS-1$
+			}
+		}
+		return settings;
+	}
+}
@@ -0,0 +1,100 @@
+package org.eclipse.jdt.legacy.formatter.batch;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+
+/**
+ * A piece of source code to be formatted as part of a {@link FormatBatch}.
+ */
+public final class SourceUnit {
+
+	/**
+	 * The kind used when none is given: a whole compilation unit, comments
+	 * included.
+	 */
+	public static final int DEFAULT_KIND = CodeFormatter.K_COMPILATION_UNIT | CodeFormatter.F_INCLUDE_COMMENTS;
+
+	private final String name;
+	private final String source;
+	private final int kind;
+	private final String lineSeparator;
+
+	/**
+	 * Constructor for a whole compilation unit.
+	 *
+	 * @param name   a name identifying the unit, typically its path
+	 * @param source the source code
+	 */
+	public SourceUnit(final String name, final String source) {
+		this(name, source, DEFAULT_KIND);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name   a name identifying the unit, typically its path
+	 * @param source the source code
+	 * @param kind   the kind of code snippet, one of the {@link CodeFormatter}
+	 *               {@code K_*} constants, possibly combined with
+	 *               {@link CodeFormatter#F_INCLUDE_COMMENTS}
+	 */
+	public SourceUnit(final String name, final String source, final int kind) {
+		this(name, source, kind, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name          a name identifying the unit, typically its path
+	 * @param source        the source code
+	 * @param kind          the kind of code snippet, one of the
+	 *                      {@link CodeFormatter} {@code K_*} constants,
+	 *                      possibly combined with
+	 *                      {@link CodeFormatter#F_INCLUDE_COMMENTS}
+	 * @param lineSeparator the line separator to use for this unit,
+	 *                      {@code null} to use the one of the batch
+	 */
+	public SourceUnit(final String name, final String source, final int kind, final String lineSeparator) {
+		super();
+		if (source == null) {
+			throw new IllegalArgumentException("source must not be null"); //$NON-NLS-1$
+		}
+		this.name = name;
+		this.source = source;
+		this.kind = kind;
+		this.lineSeparator = lineSeparator;
+	}
+
+	/**
+	 * @return the name identifying this unit
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the source code
+	 */
+	public String getSource() {
+		return this.source;
+	}
+
+	/**
+	 * @return the kind of code snippet
+	 */
+	public int getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * @return the line separator to use for this unit, {@code null} to use
+	 *         the one of the batch
+	 */
+	public String getLineSeparator() {
+		return this.lineSeparator;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+}
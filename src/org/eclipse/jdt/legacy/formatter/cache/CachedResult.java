@@ -0,0 +1,68 @@
+package org.eclipse.jdt.legacy.formatter.cache;
+
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * A formatting result read from a {@link FormatCache}.
+ */
+public final class CachedResult {
+
+	static final byte STATE_UNFORMATTABLE = 0;
+	static final byte STATE_FORMATTED = 1;
+	static final byte STATE_EDITS = 2;
+
+	private final byte state;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final String[] texts;
+
+	CachedResult(final byte state, final int[] offsets, final int[] lengths, final String[] texts) {
+		super();
+		this.state = state;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.texts = texts;
+	}
+
+	/**
+	 * @return false if the formatter could not format the source, e.g.
+	 *         because of syntax errors
+	 */
+	public boolean isFormattable() {
+		return this.state != STATE_UNFORMATTABLE;
+	}
+
+	/**
+	 * @return true if formatting leaves the source unchanged
+	 */
+	public boolean isAlreadyFormatted() {
+		return this.state == STATE_FORMATTED;
+	}
+
+	/**
+	 * @return the number of replacements needed to format the source
+	 */
+	public int getEditCount() {
+		return this.state == STATE_EDITS ? this.offsets.length : 0;
+	}
+
+	/**
+	 * Rebuilds an edit equivalent to the one the formatter returned.
+	 *
+	 * @return a new edit; {@code null} if the source could not be formatted
+	 */
+	public TextEdit toTextEdit() {
+		if (this.state == STATE_UNFORMATTABLE) {
+			return null;
+		}
+		final MultiTextEdit edit = new MultiTextEdit();
+		if (this.state == STATE_EDITS) {
+			for (int i = 0; i < this.offsets.length; i++) {
+				edit.addChild(new ReplaceEdit(this.offsets[i], this.lengths[i], this.texts[i]));
+			}
+		}
+		return edit;
+	}
+}
@@ -0,0 +1,426 @@
+package org.eclipse.jdt.legacy.formatter.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.OptionsFingerprint;
+import org.eclipse.text.edits.DeleteEdit;
+import org.eclipse.text.edits.InsertEdit;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * A persistent cache of formatting results, addressed by content.
+ * <p>
+ * Entries are keyed by a digest of everything that determines the result: the
+ * engine and its {@link #FORMATTER_REVISION revision}, the
+ * {@link OptionsFingerprint fingerprint} of the settings, the kind of snippet,
+ * the indentation level, the line separator and the source text.
+ * Each entry records whether the source was already formatted, could not be
+ * formatted at all, or else the replacements needed to format it.
+ * <p>
+ * Entries are stored one per file, written to a temporary file first and then
+ * renamed, so several threads or processes can share the same directory. The
+ * modification time of the entry files is refreshed on every hit and the least
+ * recently used entries are removed when the total size exceeds the limit.
+ * <p>
+ * The cache is best effort: I/O errors are never reported to callers, they
+ * just turn into cache misses.
+ */
+public final class FormatCache {
+
+	/**
+	 * Revision of the formatters, part of every key so that results cached by
+	 * an older version of the plugin are not used. Increment it with every
+	 * change that may change the output of either formatter.
+	 */
+	public static final int FORMATTER_REVISION = 1;
+
+	private static final int MAGIC = 0x4C4A4643; // "LJFC"
+	private static final byte VERSION = 1;
+	private static final String ENTRY_SUFFIX = ".entry"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	// temporary files older than this are leftovers of crashed processes
+	private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+
+	private final Path directory;
+	private final long maxBytes;
+	private final AtomicLong size = new AtomicLong();
+	private final Object evictionLock = new Object();
+
+	/**
+	 * Opens a cache directory, creating it if needed.
+	 *
+	 * @param directory the cache directory
+	 * @param maxBytes  the maximum total size of the entries, in bytes
+	 * @throws IOException if the directory cannot be created or read
+	 */
+	public FormatCache(final Path directory, final long maxBytes) throws IOException {
+		super();
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive"); //$NON-NLS-1$
+		}
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+		this.size.set(scanEntries(null));
+	}
+
+	/**
+	 * Computes the key of a formatting request.
+	 *
+	 * @param engine             the formatter engine
+	 * @param optionsFingerprint the fingerprint of the formatter settings
+	 * @param kind               the kind of snippet
+	 * @param source             the source text
+	 * @param indentationLevel   the initial indentation level
+	 * @param lineSeparator      the line separator, may be {@code null}
+	 * @return the key
+	 */
+	public String computeKey(final FormatterEngine engine, final String optionsFingerprint, final int kind,
+			final String source, final int indentationLevel, final String lineSeparator) {
+		final MessageDigest digest = OptionsFingerprint.newDigest();
+		OptionsFingerprint.update(digest, engine.name());
+		OptionsFingerprint.update(digest, Integer.toString(FORMATTER_REVISION));
+		OptionsFingerprint.update(digest, optionsFingerprint);
+		OptionsFingerprint.update(digest, Integer.toString(kind));
+		OptionsFingerprint.update(digest, Integer.toString(indentationLevel));
+		OptionsFingerprint.update(digest, lineSeparator);
+		OptionsFingerprint.update(digest, source);
+		return OptionsFingerprint.toHex(digest.digest());
+	}
+
+	/**
+	 * Looks up a result.
+	 *
+	 * @param key the key, as returned by {@link #computeKey}
+	 * @return the cached result, {@code null} on a miss
+	 */
+	public CachedResult get(final String key) {
+		final Path file = entryFile(key);
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file);
+		} catch (final IOException e) {
+			return null;
+		}
+		final CachedResult result = decode(bytes);
+		if (result == null) {
+			// corrupted or written by another version
+			delete(file);
+			return null;
+		}
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (final IOException e) {
+			// concurrently evicted, the result is still good
+		}
+		return result;
+	}
+
+	/**
+	 * Stores the result of formatting a source.
+	 *
+	 * @param key    the key, as returned by {@link #computeKey}
+	 * @param source the source text that was formatted
+	 * @param edit   the edit returned by the formatter, {@code null} if it
+	 *               could not format the source
+	 */
+	public void put(final String key, final String source, final TextEdit edit) {
+		final byte[] bytes = encode(source, edit);
+		if (bytes == null) {
+			return;
+		}
+		final Path file = entryFile(key);
+		long replacedBytes = 0;
+		try {
+			final Path parent = file.getParent();
+			Files.createDirectories(parent);
+			final Path temp = Files.createTempFile(parent, key, TEMP_SUFFIX);
+			try {
+				Files.write(temp, bytes);
+				replacedBytes = entrySize(file);
+				try {
+					Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (final AtomicMoveNotSupportedException e) {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (final IOException e) {
+			return;
+		}
+		if (this.size.addAndGet(bytes.length - replacedBytes) > this.maxBytes) {
+			evict();
+		}
+	}
+
+	private static long entrySize(final Path file) {
+		try {
+			// an entry replaced by another thread or process, or a corrupted one
+			return Files.size(file);
+		} catch (final IOException e) {
+			// no entry yet
+			return 0;
+		}
+	}
+
+	private Path entryFile(final String key) {
+		return this.directory.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+	}
+
+	private void evict() {
+		synchronized (this.evictionLock) {
+			if (this.size.get() <= this.maxBytes) {
+				return;
+			}
+			final List<Path> files = new ArrayList<>();
+			final List<FileTime> times = new ArrayList<>();
+			final List<Long> sizes = new ArrayList<>();
+			long total;
+			try {
+				total = scanEntries(new EntryCollector() {
+					@Override
+					public void entry(final Path file, final BasicFileAttributes attributes) {
+						files.add(file);
+						times.add(attributes.lastModifiedTime());
+						sizes.add(attributes.size());
+					}
+				});
+			} catch (final IOException e) {
+				return;
+			}
+
+			final Integer[] order = new Integer[files.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					return times.get(a).compareTo(times.get(b));
+				}
+			});
+
+			// evict down to three quarters of the limit, so that eviction does not run on every put
+			final long target = this.maxBytes / 4 * 3;
+			for (final Integer index : order) {
+				if (total <= target) {
+					break;
+				}
+				if (delete(files.get(index))) {
+					total -= sizes.get(index);
+				}
+			}
+			this.size.set(total);
+		}
+	}
+
+	private interface EntryCollector {
+		void entry(Path file, BasicFileAttributes attributes);
+	}
+
+	private long scanEntries(final EntryCollector collector) throws IOException {
+		final long[] total = new long[1];
+		final long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> shards = Files.newDirectoryStream(this.directory)) {
+			for (final Path shard : shards) {
+				if (!Files.isDirectory(shard)) {
+					continue;
+				}
+				Files.walkFileTree(shard, Collections.emptySet(), 1, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+						final String name = file.getFileName().toString();
+						if (name.endsWith(ENTRY_SUFFIX)) {
+							total[0] += attributes.size();
+							if (collector != null) {
+								collector.entry(file, attributes);
+							}
+						} else if (name.endsWith(TEMP_SUFFIX)
+								&& now - attributes.lastModifiedTime().toMillis() > STALE_TEMP_MILLIS) {
+							delete(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+						// concurrently deleted
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+		}
+		return total[0];
+	}
+
+	private static boolean delete(final Path file) {
+		try {
+			Files.delete(file);
+			return true;
+		} catch (final IOException e) {
+			// already deleted by another thread or process
+			return false;
+		}
+	}
+
+	// -- Entry encoding: header, state, then for edits a count followed by
+	// -- (offset delta, length, text) triples, all integers as varints.
+
+	private static byte[] encode(final String source, final TextEdit edit) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		writeInt(out, MAGIC);
+		out.write(VERSION);
+		if (edit == null) {
+			out.write(CachedResult.STATE_UNFORMATTABLE);
+			return out.toByteArray();
+		}
+
+		final List<TextEdit> leaves = new ArrayList<>();
+		if (!collectLeaves(edit, leaves)) {
+			return null;
+		}
+		final List<TextEdit> changes = new ArrayList<>(leaves.size());
+		for (final TextEdit leaf : leaves) {
+			final String text = getText(leaf);
+			if (!source.regionMatches(leaf.getOffset(), text, 0, text.length()) || leaf.getLength() != text.length()) {
+				changes.add(leaf);
+			}
+		}
+		if (changes.isEmpty()) {
+			out.write(CachedResult.STATE_FORMATTED);
+			return out.toByteArray();
+		}
+
+		out.write(CachedResult.STATE_EDITS);
+		writeVarInt(out, changes.size());
+		int previousEnd = 0;
+		for (final TextEdit change : changes) {
+			final byte[] text = getText(change).getBytes(StandardCharsets.UTF_8);
+			writeVarInt(out, change.getOffset() - previousEnd);
+			writeVarInt(out, change.getLength());
+			writeVarInt(out, text.length);
+			out.write(text, 0, text.length);
+			previousEnd = change.getOffset() + change.getLength();
+		}
+		return out.toByteArray();
+	}
+
+	private static boolean collectLeaves(final TextEdit edit, final List<TextEdit> leaves) {
+		if (edit instanceof MultiTextEdit) {
+			for (final TextEdit child : edit.getChildren()) {
+				if (!collectLeaves(child, leaves)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if ((edit instanceof ReplaceEdit || edit instanceof InsertEdit || edit instanceof DeleteEdit)
+				&& !edit.hasChildren()) {
+			leaves.add(edit);
+			return true;
+		}
+		// unknown kind of edit, don't cache it
+		return false;
+	}
+
+	private static String getText(final TextEdit edit) {
+		if (edit instanceof ReplaceEdit) {
+			return ((ReplaceEdit) edit).getText();
+		}
+		if (edit instanceof InsertEdit) {
+			return ((InsertEdit) edit).getText();
+		}
+		return ""; //$NON-NLS-1$
+	}
+
+	private static CachedResult decode(final byte[] bytes) {
+		final ByteBuffer in = ByteBuffer.wrap(bytes);
+		try {
+			if (in.getInt() != MAGIC || in.get() != VERSION) {
+				return null;
+			}
+			final byte state = in.get();
+			if (state == CachedResult.STATE_UNFORMATTABLE || state == CachedResult.STATE_FORMATTED) {
+				return new CachedResult(state, null, null, null);
+			}
+			if (state != CachedResult.STATE_EDITS) {
+				return null;
+			}
+			final int count = readVarInt(in);
+			if (count <= 0 || count > in.remaining()) {
+				return null;
+			}
+			final int[] offsets = new int[count];
+			final int[] lengths = new int[count];
+			final String[] texts = new String[count];
+			int previousEnd = 0;
+			for (int i = 0; i < count; i++) {
+				offsets[i] = previousEnd + readVarInt(in);
+				lengths[i] = readVarInt(in);
+				final int textLength = readVarInt(in);
+				if (textLength > in.remaining()) {
+					return null;
+				}
+				texts[i] = new String(bytes, in.position(), textLength, StandardCharsets.UTF_8);
+				in.position(in.position() + textLength);
+				previousEnd = offsets[i] + lengths[i];
+			}
+			return in.hasRemaining() ? null : new CachedResult(state, offsets, lengths, texts);
+		} catch (final RuntimeException e) {
+			// truncated entry
+			return null;
+		}
+	}
+
+	private static void writeInt(final ByteArrayOutputStream out, final int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void writeVarInt(final ByteArrayOutputStream out, final int value) {
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			out.write((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		out.write(remaining);
+	}
+
+	private static int readVarInt(final ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint"); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,207 @@
+package org.eclipse.jdt.legacy.formatter.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+
+/**
+ * Everything given to a format call, so that the call can be run again
+ * exactly as it happened: the engine, the kind, the source, the regions, the
+ * indentation level, the line separator and the complete settings of the
+ * formatter.
+ * <p>
+ * Dumps are stored as properties files. Option keys are prefixed with
+ * {@value #OPTION_PREFIX}, the other keys describe the call.
+ *
+ * @see SlowFormatCapture
+ */
+public final class FormatDump {
+
+	/** The prefix of the keys holding the formatter settings. */
+	public static final String OPTION_PREFIX = "option."; //$NON-NLS-1$
+
+	private static final String ENGINE = "engine"; //$NON-NLS-1$
+	private static final String KIND = "kind"; //$NON-NLS-1$
+	private static final String REGIONS = "regions"; //$NON-NLS-1$
+	private static final String INDENTATION_LEVEL = "indentationLevel"; //$NON-NLS-1$
+	private static final String LINE_SEPARATOR = "lineSeparator"; //$NON-NLS-1$
+	private static final String ELAPSED_NANOS = "elapsedNanos"; //$NON-NLS-1$
+	private static final String SOURCE = "source"; //$NON-NLS-1$
+
+	private final FormatterEngine engine;
+	private final int kind;
+	private final String source;
+	private final IRegion[] regions;
+	private final int indentationLevel;
+	private final String lineSeparator;
+	private final Map<String, String> options;
+	private final long elapsedNanos;
+
+	/**
+	 * Creates a dump.
+	 *
+	 * @param engine           the formatter
+	 * @param kind             the kind given to the formatter
+	 * @param source           the source given to the formatter
+	 * @param regions          the regions given to the formatter
+	 * @param indentationLevel the indentation level given to the formatter
+	 * @param lineSeparator    the line separator given to the formatter,
+	 *                         may be {@code null}
+	 * @param options          the settings of the formatter
+	 * @param elapsedNanos     how long the call took when it was captured
+	 */
+	public FormatDump(final FormatterEngine engine, final int kind, final String source, final IRegion[] regions,
+			final int indentationLevel, final String lineSeparator, final Map<String, String> options,
+			final long elapsedNanos) {
+		super();
+		this.engine = engine;
+		this.kind = kind;
+		this.source = source;
+		this.regions = regions.clone();
+		this.indentationLevel = indentationLevel;
+		this.lineSeparator = lineSeparator;
+		this.options = Collections.unmodifiableMap(new HashMap<>(options));
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Reads a dump written by {@link #write(Path)}.
+	 *
+	 * @param file the dump file
+	 * @return the dump
+	 * @throws IOException if the file cannot be read or is not a dump
+	 */
+	public static FormatDump read(final Path file) throws IOException {
+		final Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+		final Map<String, String> options = new HashMap<>();
+		for (final String key : properties.stringPropertyNames()) {
+			if (key.startsWith(OPTION_PREFIX)) {
+				options.put(key.substring(OPTION_PREFIX.length()), properties.getProperty(key));
+			}
+		}
+		try {
+			return new FormatDump(FormatterEngine.fromName(required(properties, ENGINE, file)),
+					Integer.parseInt(required(properties, KIND, file)), required(properties, SOURCE, file),
+					parseRegions(required(properties, REGIONS, file)),
+					Integer.parseInt(required(properties, INDENTATION_LEVEL, file)),
+					properties.getProperty(LINE_SEPARATOR), options,
+					Long.parseLong(properties.getProperty(ELAPSED_NANOS, "0"))); //$NON-NLS-1$
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Invalid format dump " + file + ": " + e.getMessage(), e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	private static String required(final Properties properties, final String key, final Path file)
+			throws IOException {
+		final String value = properties.getProperty(key);
+		if (value == null) {
+			throw new IOException("Missing " + key + " in format dump " + file); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return value;
+	}
+
+	private static IRegion[] parseRegions(final String value) {
+		if (value.isEmpty()) {
+			return new IRegion[0];
+		}
+		final String[] parts = value.split(","); //$NON-NLS-1$
+		final IRegion[] regions = new IRegion[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			final int colon = parts[i].indexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Invalid region " + parts[i]); //$NON-NLS-1$
+			}
+			regions[i] = new Region(Integer.parseInt(parts[i].substring(0, colon)),
+					Integer.parseInt(parts[i].substring(colon + 1)));
+		}
+		return regions;
+	}
+
+	/**
+	 * Writes the dump.
+	 *
+	 * @param file the file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(final Path file) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty(ENGINE, this.engine.name());
+		properties.setProperty(KIND, Integer.toString(this.kind));
+		final StringBuilder regionList = new StringBuilder();
+		for (final IRegion region : this.regions) {
+			if (regionList.length() > 0) {
+				regionList.append(',');
+			}
+			regionList.append(region.getOffset()).append(':').append(region.getLength());
+		}
+		properties.setProperty(REGIONS, regionList.toString());
+		properties.setProperty(INDENTATION_LEVEL, Integer.toString(this.indentationLevel));
+		if (this.lineSeparator != null) {
+			properties.setProperty(LINE_SEPARATOR, this.lineSeparator);
+		}
+		properties.setProperty(ELAPSED_NANOS, Long.toString(this.elapsedNanos));
+		for (final Map.Entry<String, String> option : this.options.entrySet()) {
+			properties.setProperty(OPTION_PREFIX + option.getKey(), option.getValue());
+		}
+		properties.setProperty(SOURCE, this.source);
+		try (OutputStream out = Files.newOutputStream(file)) {
+			properties.store(out, "Format call taking " + this.elapsedNanos / 1000000 + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	public FormatterEngine getEngine() {
+		return this.engine;
+	}
+
+	public int getKind() {
+		return this.kind;
+	}
+
+	public String getSource() {
+		return this.source;
+	}
+
+	public IRegion[] getRegions() {
+		return this.regions.clone();
+	}
+
+	public int getIndentationLevel() {
+		return this.indentationLevel;
+	}
+
+	/**
+	 * @return the line separator given to the formatter, {@code null} if it
+	 *         was left to the settings
+	 */
+	public String getLineSeparator() {
+		return this.lineSeparator;
+	}
+
+	/**
+	 * @return the settings of the formatter, ready to be given to
+	 *         {@link FormatterEngine#createFormatter(Map)}
+	 */
+	public Map<String, String> getOptions() {
+		return this.options;
+	}
+
+	/**
+	 * @return how long the call took when it was captured
+	 */
+	public long getElapsedNanos() {
+		return this.elapsedNanos;
+	}
+}
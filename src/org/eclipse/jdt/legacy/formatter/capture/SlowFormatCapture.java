@@ -0,0 +1,185 @@
+package org.eclipse.jdt.legacy.formatter.capture;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jface.text.IRegion;
+
+/**
+ * Writes a {@link FormatDump} of the format calls that take longer than a
+ * threshold, so that they can be replayed and measured offline with
+ * {@code org.eclipse.jdt.legacy.formatter.bench.FormatReplay}.
+ * <p>
+ * Capture is off unless the {@value #DIRECTORY_PROPERTY} system property names
+ * the dump directory or {@link #enable(Path, long)} is called. The threshold
+ * is read from {@value #THRESHOLD_PROPERTY}, in milliseconds, and is
+ * {@value #DEFAULT_THRESHOLD_MILLIS} by default. At most
+ * {@value #MAX_DUMPS} dumps are written per configuration, so that a
+ * formatter that is slow on everything cannot fill the disk.
+ * <p>
+ * Capture is best effort: I/O errors are never reported to callers, the dump
+ * is just missing.
+ *
+ * <pre>
+ * SlowFormatCapture capture = SlowFormatCapture.begin();
+ * ...
+ * if (capture != null &amp;&amp; capture.isSlow()) {
+ *     capture.dump(FormatterEngine.NEON, kind, source, regions, indentationLevel, lineSeparator, options);
+ * }
+ * </pre>
+ */
+public final class SlowFormatCapture {
+
+	/** The system property naming the dump directory. */
+	public static final String DIRECTORY_PROPERTY = "org.eclipse.jdt.legacy.formatter.capture.directory"; //$NON-NLS-1$
+	/** The system property with the threshold, in milliseconds. */
+	public static final String THRESHOLD_PROPERTY = "org.eclipse.jdt.legacy.formatter.capture.thresholdMillis"; //$NON-NLS-1$
+	/** The threshold when none is configured, in milliseconds. */
+	public static final long DEFAULT_THRESHOLD_MILLIS = 1000;
+	/** The maximum number of dumps written per configuration. */
+	public static final int MAX_DUMPS = 100;
+
+	private static final String DUMP_SUFFIX = ".properties"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	private static volatile Configuration configuration = Configuration.fromSystemProperties();
+
+	private final Configuration capturing;
+	private final long start;
+
+	private SlowFormatCapture(final Configuration capturing) {
+		super();
+		this.capturing = capturing;
+		this.start = System.nanoTime();
+	}
+
+	/**
+	 * Captures the following slow format calls.
+	 *
+	 * @param directory       the dump directory, created when the first dump is
+	 *                        written
+	 * @param thresholdMillis the duration above which a call is captured
+	 */
+	public static void enable(final Path directory, final long thresholdMillis) {
+		if (thresholdMillis < 0) {
+			throw new IllegalArgumentException("thresholdMillis must not be negative"); //$NON-NLS-1$
+		}
+		configuration = new Configuration(directory, TimeUnit.MILLISECONDS.toNanos(thresholdMillis));
+	}
+
+	/**
+	 * Stops capturing format calls.
+	 */
+	public static void disable() {
+		configuration = null;
+	}
+
+	/**
+	 * Starts timing a format call.
+	 *
+	 * @return the capture of the call, or {@code null} if capture is off
+	 */
+	public static SlowFormatCapture begin() {
+		final Configuration current = configuration;
+		return current == null ? null : new SlowFormatCapture(current);
+	}
+
+	/**
+	 * @return whether the call has taken longer than the threshold so far
+	 */
+	public boolean isSlow() {
+		return System.nanoTime() - this.start > this.capturing.thresholdNanos;
+	}
+
+	/**
+	 * Writes the dump of the call to the dump directory.
+	 *
+	 * @param engine           the formatter
+	 * @param kind             the kind given to the formatter
+	 * @param source           the source given to the formatter
+	 * @param regions          the regions given to the formatter
+	 * @param indentationLevel the indentation level given to the formatter
+	 * @param lineSeparator    the line separator given to the formatter, may be
+	 *                         {@code null}
+	 * @param options          the settings of the formatter
+	 * @return the dump file, or {@code null} if it was not written
+	 */
+	public Path dump(final FormatterEngine engine, final int kind, final String source, final IRegion[] regions,
+			final int indentationLevel, final String lineSeparator, final Map<String, String> options) {
+		final long elapsedNanos = System.nanoTime() - this.start;
+		final int number = this.capturing.dumpCount.incrementAndGet();
+		if (number > MAX_DUMPS) {
+			return null;
+		}
+		final String name = String.format(Locale.ROOT, "format-%s-%s-%03d", //$NON-NLS-1$
+				engine.name().toLowerCase(Locale.ROOT),
+				new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()), //$NON-NLS-1$
+				Integer.valueOf(number));
+		final Path file = this.capturing.directory.resolve(name + DUMP_SUFFIX);
+		final Path temp = this.capturing.directory.resolve(name + TEMP_SUFFIX);
+		try {
+			Files.createDirectories(this.capturing.directory);
+			new FormatDump(engine, kind, source, regions, indentationLevel, lineSeparator, options, elapsedNanos)
+					.write(temp);
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return file;
+		} catch (final IOException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(temp);
+			} catch (final IOException ignored) {
+				// nothing more to do
+			}
+			return null;
+		}
+	}
+
+	private static final class Configuration {
+
+		final Path directory;
+		final long thresholdNanos;
+		final AtomicInteger dumpCount = new AtomicInteger();
+
+		Configuration(final Path directory, final long thresholdNanos) {
+			super();
+			this.directory = directory;
+			this.thresholdNanos = thresholdNanos;
+		}
+
+		static Configuration fromSystemProperties() {
+			final String directory = System.getProperty(DIRECTORY_PROPERTY);
+			if (directory == null || directory.isEmpty()) {
+				return null;
+			}
+			long thresholdMillis = DEFAULT_THRESHOLD_MILLIS;
+			final String threshold = System.getProperty(THRESHOLD_PROPERTY);
+			if (threshold != null) {
+				try {
+					thresholdMillis = Math.max(0, Long.parseLong(threshold.trim()));
+				} catch (final NumberFormatException e) {
+					// keep the default
+				}
+			}
+			try {
+				return new Configuration(Paths.get(directory), TimeUnit.MILLISECONDS.toNanos(thresholdMillis));
+			} catch (final InvalidPathException e) {
+				return null;
+			}
+		}
+	}
+}
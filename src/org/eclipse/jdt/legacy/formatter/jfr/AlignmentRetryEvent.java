@@ -0,0 +1,56 @@
+package org.eclipse.jdt.legacy.formatter.jfr;
+
+import static org.eclipse.jdt.legacy.formatter.jfr.FlightEventType.field;
+
+import org.eclipse.jdt.legacy.formatter.jfr.FlightEventType.FlightEvent;
+
+/**
+ * A Flight Recorder event telling that the Luna formatter went back to the
+ * start of an alignment to format it again with other line breaks. Many of
+ * them on the same alignment point at the code that makes a format call slow.
+ */
+public final class AlignmentRetryEvent {
+
+	private static final FlightEventType TYPE = FlightEventType.define(
+			"org.eclipse.jdt.legacy.formatter.AlignmentRetry", //$NON-NLS-1$
+			"Alignment Retry", "The Luna formatter formatting an alignment again", false, //$NON-NLS-1$ //$NON-NLS-2$
+			field(String.class, "alignment", "Alignment"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "sourceOffset", "Source Offset"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "outputLine", "Output Line"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "fragmentCount", "Fragments"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "discardedLength", "Discarded Length")); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private AlignmentRetryEvent() {
+		super();
+	}
+
+	/**
+	 * @return whether retries are being recorded, so that the caller can skip
+	 *         gathering the values
+	 */
+	public static boolean isRecording() {
+		return TYPE.isRecording();
+	}
+
+	/**
+	 * Records a retry.
+	 *
+	 * @param alignment       the name of the kind of alignment, see
+	 *                        {@code Alignment.NAMES}
+	 * @param sourceOffset    where the alignment starts in the source
+	 * @param outputLine      the line the alignment starts on in the output,
+	 *                        1 based
+	 * @param fragmentCount   the number of fragments of the alignment
+	 * @param discardedLength the length of the source that had been formatted
+	 *                        since the start of the alignment and is formatted
+	 *                        again
+	 */
+	public static void commit(final String alignment, final int sourceOffset, final int outputLine,
+			final int fragmentCount, final int discardedLength) {
+		final FlightEvent event = TYPE.begin();
+		if (event != null) {
+			event.commit(alignment, Integer.valueOf(sourceOffset), Integer.valueOf(outputLine),
+					Integer.valueOf(fragmentCount), Integer.valueOf(discardedLength));
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package org.eclipse.jdt.legacy.formatter.jfr;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An event type of Java Flight Recorder, defined at runtime with
+ * {@code jdk.jfr.EventFactory}.
+ * <p>
+ * The plugin still runs on Java 8, where {@code jdk.jfr} is missing from most
+ * VMs, so the API is only used through reflection. When it is missing, or when
+ * no recording is running, {@link #begin()} returns {@code null} and events
+ * cost a single volatile read.
+ */
+final class FlightEventType {
+
+	private static final String CATEGORY = "Java Formatter"; //$NON-NLS-1$
+
+	// null when the VM does not provide the API
+	private static final Api API = Api.load();
+
+	// whether a recording is running, kept up to date by a listener
+	private static volatile boolean recording;
+
+	private final Object factory;
+
+	/**
+	 * A field of an event type.
+	 */
+	static final class Field {
+
+		final Class<?> type;
+		final String name;
+		final String label;
+		final boolean timespan;
+
+		Field(final Class<?> type, final String name, final String label, final boolean timespan) {
+			super();
+			this.type = type;
+			this.name = name;
+			this.label = label;
+			this.timespan = timespan;
+		}
+	}
+
+	private FlightEventType(final Object factory) {
+		super();
+		this.factory = factory;
+	}
+
+	/**
+	 * @param type  the type of the field, a primitive type or {@code String}
+	 * @param name  the name of the field
+	 * @param label the human readable name
+	 * @return a field description for
+	 *         {@link #define(String, String, String, boolean, Field...)}
+	 */
+	static Field field(final Class<?> type, final String name, final String label) {
+		return new Field(type, name, label, false);
+	}
+
+	/**
+	 * @param name  the name of the field
+	 * @param label the human readable name
+	 * @return a description of a {@code long} field holding nanoseconds
+	 */
+	static Field timespan(final String name, final String label) {
+		return new Field(long.class, name, label, true);
+	}
+
+	/**
+	 * Defines an event type.
+	 *
+	 * @param name        the event name, e.g.
+	 *                    {@code org.eclipse.jdt.legacy.formatter.Format}
+	 * @param label       the human readable name
+	 * @param description what the event stands for
+	 * @param stackTrace  whether the events come with the stack trace of the
+	 *                    thread, costly for frequent events
+	 * @param fields      the fields, values are given to
+	 *                    {@link FlightEvent#commit(Object...)} in the same
+	 *                    order
+	 * @return the event type, which never records anything if Flight Recorder
+	 *         is not available
+	 */
+	static FlightEventType define(final String name, final String label, final String description,
+			final boolean stackTrace, final Field... fields) {
+		Object factory = null;
+		if (API != null) {
+			try {
+				factory = API.createFactory(name, label, description, stackTrace, fields);
+			} catch (final ReflectiveOperationException | RuntimeException e) {
+				// not worth failing the formatter over it, the type just records nothing
+			}
+		}
+		return new FlightEventType(factory);
+	}
+
+	/**
+	 * @return whether a recording is running and events of this type could be
+	 *         recorded
+	 */
+	boolean isRecording() {
+		return recording && this.factory != null;
+	}
+
+	/**
+	 * Starts an event, to be committed once the measured operation is over.
+	 *
+	 * @return the event, or {@code null} if no recording is running
+	 */
+	FlightEvent begin() {
+		if (!isRecording()) {
+			return null;
+		}
+		try {
+			final Object event = API.newEvent.invoke(this.factory);
+			API.begin.invoke(event);
+			return new FlightEvent(event);
+		} catch (final ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * An event in progress.
+	 */
+	static final class FlightEvent {
+
+		private final Object event;
+
+		FlightEvent(final Object event) {
+			super();
+			this.event = event;
+		}
+
+		/**
+		 * Ends the event and records it with the given field values, unless
+		 * the recording settings filter it out.
+		 *
+		 * @param values the values of the fields, in the order they were
+		 *               defined
+		 */
+		void commit(final Object... values) {
+			try {
+				API.end.invoke(this.event);
+				if (!((Boolean) API.shouldCommit.invoke(this.event)).booleanValue()) {
+					return;
+				}
+				for (int i = 0; i < values.length; i++) {
+					API.set.invoke(this.event, Integer.valueOf(i), values[i]);
+				}
+				API.commit.invoke(this.event);
+			} catch (final ReflectiveOperationException e) {
+				// the event is lost, formatting goes on
+			}
+		}
+	}
+
+	private static void updateRecording(final Api api) {
+		try {
+			boolean running = false;
+			final Object recorder = api.getFlightRecorder.invoke(null);
+			for (final Object recordingObject : (List<?>) api.getRecordings.invoke(recorder)) {
+				running |= api.running.equals(api.getState.invoke(recordingObject));
+			}
+			recording = running;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			recording = false;
+		}
+	}
+
+	/**
+	 * The reflective handles on the {@code jdk.jfr} API.
+	 */
+	private static final class Api {
+
+		Class<? extends Annotation> nameAnnotation;
+		Class<? extends Annotation> labelAnnotation;
+		Class<? extends Annotation> descriptionAnnotation;
+		Class<? extends Annotation> categoryAnnotation;
+		Class<? extends Annotation> timespanAnnotation;
+		Class<? extends Annotation> stackTraceAnnotation;
+		Constructor<?> annotationElement;
+		Constructor<?> valueDescriptor;
+		Method create;
+		Method newEvent;
+		Method begin;
+		Method end;
+		Method shouldCommit;
+		Method set;
+		Method commit;
+		Method getFlightRecorder;
+		Method getRecordings;
+		Method getState;
+		Object running;
+
+		static Api load() {
+			try {
+				final Api api = new Api();
+				api.init();
+				return api;
+			} catch (final ReflectiveOperationException | LinkageError | RuntimeException e) {
+				return null;
+			}
+		}
+
+		private void init() throws ReflectiveOperationException {
+			this.nameAnnotation = annotation("jdk.jfr.Name"); //$NON-NLS-1$
+			this.labelAnnotation = annotation("jdk.jfr.Label"); //$NON-NLS-1$
+			this.descriptionAnnotation = annotation("jdk.jfr.Description"); //$NON-NLS-1$
+			this.categoryAnnotation = annotation("jdk.jfr.Category"); //$NON-NLS-1$
+			this.timespanAnnotation = annotation("jdk.jfr.Timespan"); //$NON-NLS-1$
+			this.stackTraceAnnotation = annotation("jdk.jfr.StackTrace"); //$NON-NLS-1$
+			final Class<?> annotationElementClass = type("jdk.jfr.AnnotationElement"); //$NON-NLS-1$
+			this.annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+			this.valueDescriptor = type("jdk.jfr.ValueDescriptor") //$NON-NLS-1$
+					.getConstructor(Class.class, String.class, List.class);
+			final Class<?> factoryClass = type("jdk.jfr.EventFactory"); //$NON-NLS-1$
+			this.create = factoryClass.getMethod("create", List.class, List.class); //$NON-NLS-1$
+			this.newEvent = factoryClass.getMethod("newEvent"); //$NON-NLS-1$
+			final Class<?> eventClass = type("jdk.jfr.Event"); //$NON-NLS-1$
+			this.begin = eventClass.getMethod("begin"); //$NON-NLS-1$
+			this.end = eventClass.getMethod("end"); //$NON-NLS-1$
+			this.shouldCommit = eventClass.getMethod("shouldCommit"); //$NON-NLS-1$
+			this.set = eventClass.getMethod("set", int.class, Object.class); //$NON-NLS-1$
+			this.commit = eventClass.getMethod("commit"); //$NON-NLS-1$
+			final Class<?> recorderClass = type("jdk.jfr.FlightRecorder"); //$NON-NLS-1$
+			this.getFlightRecorder = recorderClass.getMethod("getFlightRecorder"); //$NON-NLS-1$
+			this.getRecordings = recorderClass.getMethod("getRecordings"); //$NON-NLS-1$
+			this.getState = type("jdk.jfr.Recording").getMethod("getState"); //$NON-NLS-1$ //$NON-NLS-2$
+			this.running = type("jdk.jfr.RecordingState").getField("RUNNING").get(null); //$NON-NLS-1$ //$NON-NLS-2$
+
+			// follow recordings as they start and stop, without initializing Flight Recorder ourselves
+			final Class<?> listenerClass = type("jdk.jfr.FlightRecorderListener"); //$NON-NLS-1$
+			final InvocationHandler handler = new InvocationHandler() {
+				@Override
+				public Object invoke(final Object proxy, final Method method, final Object[] args) {
+					switch (method.getName()) {
+						case "recordingStateChanged": //$NON-NLS-1$
+						case "recorderInitialized": //$NON-NLS-1$
+							updateRecording(Api.this);
+							return null;
+						case "hashCode": //$NON-NLS-1$
+							return Integer.valueOf(System.identityHashCode(proxy));
+						case "equals": //$NON-NLS-1$
+							return Boolean.valueOf(proxy == args[0]);
+						case "toString": //$NON-NLS-1$
+							return FlightEventType.class.getName();
+						default:
+							return null;
+					}
+				}
+			};
+			final Object listener = Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(),
+					new Class<?>[] { listenerClass }, handler);
+			recorderClass.getMethod("addListener", listenerClass).invoke(null, listener); //$NON-NLS-1$
+		}
+
+		Object createFactory(final String name, final String label, final String description,
+				final boolean stackTrace, final Field[] fields) throws ReflectiveOperationException {
+			final List<Object> annotations = new ArrayList<>();
+			annotations.add(this.annotationElement.newInstance(this.nameAnnotation, name));
+			annotations.add(this.annotationElement.newInstance(this.labelAnnotation, label));
+			annotations.add(this.annotationElement.newInstance(this.descriptionAnnotation, description));
+			annotations.add(this.annotationElement.newInstance(this.categoryAnnotation, new String[] { CATEGORY }));
+			annotations.add(this.annotationElement.newInstance(this.stackTraceAnnotation, Boolean.valueOf(stackTrace)));
+			final List<Object> descriptors = new ArrayList<>();
+			for (final Field field : fields) {
+				final List<Object> fieldAnnotations = new ArrayList<>();
+				fieldAnnotations.add(this.annotationElement.newInstance(this.labelAnnotation, field.label));
+				if (field.timespan) {
+					fieldAnnotations.add(this.annotationElement.newInstance(this.timespanAnnotation, "NANOSECONDS")); //$NON-NLS-1$
+				}
+				descriptors.add(this.valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+			}
+			return this.create.invoke(null, annotations, descriptors);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static Class<? extends Annotation> annotation(final String name) throws ClassNotFoundException {
+			return (Class<? extends Annotation>) type(name);
+		}
+
+		// bundle class loaders do not necessarily delegate jdk.* packages to the platform
+		private static Class<?> type(final String name) throws ClassNotFoundException {
+			return Class.forName(name, true, ClassLoader.getSystemClassLoader());
+		}
+	}
+}
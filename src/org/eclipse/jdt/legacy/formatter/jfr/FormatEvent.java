@@ -0,0 +1,148 @@
+package org.eclipse.jdt.legacy.formatter.jfr;
+
+import static org.eclipse.jdt.legacy.formatter.jfr.FlightEventType.field;
+
+import java.util.Locale;
+
+import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jdt.legacy.formatter.EditSink;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.jfr.FlightEventType.FlightEvent;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * A Flight Recorder event covering a single format call, so that slow calls
+ * show up in the same recording as GC and lock events.
+ *
+ * <pre>
+ * FormatEvent event = FormatEvent.begin(FormatterEngine.NEON, kind, source.length());
+ * ...
+ * if (event != null) {
+ *     event.commit(tokenCount, edit);
+ * }
+ * </pre>
+ */
+public final class FormatEvent {
+
+	private static final FlightEventType TYPE = FlightEventType.define("org.eclipse.jdt.legacy.formatter.Format", //$NON-NLS-1$
+			"Format", "A call to a Java formatter", true, //$NON-NLS-1$ //$NON-NLS-2$
+			field(String.class, "engine", "Engine"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(String.class, "kind", "Kind"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "sourceLength", "Source Length"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "tokenCount", "Tokens"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "editCount", "Edits"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(boolean.class, "formatted", "Formatted")); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private final FlightEvent event;
+	private final FormatterEngine engine;
+	private final int kind;
+	private final int sourceLength;
+	private CountingSink countingSink;
+
+	private FormatEvent(final FlightEvent event, final FormatterEngine engine, final int kind,
+			final int sourceLength) {
+		super();
+		this.event = event;
+		this.engine = engine;
+		this.kind = kind;
+		this.sourceLength = sourceLength;
+	}
+
+	/**
+	 * Starts an event for a format call.
+	 *
+	 * @param engine       the formatter
+	 * @param kind         the kind given to the formatter
+	 * @param sourceLength the length of the source to format
+	 * @return the event, or {@code null} if nothing is being recorded
+	 */
+	public static FormatEvent begin(final FormatterEngine engine, final int kind, final int sourceLength) {
+		final FlightEvent event = TYPE.begin();
+		return event == null ? null : new FormatEvent(event, engine, kind, sourceLength);
+	}
+
+	/**
+	 * Counts the replacements given to a sink, for calls that do not return
+	 * their edits.
+	 *
+	 * @param sink the sink the formatter is given
+	 * @return the sink to give the formatter instead
+	 */
+	public EditSink countEdits(final EditSink sink) {
+		this.countingSink = new CountingSink(sink);
+		return this.countingSink;
+	}
+
+	/**
+	 * Ends and records the event.
+	 *
+	 * @param tokenCount the number of tokens formatted, as counted by the engine
+	 * @param edit       the edit returned by the formatter, {@code null} if the
+	 *                   source could not be formatted
+	 */
+	public void commit(final int tokenCount, final TextEdit edit) {
+		final int editCount;
+		final boolean formatted;
+		if (this.countingSink != null) {
+			editCount = this.countingSink.count;
+			formatted = edit != null || this.countingSink.isDone();
+		} else {
+			editCount = edit == null ? 0 : edit.getChildrenSize();
+			formatted = edit != null;
+		}
+		this.event.commit(this.engine.name().toLowerCase(Locale.ROOT), kindName(this.kind),
+				Integer.valueOf(this.sourceLength), Integer.valueOf(tokenCount), Integer.valueOf(editCount),
+				Boolean.valueOf(formatted));
+	}
+
+	private static String kindName(final int kind) {
+		switch (kind & ~CodeFormatter.F_INCLUDE_COMMENTS) {
+			case CodeFormatter.K_COMPILATION_UNIT:
+				return "unit"; //$NON-NLS-1$
+			case CodeFormatter.K_CLASS_BODY_DECLARATIONS:
+				return "class-body"; //$NON-NLS-1$
+			case CodeFormatter.K_STATEMENTS:
+				return "statements"; //$NON-NLS-1$
+			case CodeFormatter.K_EXPRESSION:
+				return "expression"; //$NON-NLS-1$
+			case CodeFormatter.K_JAVA_DOC:
+				return "javadoc"; //$NON-NLS-1$
+			case CodeFormatter.K_MULTI_LINE_COMMENT:
+				return "block-comment"; //$NON-NLS-1$
+			case CodeFormatter.K_SINGLE_LINE_COMMENT:
+				return "line-comment"; //$NON-NLS-1$
+			case CodeFormatter.K_UNKNOWN:
+				return "unknown"; //$NON-NLS-1$
+			default:
+				return Integer.toString(kind);
+		}
+	}
+
+	private static final class CountingSink implements EditSink {
+
+		private final EditSink sink;
+		int count;
+
+		CountingSink(final EditSink sink) {
+			super();
+			this.sink = sink;
+		}
+
+		@Override
+		public void replace(final int offset, final int length, final String replacement) {
+			this.count++;
+			this.sink.replace(offset, length, replacement);
+		}
+
+		@Override
+		public boolean isDone() {
+			return this.sink.isDone();
+		}
+
+		@Override
+		public boolean restart() {
+			this.count = 0;
+			return this.sink.restart();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.eclipse.jdt.legacy.formatter.jfr;
+
+import static org.eclipse.jdt.legacy.formatter.jfr.FlightEventType.field;
+
+import org.eclipse.jdt.legacy.formatter.jfr.FlightEventType.FlightEvent;
+
+/**
+ * A Flight Recorder event covering the search for the best wraps of a top
+ * level line by the Neon formatter, the part of its work that can grow much
+ * faster than the size of the line.
+ */
+public final class WrapSearchEvent {
+
+	private static final FlightEventType TYPE = FlightEventType.define("org.eclipse.jdt.legacy.formatter.WrapSearch", //$NON-NLS-1$
+			"Wrap Search", "The search for the wraps of a top level line by the Neon formatter", false, //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "sourceOffset", "Source Offset"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "tokenCount", "Tokens"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "searches", "Searches"), //$NON-NLS-1$ //$NON-NLS-2$
+			field(int.class, "restarts", "Restarts")); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private final FlightEvent event;
+
+	private WrapSearchEvent(final FlightEvent event) {
+		super();
+		this.event = event;
+	}
+
+	/**
+	 * Starts an event for a top level line.
+	 *
+	 * @return the event, or {@code null} if nothing is being recorded
+	 */
+	public static WrapSearchEvent begin() {
+		final FlightEvent event = TYPE.begin();
+		return event == null ? null : new WrapSearchEvent(event);
+	}
+
+	/**
+	 * Ends and records the event.
+	 *
+	 * @param sourceOffset where the line starts in the source
+	 * @param tokenCount   the number of tokens of the line
+	 * @param searches     how many times the wraps of a line part were
+	 *                     searched, not counting the results reused
+	 * @param restarts     how many times the search started over because of
+	 *                     a top priority wrap
+	 */
+	public void commit(final int sourceOffset, final int tokenCount, final int searches, final int restarts) {
+		this.event.commit(Integer.valueOf(sourceOffset), Integer.valueOf(tokenCount), Integer.valueOf(searches),
+				Integer.valueOf(restarts));
+	}
+}
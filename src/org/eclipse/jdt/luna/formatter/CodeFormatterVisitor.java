@@ -189,6 +189,8 @@ public class CodeFormatterVisitor extends ASTVisitor {
 	int lastBinaryExpressionAlignmentBreakIndentation;
 	private Scanner localScanner;
 	public Scribe scribe;
+	// whether formatting was given up on after the source was parsed
+	boolean aborted;
 
 	// Binary expression positions storage
 	final static long  EXPRESSIONS_POS_ENTER_EQUALITY = 1;
@@ -600,6 +602,11 @@ public class CodeFormatterVisitor extends ASTVisitor {
 		return null;
 	}
 
+	private final TextEdit failedToFormat(AbortFormatting e) {
+		this.aborted = true;
+		return failedToFormat();
+	}
+
 	private void format(
 		AbstractMethodDeclaration methodDeclaration,
 		ClassScope scope,
@@ -881,7 +888,7 @@ public class CodeFormatterVisitor extends ASTVisitor {
 		try {
 			formatClassBodyDeclarations(nodes);
 		} catch(AbortFormatting e){
-			return failedToFormat();
+			return failedToFormat(e);
 		}
 		if (DEBUG){
 			System.out.println("Formatting time: " + (System.currentTimeMillis() - startTime));  //$NON-NLS-1$
@@ -916,7 +923,7 @@ public class CodeFormatterVisitor extends ASTVisitor {
 		} catch(AbortFormatting e){
 			if (DEBUG)
 				e.printStackTrace(System.out);
-			return failedToFormat();
+			return failedToFormat(e);
 		}
 		if (DEBUG){
 			System.out.println("Formatting time: " + (System.currentTimeMillis() - startTime));  //$NON-NLS-1$
@@ -960,7 +967,7 @@ public class CodeFormatterVisitor extends ASTVisitor {
 			}
 			this.scribe.printComment();
 		} catch(AbortFormatting e){
-			return failedToFormat();
+			return failedToFormat(e);
 		}
 		if (DEBUG){
 			System.out.println("Formatting time: " + (System.currentTimeMillis() - startTime));  //$NON-NLS-1$
@@ -994,7 +1001,7 @@ public class CodeFormatterVisitor extends ASTVisitor {
 			expression.traverse(this, (BlockScope) null);
 			this.scribe.printComment();
 		} catch(AbortFormatting e){
-			return failedToFormat();
+			return failedToFormat(e);
 		}
 		if (DEBUG){
 			System.out.println("Formatting time: " + (System.currentTimeMillis() - startTime));  //$NON-NLS-1$
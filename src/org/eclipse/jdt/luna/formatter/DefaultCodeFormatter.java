@@ -14,6 +14,7 @@
 package org.eclipse.jdt.luna.formatter;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.eclipse.jdt.core.JavaCore;
@@ -32,10 +33,25 @@ import org.eclipse.jdt.internal.compiler.parser.TerminalTokens;
 import org.eclipse.jdt.internal.compiler.util.Util;
 import org.eclipse.jdt.internal.core.util.CodeSnippetParsingUtil;
 import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+import org.eclipse.jdt.legacy.formatter.EditSink;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.OptionsSnapshot;
+import org.eclipse.jdt.legacy.formatter.SnippetKindClassifier;
+import org.eclipse.jdt.legacy.formatter.SourceRewriter;
+import org.eclipse.jdt.legacy.formatter.capture.SlowFormatCapture;
+import org.eclipse.jdt.legacy.formatter.jfr.FormatEvent;
+import org.eclipse.jdt.luna.formatter.align.AlignmentStatistics;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Region;
+import org.eclipse.text.edits.ReplaceEdit;
 import org.eclipse.text.edits.TextEdit;
 
+/**
+ * The Eclipse Luna (4.4) code formatter.
+ * <p>
+ * An instance keeps the state of the source it is formatting, so it must not be shared between threads: use one
+ * instance per thread. Separate instances share no mutable state and may format at the same time.
+ */
 @SuppressWarnings({ "rawtypes", "unchecked", "restriction" })
 public class DefaultCodeFormatter extends CodeFormatter {
 
@@ -55,7 +71,7 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		| K_JAVA_DOC;
 
 	// Scanner use to probe the kind of the source given to the formatter
-	private static Scanner PROBING_SCANNER;
+	private Scanner probingScanner;
 
 	private CodeSnippetParsingUtil codeSnippetParsingUtil;
 	private Map defaultCompilerOptions;
@@ -63,6 +79,12 @@ public class DefaultCodeFormatter extends CodeFormatter {
 	private CodeFormatterVisitor newCodeFormatter;
 	private Map options;
 
+	// set while formatting to a sink, see format(int, String, IRegion[], int, String, EditSink)
+	private EditSink sink;
+
+	private AlignmentStatistics alignmentStatistics = new AlignmentStatistics();
+
+	private OptionsSnapshot preferencesSnapshot;
 	private DefaultCodeFormatterOptions preferences;
 
 	public DefaultCodeFormatter() {
@@ -82,7 +104,7 @@ public class DefaultCodeFormatter extends CodeFormatter {
 			setOptions(options);
 		}
 		if (defaultCodeFormatterOptions != null) {
-			this.preferences.set(defaultCodeFormatterOptions.getMap());
+			getPreferences().set(defaultCodeFormatterOptions.getMap());
 		}
 	}
 
@@ -97,17 +119,17 @@ public class DefaultCodeFormatter extends CodeFormatter {
 
 		int tabs = 0;
 		int spaces = 0;
-		switch(this.preferences.tab_char) {
+		switch(getPreferences().tab_char) {
 			case DefaultCodeFormatterOptions.SPACE :
-				spaces = indentationLevel * this.preferences.tab_size;
+				spaces = indentationLevel * getPreferences().tab_size;
 				break;
 			case DefaultCodeFormatterOptions.TAB :
 				tabs = indentationLevel;
 				break;
 			case DefaultCodeFormatterOptions.MIXED :
-				int tabSize = this.preferences.tab_size;
+				int tabSize = getPreferences().tab_size;
 				if (tabSize != 0) {
-					int spaceEquivalents = indentationLevel * this.preferences.indentation_size;
+					int spaceEquivalents = indentationLevel * getPreferences().indentation_size;
 					tabs = spaceEquivalents / tabSize;
 					spaces = spaceEquivalents % tabSize;
 				}
@@ -136,18 +158,33 @@ public class DefaultCodeFormatter extends CodeFormatter {
 			throw new IllegalArgumentException();
 		}
 
+		return formatRegions(kind, source, new IRegion[] {new Region(offset, length)}, indentationLevel, lineSeparator);
+	}
+
+	/*
+	 * Format the regions like format(int, String, IRegion[], int, String) does, and comments like
+	 * format(int, String, int, int, int, String) does, over the region covering all the given ones.
+	 */
+	private TextEdit formatRegions(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator) {
 		switch(kind & K_MASK) {
 			case K_JAVA_DOC :
 				// https://bugs.eclipse.org/bugs/show_bug.cgi?id=102780
 				// use the integrated comment formatter to format comment
-                return formatComment(kind & K_MASK, source, indentationLevel, lineSeparator, new IRegion[] {new Region(offset, length)});
-				// $FALL-THROUGH$ - fall through next case when old comment formatter is activated
 			case K_MULTI_LINE_COMMENT :
 			case K_SINGLE_LINE_COMMENT :
-                return formatComment(kind & K_MASK, source, indentationLevel, lineSeparator, new IRegion[] {new Region(offset, length)});
+				this.alignmentStatistics = new AlignmentStatistics();
+				FormatEvent event = beginFormatEvent(kind, source);
+				SlowFormatCapture capture = SlowFormatCapture.begin();
+				TextEdit edit = null;
+				try {
+					edit = formatComment(kind & K_MASK, source, indentationLevel, lineSeparator, regions);
+					return edit;
+				} finally {
+					commitFormatEvent(event, edit);
+					captureIfSlow(capture, kind, source, regions, indentationLevel, lineSeparator);
+				}
 		}
-
-		return format(kind, source, new IRegion[] {new Region(offset, length)}, indentationLevel, lineSeparator);
+		return format(kind, source, regions, indentationLevel, lineSeparator);
 	}
 
 	/**
@@ -158,6 +195,20 @@ public class DefaultCodeFormatter extends CodeFormatter {
 			throw new IllegalArgumentException();
 		}
 
+		this.alignmentStatistics = new AlignmentStatistics();
+		FormatEvent event = beginFormatEvent(kind, source);
+		SlowFormatCapture capture = SlowFormatCapture.begin();
+		TextEdit edit = null;
+		try {
+			edit = internalFormat(kind, source, regions, indentationLevel, lineSeparator);
+			return edit;
+		} finally {
+			commitFormatEvent(event, edit);
+			captureIfSlow(capture, kind, source, regions, indentationLevel, lineSeparator);
+		}
+	}
+
+	private TextEdit internalFormat(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator) {
 		this.codeSnippetParsingUtil = new CodeSnippetParsingUtil();
 		boolean includeComments =  (kind & F_INCLUDE_COMMENTS) != 0;
 		switch(kind & K_MASK) {
@@ -180,6 +231,140 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		return null;
 	}
 
+	/*
+	 * Start recording the format call if Flight Recorder is recording, null otherwise.
+	 */
+	private FormatEvent beginFormatEvent(int kind, String source) {
+		FormatEvent event = FormatEvent.begin(FormatterEngine.LUNA, kind, source.length());
+		if (event != null && this.sink != null) {
+			this.sink = event.countEdits(this.sink);
+		}
+		return event;
+	}
+
+	private void commitFormatEvent(FormatEvent event, TextEdit edit) {
+		if (event != null) {
+			// the visitor is left over from a previous call when the source could not be parsed
+			int tokenCount = edit != null && this.newCodeFormatter != null ? this.newCodeFormatter.scribe.printedTokens : 0;
+			event.commit(tokenCount, edit);
+		}
+	}
+
+	/*
+	 * Dump the format call if capture is on and it took too long, see SlowFormatCapture.
+	 */
+	private void captureIfSlow(SlowFormatCapture capture, int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator) {
+		if (capture == null || !capture.isSlow()) {
+			return;
+		}
+		// the preferences come last, they are what this formatter was configured with
+		Map capturedOptions = new HashMap();
+		for (Iterator iterator = this.options.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry entry = (Map.Entry) iterator.next();
+			if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+				capturedOptions.put(entry.getKey(), entry.getValue());
+			}
+		}
+		capturedOptions.putAll(getPreferences().getMap());
+		capture.dump(FormatterEngine.LUNA, kind, source, regions, indentationLevel, lineSeparator, capturedOptions);
+	}
+
+	/**
+	 * Formats the source like {@link #format(int, String, IRegion[], int, String)} does, but gives the changes to the
+	 * sink instead of returning the edits. When the whole source is formatted, the changes are given as soon as they
+	 * are final, so they do not pile up while formatting goes on, and formatting stops once the sink is done.
+	 * <p>
+	 * Unlike {@link #format(int, String, IRegion[], int, String)}, comment kinds are accepted: like
+	 * {@link #format(int, String, int, int, int, String)} does, the comments are formatted over the region covering
+	 * all the given ones.
+	 * <p>
+	 * The sink may have been given some changes already when the formatter gives up on the source. When a change
+	 * given to the sink turns out not to be final, the source is formatted again and the sink is
+	 * {@link EditSink#restart() restarted} to be given all the changes.
+	 *
+	 * @return <code>false</code> if the source could not be formatted, <code>true</code> otherwise, also when
+	 *         formatting stopped because the sink was done
+	 * @throws IllegalStateException if the sink had to be restarted and could not
+	 */
+	public boolean format(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator, EditSink sink) {
+		if (!regionsSatisfiesPreconditions(regions, source.length())) {
+			throw new IllegalArgumentException();
+		}
+		this.sink = sink;
+		// tells whether formatting was given up on after parsing, see isFormatted()
+		this.newCodeFormatter = null;
+		TextEdit edit;
+		try {
+			edit = formatRegions(kind, source, regions, indentationLevel, lineSeparator);
+		} catch (AbortFormatting e) {
+			// only formatting code catches it, formatting a comment does not
+			if (!sink.isDone()) {
+				throw e;
+			}
+			return true;
+		} finally {
+			this.sink = null;
+		}
+		if (edit != null || sink.isDone()) {
+			return true;
+		}
+		if (this.newCodeFormatter == null || !this.newCodeFormatter.scribe.sinkOutdated) {
+			return false;
+		}
+		// the changes are given to the sink only once all are known this time
+		edit = formatRegions(kind, source, regions, indentationLevel, lineSeparator);
+		if (edit == null) {
+			return false;
+		}
+		if (!sink.restart()) {
+			throw new IllegalStateException("Edit sink cannot take back the changes it was given"); //$NON-NLS-1$
+		}
+		TextEdit[] children = edit.getChildren();
+		for (int i = 0, max = children.length; i < max && !sink.isDone(); i++) {
+			ReplaceEdit child = (ReplaceEdit) children[i];
+			sink.replace(child.getOffset(), child.getLength(), child.getText());
+		}
+		return true;
+	}
+
+	/**
+	 * Formats the source like {@link #format(int, String, IRegion[], int, String)} does, but returns the formatted
+	 * source instead of the edits to apply to it. The changes are written straight into the result, which is much
+	 * cheaper than creating and applying the edits.
+	 *
+	 * @return the formatted source, or <code>null</code> if it could not be formatted
+	 */
+	public String formatToString(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator) {
+		SourceRewriter rewriter = new SourceRewriter(source);
+		if (!format(kind, source, regions, indentationLevel, lineSeparator, rewriter)) {
+			return null;
+		}
+		return rewriter.toString();
+	}
+
+	/**
+	 * Checks whether {@link #format(int, String, IRegion[], int, String)} would leave the source as it is. When the
+	 * whole source is formatted, formatting stops at the first change, so badly formatted sources are rejected
+	 * quickly.
+	 * <p>
+	 * Sources that cannot be parsed are reported as formatted, since format() leaves them untouched too. Sources the
+	 * formatter gives up on after parsing them are reported as not formatted.
+	 */
+	public boolean isFormatted(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator) {
+		SourceRewriter checker = SourceRewriter.checker(source);
+		if (format(kind, source, regions, indentationLevel, lineSeparator, checker)) {
+			return !checker.isChanged();
+		}
+		return this.newCodeFormatter == null || !this.newCodeFormatter.aborted;
+	}
+
+	private CodeFormatterVisitor createCodeFormatterVisitor(IRegion[] regions, boolean includeComments) {
+		CodeFormatterVisitor visitor = new CodeFormatterVisitor(getPreferences(), this.options, regions, this.codeSnippetParsingUtil, includeComments);
+		visitor.scribe.sink = this.sink;
+		visitor.scribe.alignmentStatistics = this.alignmentStatistics;
+		return visitor;
+	}
+
 	private TextEdit formatClassBodyDeclarations(String source, int indentationLevel, String lineSeparator, IRegion[] regions, boolean includeComments) {
 		ASTNode[] bodyDeclarations = this.codeSnippetParsingUtil.parseClassBodyDeclarations(source.toCharArray(), this.defaultCompilerOptions, true);
 
@@ -213,14 +398,14 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		}
 		if (isFormattingComments) {
 			if (lineSeparator != null) {
-				this.preferences.line_separator = lineSeparator;
+				getPreferences().line_separator = lineSeparator;
 			} else {
-				this.preferences.line_separator = Util.LINE_SEPARATOR;
+				getPreferences().line_separator = Util.LINE_SEPARATOR;
 			}
-			this.preferences.initial_indentation_level = indentationLevel;
+			getPreferences().initial_indentation_level = indentationLevel;
 			if (this.codeSnippetParsingUtil == null) this.codeSnippetParsingUtil = new CodeSnippetParsingUtil();
 			this.codeSnippetParsingUtil.parseCompilationUnit(source.toCharArray(), this.defaultCompilerOptions, true);
-			this.newCodeFormatter = new CodeFormatterVisitor(this.preferences, this.options, regions, this.codeSnippetParsingUtil, true);
+			this.newCodeFormatter = createCodeFormatterVisitor(regions, true);
 			IRegion coveredRegion = getCoveredRegion(regions);
 			int start = coveredRegion.getOffset();
 			int end = start + coveredRegion.getLength();
@@ -234,13 +419,13 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		CompilationUnitDeclaration compilationUnitDeclaration = this.codeSnippetParsingUtil.parseCompilationUnit(source.toCharArray(), this.defaultCompilerOptions, true);
 
 		if (lineSeparator != null) {
-			this.preferences.line_separator = lineSeparator;
+			getPreferences().line_separator = lineSeparator;
 		} else {
-			this.preferences.line_separator = Util.LINE_SEPARATOR;
+			getPreferences().line_separator = Util.LINE_SEPARATOR;
 		}
-		this.preferences.initial_indentation_level = indentationLevel;
+		getPreferences().initial_indentation_level = indentationLevel;
 
-		this.newCodeFormatter = new CodeFormatterVisitor(this.preferences, this.options, regions, this.codeSnippetParsingUtil, includeComments);
+		this.newCodeFormatter = createCodeFormatterVisitor(regions, includeComments);
 
 		return this.newCodeFormatter.format(source, compilationUnitDeclaration);
 	}
@@ -277,6 +462,13 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		return new Region(offset, lastRegion.getOffset() + lastRegion.getLength() - offset);
 	}
 
+	/**
+	 * Tells how much backtracking on alignments the last format call did, see {@link AlignmentStatistics}.
+	 */
+	public AlignmentStatistics getAlignmentStatistics() {
+		return this.alignmentStatistics;
+	}
+
 	public String getDebugOutput() {
 		return this.newCodeFormatter.scribe.toString();
 	}
@@ -360,25 +552,25 @@ public class DefaultCodeFormatter extends CodeFormatter {
 
 	private TextEdit internalFormatClassBodyDeclarations(String source, int indentationLevel, String lineSeparator, ASTNode[] bodyDeclarations, IRegion[] regions, boolean includeComments) {
 		if (lineSeparator != null) {
-			this.preferences.line_separator = lineSeparator;
+			getPreferences().line_separator = lineSeparator;
 		} else {
-			this.preferences.line_separator = Util.LINE_SEPARATOR;
+			getPreferences().line_separator = Util.LINE_SEPARATOR;
 		}
-		this.preferences.initial_indentation_level = indentationLevel;
+		getPreferences().initial_indentation_level = indentationLevel;
 
-		this.newCodeFormatter = new CodeFormatterVisitor(this.preferences, this.options, regions, this.codeSnippetParsingUtil, includeComments);
+		this.newCodeFormatter = createCodeFormatterVisitor(regions, includeComments);
 		return this.newCodeFormatter.format(source, bodyDeclarations);
 	}
 
 	private TextEdit internalFormatExpression(String source, int indentationLevel, String lineSeparator, Expression expression, IRegion[] regions, boolean includeComments) {
 		if (lineSeparator != null) {
-			this.preferences.line_separator = lineSeparator;
+			getPreferences().line_separator = lineSeparator;
 		} else {
-			this.preferences.line_separator = Util.LINE_SEPARATOR;
+			getPreferences().line_separator = Util.LINE_SEPARATOR;
 		}
-		this.preferences.initial_indentation_level = indentationLevel;
+		getPreferences().initial_indentation_level = indentationLevel;
 
-		this.newCodeFormatter = new CodeFormatterVisitor(this.preferences, this.options, regions, this.codeSnippetParsingUtil, includeComments);
+		this.newCodeFormatter = createCodeFormatterVisitor(regions, includeComments);
 
 		TextEdit textEdit = this.newCodeFormatter.format(source, expression);
 		return textEdit;
@@ -386,13 +578,13 @@ public class DefaultCodeFormatter extends CodeFormatter {
 
 	private TextEdit internalFormatStatements(String source, int indentationLevel, String lineSeparator, ConstructorDeclaration constructorDeclaration, IRegion[] regions, boolean includeComments) {
 		if (lineSeparator != null) {
-			this.preferences.line_separator = lineSeparator;
+			getPreferences().line_separator = lineSeparator;
 		} else {
-			this.preferences.line_separator = Util.LINE_SEPARATOR;
+			getPreferences().line_separator = Util.LINE_SEPARATOR;
 		}
-		this.preferences.initial_indentation_level = indentationLevel;
+		getPreferences().initial_indentation_level = indentationLevel;
 
-		this.newCodeFormatter = new CodeFormatterVisitor(this.preferences, this.options, regions, this.codeSnippetParsingUtil, includeComments);
+		this.newCodeFormatter = createCodeFormatterVisitor(regions, includeComments);
 
 		return this.newCodeFormatter.format(source, constructorDeclaration);
 	}
@@ -406,33 +598,33 @@ public class DefaultCodeFormatter extends CodeFormatter {
     }
 
 	private TextEdit probeFormatting(String source, int indentationLevel, String lineSeparator, IRegion[] regions, boolean includeComments) {
-		if (PROBING_SCANNER == null) {
+		if (this.probingScanner == null) {
 			// scanner use to check if the kind could be K_JAVA_DOC, K_MULTI_LINE_COMMENT or K_SINGLE_LINE_COMMENT
 			// do not tokenize white spaces to get single comments even with spaces before...
-			PROBING_SCANNER = new Scanner(true, false/*do not tokenize whitespaces*/, false/*nls*/, ClassFileConstants.JDK1_6, ClassFileConstants.JDK1_6, null/*taskTags*/, null/*taskPriorities*/, true/*taskCaseSensitive*/, false/*isPreviewEnabled*/ );
+			this.probingScanner = new Scanner(true, false/*do not tokenize whitespaces*/, false/*nls*/, ClassFileConstants.JDK1_6, ClassFileConstants.JDK1_6, null/*taskTags*/, null/*taskPriorities*/, true/*taskCaseSensitive*/, false/*isPreviewEnabled*/ );
 		}
-		PROBING_SCANNER.setSource(source.toCharArray());
+		this.probingScanner.setSource(source.toCharArray());
 
 		IRegion coveredRegion = getCoveredRegion(regions);
 		int offset = coveredRegion.getOffset();
 		int length = coveredRegion.getLength();
 
-		PROBING_SCANNER.resetTo(offset, offset + length - 1);
+		this.probingScanner.resetTo(offset, offset + length - 1);
 		try {
 			int kind = -1;
-			switch(PROBING_SCANNER.getNextToken()) {
+			switch(this.probingScanner.getNextToken()) {
 				case ITerminalSymbols.TokenNameCOMMENT_BLOCK :
-					if (PROBING_SCANNER.getNextToken() == TerminalTokens.TokenNameEOF) {
+					if (this.probingScanner.getNextToken() == TerminalTokens.TokenNameEOF) {
 						kind = K_MULTI_LINE_COMMENT;
 					}
 					break;
 				case ITerminalSymbols.TokenNameCOMMENT_LINE :
-					if (PROBING_SCANNER.getNextToken() == TerminalTokens.TokenNameEOF) {
+					if (this.probingScanner.getNextToken() == TerminalTokens.TokenNameEOF) {
 						kind = K_SINGLE_LINE_COMMENT;
 					}
 					break;
 				case ITerminalSymbols.TokenNameCOMMENT_JAVADOC :
-					if (PROBING_SCANNER.getNextToken() == TerminalTokens.TokenNameEOF) {
+					if (this.probingScanner.getNextToken() == TerminalTokens.TokenNameEOF) {
 						kind = K_JAVA_DOC;
 					}
 					break;
@@ -443,24 +635,32 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		} catch (InvalidInputException e) {
 			// ignore
 		}
-		PROBING_SCANNER.setSource((char[]) null);
+
+		// rule out the kinds the parser would reject anyway, probing stays in the same order
+		int possibleKinds = SnippetKindClassifier.classify(this.probingScanner, source.toCharArray());
 
 		// probe for expression
-		Expression expression = this.codeSnippetParsingUtil.parseExpression(source.toCharArray(), this.defaultCompilerOptions, true);
-		if (expression != null) {
-			return internalFormatExpression(source, indentationLevel, lineSeparator, expression, regions, includeComments);
+		if ((possibleKinds & K_EXPRESSION) != 0) {
+			Expression expression = this.codeSnippetParsingUtil.parseExpression(source.toCharArray(), this.defaultCompilerOptions, true);
+			if (expression != null) {
+				return internalFormatExpression(source, indentationLevel, lineSeparator, expression, regions, includeComments);
+			}
 		}
 
 		// probe for body declarations (fields, methods, constructors)
-		ASTNode[] bodyDeclarations = this.codeSnippetParsingUtil.parseClassBodyDeclarations(source.toCharArray(), this.defaultCompilerOptions, true);
-		if (bodyDeclarations != null) {
-			return internalFormatClassBodyDeclarations(source, indentationLevel, lineSeparator, bodyDeclarations, regions, includeComments);
+		if ((possibleKinds & K_CLASS_BODY_DECLARATIONS) != 0) {
+			ASTNode[] bodyDeclarations = this.codeSnippetParsingUtil.parseClassBodyDeclarations(source.toCharArray(), this.defaultCompilerOptions, true);
+			if (bodyDeclarations != null) {
+				return internalFormatClassBodyDeclarations(source, indentationLevel, lineSeparator, bodyDeclarations, regions, includeComments);
+			}
 		}
 
 		// probe for statements
-		ConstructorDeclaration constructorDeclaration = this.codeSnippetParsingUtil.parseStatements(source.toCharArray(), this.defaultCompilerOptions, true, false);
-		if (constructorDeclaration.statements != null) {
-			return internalFormatStatements(source, indentationLevel, lineSeparator, constructorDeclaration, regions, includeComments);
+		if ((possibleKinds & K_STATEMENTS) != 0) {
+			ConstructorDeclaration constructorDeclaration = this.codeSnippetParsingUtil.parseStatements(source.toCharArray(), this.defaultCompilerOptions, true, false);
+			if (constructorDeclaration.statements != null) {
+				return internalFormatStatements(source, indentationLevel, lineSeparator, constructorDeclaration, regions, includeComments);
+			}
 		}
 
 		// this has to be a compilation unit
@@ -504,14 +704,29 @@ public class DefaultCodeFormatter extends CodeFormatter {
 	@Override
 	public void setOptions(Map<String, String> options) {
 		this.options = options;
-		Map<String, String> formatterPrefs = new HashMap<>(options.size());
-		for (String key : options.keySet()) {
-			Object value = options.get(key);
-			if (value instanceof String) {
-				formatterPrefs.put(key, (String) value);
+		Map<String, String> formatterPrefs = options;
+		for (Object value : options.values()) {
+			if (!(value instanceof String)) {
+				formatterPrefs = new HashMap<>(options.size());
+				for (String key : options.keySet()) {
+					Object keyValue = options.get(key);
+					if (keyValue instanceof String) {
+						formatterPrefs.put(key, (String) keyValue);
+					}
+				}
+				break;
 			}
 		}
-		this.preferences = new DefaultCodeFormatterOptions(formatterPrefs);
+		// preferences are modified on every format call, so they are only copied from the shared snapshot when needed
+		this.preferencesSnapshot = OptionsSnapshot.of(formatterPrefs);
+		this.preferences = null;
 		setDefaultCompilerOptions();
 	}
+
+	private DefaultCodeFormatterOptions getPreferences() {
+		if (this.preferences == null) {
+			this.preferences = this.preferencesSnapshot.createOptions();
+		}
+		return this.preferences;
+	}
 }
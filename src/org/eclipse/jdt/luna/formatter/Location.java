@@ -28,6 +28,7 @@ public class Location {
 	public int nlsTagCounter;
 	public int lastLocalDeclarationSourceStart;
 	public int numberOfIndentations;
+	int printedTokens;
 
 	// chunk management
 	public int lastNumberOfNewLines;
@@ -52,6 +53,7 @@ public class Location {
 		this.editsIndex = scribe.editsIndex;
 		this.nlsTagCounter = scribe.nlsTagCounter;
 		this.numberOfIndentations = scribe.numberOfIndentations;
+		this.printedTokens = scribe.printedTokens;
 		this.textEdit = scribe.getLastEdit();
 	}
 
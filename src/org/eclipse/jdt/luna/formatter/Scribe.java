@@ -37,8 +37,11 @@ import org.eclipse.jdt.internal.compiler.util.Util;
 import org.eclipse.jdt.internal.core.util.CodeSnippetParsingUtil;
 import org.eclipse.jdt.internal.core.util.RecordedParsingInformation;
 import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+import org.eclipse.jdt.legacy.formatter.EditSink;
+import org.eclipse.jdt.legacy.formatter.jfr.AlignmentRetryEvent;
 import org.eclipse.jdt.luna.formatter.align.Alignment;
 import org.eclipse.jdt.luna.formatter.align.AlignmentException;
+import org.eclipse.jdt.luna.formatter.align.AlignmentStatistics;
 import org.eclipse.jdt.luna.formatter.comment.CommentFormatterUtil;
 import org.eclipse.jdt.luna.formatter.comment.HTMLEntity2JavaReader;
 import org.eclipse.jdt.luna.formatter.comment.IJavaDocTagConstants;
@@ -63,6 +66,12 @@ public class Scribe implements IJavaDocTagConstants {
 
 	private static final int INITIAL_SIZE = 100;
 
+	private static final Comparator ROOT_EDIT_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return compareRootEditOrder((OptimizedReplaceEdit) o1, (OptimizedReplaceEdit) o2);
+		}
+	};
+
 	private boolean checkLineWrapping;
 	/** one-based column */
 	public int column;
@@ -75,6 +84,16 @@ public class Scribe implements IJavaDocTagConstants {
 	// edits management
 	private OptimizedReplaceEdit[] edits;
 	public int editsIndex;
+	// when set, the edits are given to it instead of being added to the root edit
+	EditSink sink;
+	// whether the edits are given to the sink as soon as they are final, see flushFinalEdits()
+	private boolean flushEdits;
+	// edits below this index have been given to the sink already
+	private int flushedEditsIndex;
+	// set while formatting a javadoc comment, its edits are not created in source order
+	private boolean holdEdits;
+	// set when an edit given to the sink had to change, the sink must be given the edits again
+	boolean sinkOutdated;
 
 	public CodeFormatterVisitor formatter;
 	public int indentationLevel;
@@ -85,6 +104,7 @@ public class Scribe implements IJavaDocTagConstants {
 	private int[] lineEnds;
 	private int maxLines;
 	public Alignment memberAlignment;
+	public AlignmentStatistics alignmentStatistics = new AlignmentStatistics();
 	public boolean needSpace = false;
 
 	// Line separator infos
@@ -99,6 +119,8 @@ public class Scribe implements IJavaDocTagConstants {
 
 	public Scanner scanner;
 	public int scannerEndPosition;
+	// code tokens printed so far, not counting the ones printed again when an alignment is retried
+	int printedTokens;
 	public int tabLength;
 	public int indentationSize;
 	private final IRegion[] regions;
@@ -169,7 +191,7 @@ public class Scribe implements IJavaDocTagConstants {
 
 	// Well know strings
 	private String[] newEmptyLines = new String[10];
-	private static String[] COMMENT_INDENTATIONS = new String[20];
+	private String[] commentIndentations = new String[20];
 
 	// final string buffers
 	private final StringBuffer tempBuffer = new StringBuffer();
@@ -602,6 +624,26 @@ public class Scribe implements IJavaDocTagConstants {
 			}
 			return;
 		}
+		if (this.flushEdits) {
+			if (!this.holdEdits) {
+				flushFinalEdits();
+			}
+			if (this.editsIndex == this.flushedEditsIndex && this.editsIndex > 0) {
+				// the edit after the last one given to the sink has been removed, the sink must not miss a merge
+				OptimizedReplaceEdit lastEdit = this.edits[this.editsIndex - 1];
+				mergeOptimizedReplaceEdit(offset, length, replacement);
+				if (this.editsIndex < this.flushedEditsIndex || this.edits[this.flushedEditsIndex - 1] != lastEdit) {
+					// the sink cannot take it back, stop here so that the formatter gives it all the edits again
+					this.sinkOutdated = true;
+					throw new AbortFormatting("Edit given to the sink is not final"); //$NON-NLS-1$
+				}
+				return;
+			}
+		}
+		mergeOptimizedReplaceEdit(offset, length, replacement);
+	}
+
+	private void mergeOptimizedReplaceEdit(int offset, int length, String replacement) {
 		if (this.editsIndex > 0) {
 			// try to merge last two edits
 			final OptimizedReplaceEdit previous = this.edits[this.editsIndex - 1];
@@ -691,6 +733,45 @@ public class Scribe implements IJavaDocTagConstants {
 		}
 	}
 
+	/*
+	 * Gives the edits that cannot change anymore to the sink, in source order, and aborts formatting as soon as the
+	 * sink is done. The last edit may still be merged with the next one, and going back to the location of an
+	 * enclosing alignment restores the edit before that location, so only the edits before all of these are final.
+	 * Member alignments are only gone back to when aligning on columns (see Alignment.checkColumn()), or when the
+	 * alignment to go back to encloses them, so the others are left out: they span whole type bodies.
+	 * Edits are created in source order, except in javadoc comments which are held back until done and sorted here.
+	 */
+	private void flushFinalEdits() {
+		int finalEditsIndex = this.editsIndex - 1;
+		for (Alignment alignment = this.currentAlignment; alignment != null; alignment = alignment.enclosing) {
+			finalEditsIndex = Math.min(finalEditsIndex, alignment.location.editsIndex - 1);
+		}
+		for (Alignment alignment = this.memberAlignment; alignment != null; alignment = alignment.enclosing) {
+			if ((alignment.mode & Alignment.M_MULTICOLUMN) != 0) {
+				finalEditsIndex = Math.min(finalEditsIndex, alignment.location.editsIndex - 1);
+			}
+		}
+		for (int i = this.flushedEditsIndex + 1; i < finalEditsIndex; i++) {
+			if (compareRootEditOrder(this.edits[i - 1], this.edits[i]) > 0) {
+				Arrays.sort(this.edits, this.flushedEditsIndex, finalEditsIndex, ROOT_EDIT_ORDER);
+				break;
+			}
+		}
+		for (; this.flushedEditsIndex < finalEditsIndex; this.flushedEditsIndex++) {
+			OptimizedReplaceEdit currentEdit = this.edits[this.flushedEditsIndex];
+			if (this.flushedEditsIndex > 0) {
+				// final edits are never looked at again, but the last one given to the sink, let them go
+				this.edits[this.flushedEditsIndex - 1] = null;
+			}
+			if (isRootEdit(currentEdit)) {
+				this.sink.replace(currentEdit.offset, currentEdit.length, currentEdit.replacement);
+				if (this.sink.isDone()) {
+					throw new AbortFormatting("Edit sink is done"); //$NON-NLS-1$
+				}
+			}
+		}
+	}
+
 	public final void addReplaceEdit(int start, int end, String replacement) {
 		if (this.edits.length == this.editsIndex) {
 			// resize
@@ -701,7 +782,13 @@ public class Scribe implements IJavaDocTagConstants {
 
 	public void alignFragment(Alignment alignment, int fragmentIndex) {
 		alignment.fragmentIndex = fragmentIndex;
-		alignment.checkColumn();
+		try {
+			alignment.checkColumn();
+		} catch (AlignmentException e) {
+			// the alignment is too small for its columns, it is the one to format again
+			this.alignmentStatistics.exceptionThrown(alignment.kind);
+			throw e;
+		}
 		alignment.performFragmentEffect();
 	}
 
@@ -838,12 +925,16 @@ public class Scribe implements IJavaDocTagConstants {
 
 	public void enterAlignment(Alignment alignment) {
 		alignment.enclosing = this.currentAlignment;
+		alignment.nestingDepth = this.currentAlignment == null ? 1 : this.currentAlignment.nestingDepth + 1;
+		this.alignmentStatistics.alignmentEntered(alignment.kind, alignment.nestingDepth);
 		alignment.location.lastLocalDeclarationSourceStart = this.formatter.lastLocalDeclarationSourceStart;
 		this.currentAlignment = alignment;
 	}
 
 	public void enterMemberAlignment(Alignment alignment) {
 		alignment.enclosing = this.memberAlignment;
+		alignment.nestingDepth = this.memberAlignment == null ? 1 : this.memberAlignment.nestingDepth + 1;
+		this.alignmentStatistics.alignmentEntered(alignment.kind, alignment.nestingDepth);
 		alignment.location.lastLocalDeclarationSourceStart = this.formatter.lastLocalDeclarationSourceStart;
 		this.memberAlignment = alignment;
 	}
@@ -1388,6 +1479,11 @@ public class Scribe implements IJavaDocTagConstants {
 		} else {
 			edit = new MultiTextEdit(textRegionStart, length - 1);
 		}
+		if (this.sink != null) {
+			writeRootEdit(edit);
+			this.edits = null;
+			return edit;
+		}
 		for (int i = 0, max = this.editsIndex; i < max; i++) {
 			OptimizedReplaceEdit currentEdit = this.edits[i];
 			if (currentEdit.offset >= 0 && currentEdit.offset <= this.scannerEndPosition) {
@@ -1407,11 +1503,82 @@ public class Scribe implements IJavaDocTagConstants {
 		return edit;
 	}
 
+	/*
+	 * Gives the edits getRootEdit() would add to the given (empty) root edit to the sink instead.
+	 * The sink needs them in source order, which is the order of the root edit children too.
+	 */
+	private void writeRootEdit(MultiTextEdit root) {
+		int rootStart = root.getOffset();
+		int rootEnd = rootStart + root.getLength();
+		int count = 0;
+		boolean sorted = true;
+		// the sink has been given the edits before flushedEditsIndex already
+		for (int i = this.flushedEditsIndex, max = this.editsIndex; i < max; i++) {
+			OptimizedReplaceEdit currentEdit = this.edits[i];
+			if (isRootEdit(currentEdit)) {
+				if (currentEdit.offset < rootStart || currentEdit.offset + currentEdit.length > rootEnd) {
+					MalformedTreeException ex = new MalformedTreeException(root, null, "Edit outside of the root edit range"); //$NON-NLS-1$
+					CommentFormatterUtil.log(ex);
+					throw ex;
+				}
+				if (count > 0 && compareRootEditOrder(this.edits[count - 1], currentEdit) > 0) {
+					sorted = false;
+				}
+				// edits that are not kept are never looked at again, reuse their slots
+				this.edits[count++] = currentEdit;
+			}
+		}
+		if (!sorted) {
+			Arrays.sort(this.edits, 0, count, ROOT_EDIT_ORDER);
+		}
+		for (int i = 0; i < count; i++) {
+			OptimizedReplaceEdit currentEdit = this.edits[i];
+			this.sink.replace(currentEdit.offset, currentEdit.length, currentEdit.replacement);
+		}
+	}
+
+	/*
+	 * Whether getRootEdit() keeps the edit.
+	 */
+	private boolean isRootEdit(OptimizedReplaceEdit edit) {
+		return edit.offset >= 0 && edit.offset <= this.scannerEndPosition
+				&& (edit.length == 0 || (edit.offset != this.scannerEndPosition && isMeaningfulEdit(edit)));
+	}
+
+	/*
+	 * Same order as the children of a MultiTextEdit: by offset, insertions before replacements at the same offset,
+	 * otherwise in the order they were added.
+	 */
+	private static int compareRootEditOrder(OptimizedReplaceEdit edit1, OptimizedReplaceEdit edit2) {
+		if (edit1.offset != edit2.offset) {
+			return edit1.offset - edit2.offset;
+		}
+		if ((edit1.length == 0) != (edit2.length == 0)) {
+			return edit1.length == 0 ? -1 : 1;
+		}
+		return 0;
+	}
+
 	public void handleLineTooLong() {
-		if (this.formatter.preferences.wrap_outer_expressions_when_nested) {
-			handleLineTooLongSmartly();
-			return;
+		try {
+			if (this.formatter.preferences.wrap_outer_expressions_when_nested) {
+				handleLineTooLongSmartly();
+			} else {
+				handleLineTooLongWithTieBreakRules();
+			}
+		} catch (AlignmentException e) {
+			Alignment targetAlignment = this.currentAlignment;
+			for (int i = 0; i < e.relativeDepth && targetAlignment != null; i++) {
+				targetAlignment = targetAlignment.enclosing;
+			}
+			if (targetAlignment != null) {
+				this.alignmentStatistics.exceptionThrown(targetAlignment.kind);
+			}
+			throw e;
 		}
+	}
+
+	private void handleLineTooLongWithTieBreakRules() {
 		// search for closest breakable alignment, using tiebreak rules
 		// look for outermost breakable one
 		int relativeDepth = 0, outerMostDepth = -1;
@@ -1682,6 +1849,7 @@ public class Scribe implements IJavaDocTagConstants {
 		this.pendingSpace = false;
 		this.column += length;
 		this.needSpace = true;
+		this.printedTokens++;
 	}
 
 	private void printBlockComment(boolean isJavadoc) {
@@ -3752,6 +3920,7 @@ public class Scribe implements IJavaDocTagConstants {
 	 */
 	void printJavadocComment(int start, int end) {
 		int lastIndentationLevel = this.indentationLevel;
+		this.holdEdits = true;
 		try {
 			// parse the comment on the fly
 			this.scanner.resetTo(start, end - 1);
@@ -3829,6 +3998,7 @@ public class Scribe implements IJavaDocTagConstants {
 			this.needSpace = false;
 			this.indentationLevel = lastIndentationLevel;
 			this.lastNumberOfNewLines = 0;
+			this.holdEdits = false;
 		}
 	}
 
@@ -5231,6 +5401,7 @@ public class Scribe implements IJavaDocTagConstants {
 			this.currentAlignment = this.currentAlignment.enclosing; // pop currentLocation
 			throw e; // rethrow
 		}
+		recordAlignmentRetry(this.currentAlignment);
 		// reset scribe/scanner to restart at this given location
 		resetAt(this.currentAlignment.location);
 		this.scanner.resetTo(this.currentAlignment.location.inputOffset, this.scanner.eofPosition - 1);
@@ -5239,6 +5410,7 @@ public class Scribe implements IJavaDocTagConstants {
 	}
 
 	void redoMemberAlignment(AlignmentException e) {
+		recordAlignmentRetry(this.memberAlignment);
 		// reset scribe/scanner to restart at this given location
 		resetAt(this.memberAlignment.location);
 		this.scanner.resetTo(this.memberAlignment.location.inputOffset, this.scanner.eofPosition - 1);
@@ -5246,12 +5418,27 @@ public class Scribe implements IJavaDocTagConstants {
 		this.memberAlignment.chunkKind = 0;
 	}
 
+	/*
+	 * Count the given alignment being formatted again, and tell Flight Recorder.
+	 */
+	private void recordAlignmentRetry(Alignment alignment) {
+		Location location = alignment.location;
+		this.alignmentStatistics.alignmentRetried(alignment.kind, this.printedTokens - location.printedTokens);
+		if (AlignmentRetryEvent.isRecording()) {
+			AlignmentRetryEvent.commit(alignment.name, location.inputOffset, location.outputLine + 1, alignment.fragmentCount,
+					this.scanner.currentPosition - location.inputOffset);
+		}
+	}
+
 	public void reset() {
 		this.checkLineWrapping = true;
 		this.line = 0;
 		this.column = 1;
 		this.editsIndex = 0;
+		this.flushedEditsIndex = 0;
+		this.sinkOutdated = false;
 		this.nlsTagCounter = 0;
+		this.printedTokens = 0;
 	}
 
 	private void resetAt(Location location) {
@@ -5264,6 +5451,7 @@ public class Scribe implements IJavaDocTagConstants {
 		this.pendingSpace = location.pendingSpace;
 		this.editsIndex = location.editsIndex;
 		this.nlsTagCounter = location.nlsTagCounter;
+		this.printedTokens = location.printedTokens;
 		if (this.editsIndex > 0) {
 			this.edits[this.editsIndex - 1] = location.textEdit;
 		}
@@ -5278,6 +5466,9 @@ public class Scribe implements IJavaDocTagConstants {
 		this.scannerEndPosition = compilationUnitSource.length;
 		this.scanner.resetTo(0, this.scannerEndPosition - 1);
 		this.edits = new OptimizedReplaceEdit[INITIAL_SIZE];
+		// edits are only adapted to the regions once they are all known, see adaptEdits()
+		this.flushEdits = this.sink != null && this.regions.length == 1 && this.regions[0].getOffset() == 0
+				&& this.regions[0].getLength() == this.scannerEndPosition;
 		this.maxLines = this.lineEnds == null ? -1 : this.lineEnds.length - 1;
 		this.scanner.lineEnds = this.lineEnds;
 		this.scanner.linePtr = this.maxLines;
@@ -5293,19 +5484,19 @@ public class Scribe implements IJavaDocTagConstants {
 		if (commentIndentationLevel == 0) {
 			this.commentIndentation = null;
 		} else {
-			int length = COMMENT_INDENTATIONS.length;
+			int length = this.commentIndentations.length;
 			if (commentIndentationLevel > length) {
-				System.arraycopy(COMMENT_INDENTATIONS, 0,
-						COMMENT_INDENTATIONS = new String[commentIndentationLevel + 10], 0, length);
+				System.arraycopy(this.commentIndentations, 0,
+						this.commentIndentations = new String[commentIndentationLevel + 10], 0, length);
 			}
-			this.commentIndentation = COMMENT_INDENTATIONS[commentIndentationLevel - 1];
+			this.commentIndentation = this.commentIndentations[commentIndentationLevel - 1];
 			if (this.commentIndentation == null) {
 				this.tempBuffer.setLength(0);
 				for (int i = 0; i < commentIndentationLevel; i++) {
 					this.tempBuffer.append(' ');
 				}
 				this.commentIndentation = this.tempBuffer.toString();
-				COMMENT_INDENTATIONS[commentIndentationLevel - 1] = this.commentIndentation;
+				this.commentIndentations[commentIndentationLevel - 1] = this.commentIndentation;
 			}
 		}
 	}
@@ -84,6 +84,8 @@ public class Alignment {
 
 	// link to enclosing alignment
 	public Alignment enclosing;
+	// number of alignments this one is nested in, itself included
+	public int nestingDepth;
 
 	// start location of this alignment
 	public Location location;
@@ -0,0 +1,131 @@
+package org.eclipse.jdt.luna.formatter.align;
+
+import java.util.Locale;
+
+/**
+ * Counts the backtracking done on each kind of alignment during a format call: the alignment exceptions targeting
+ * it, the times it is formatted again, how deep it is nested and how many tokens are printed again because of it.
+ * A few code shapes make these numbers grow exponentially with the nesting depth, they show which ones.
+ *
+ * @see org.eclipse.jdt.luna.formatter.DefaultCodeFormatter#getAlignmentStatistics()
+ */
+public class AlignmentStatistics {
+
+	private final int[] exceptions = new int[Alignment.NAMES.length];
+	private final int[] retries = new int[Alignment.NAMES.length];
+	private final int[] maxDepths = new int[Alignment.NAMES.length];
+	private final long[] reprintedTokens = new long[Alignment.NAMES.length];
+
+	/**
+	 * Records an alignment being entered.
+	 *
+	 * @param kind the kind of the alignment
+	 * @param depth the number of alignments it is nested in, itself included
+	 */
+	public void alignmentEntered(int kind, int depth) {
+		if (depth > this.maxDepths[kind]) {
+			this.maxDepths[kind] = depth;
+		}
+	}
+
+	/**
+	 * Records an alignment exception thrown to break an alignment.
+	 *
+	 * @param kind the kind of the alignment the exception targets
+	 */
+	public void exceptionThrown(int kind) {
+		this.exceptions[kind]++;
+	}
+
+	/**
+	 * Records an alignment formatted again.
+	 *
+	 * @param kind the kind of the alignment
+	 * @param tokens the number of tokens printed since the start of the alignment, which are printed again
+	 */
+	public void alignmentRetried(int kind, int tokens) {
+		this.retries[kind]++;
+		this.reprintedTokens[kind] += tokens;
+	}
+
+	/**
+	 * @param kind an alignment kind, see {@link Alignment#NAMES}
+	 * @return the number of alignment exceptions targeting alignments of that kind
+	 */
+	public int getExceptions(int kind) {
+		return this.exceptions[kind];
+	}
+
+	/**
+	 * @param kind an alignment kind, see {@link Alignment#NAMES}
+	 * @return the number of times alignments of that kind were formatted again
+	 */
+	public int getRetries(int kind) {
+		return this.retries[kind];
+	}
+
+	/**
+	 * @param kind an alignment kind, see {@link Alignment#NAMES}
+	 * @return the deepest nesting of an alignment of that kind, 0 if there was none
+	 */
+	public int getMaxDepth(int kind) {
+		return this.maxDepths[kind];
+	}
+
+	/**
+	 * @param kind an alignment kind, see {@link Alignment#NAMES}
+	 * @return the number of tokens printed again because alignments of that kind were formatted again
+	 */
+	public long getReprintedTokens(int kind) {
+		return this.reprintedTokens[kind];
+	}
+
+	public int getTotalExceptions() {
+		return sum(this.exceptions);
+	}
+
+	public int getTotalRetries() {
+		return sum(this.retries);
+	}
+
+	public int getMaxDepth() {
+		int max = 0;
+		for (int i = 0; i < this.maxDepths.length; i++) {
+			max = Math.max(max, this.maxDepths[i]);
+		}
+		return max;
+	}
+
+	public long getTotalReprintedTokens() {
+		long total = 0;
+		for (int i = 0; i < this.reprintedTokens.length; i++) {
+			total += this.reprintedTokens[i];
+		}
+		return total;
+	}
+
+	private static int sum(int[] counts) {
+		int total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @return a table with a line for each kind of alignment that was entered
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(String.format(Locale.ROOT, "%-36s %10s %10s %9s %12s%n", //$NON-NLS-1$
+				"alignment", "exceptions", "retries", "max depth", "reprinted")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		for (int kind = 1; kind < Alignment.NAMES.length; kind++) {
+			if (this.maxDepths[kind] > 0) {
+				buffer.append(String.format(Locale.ROOT, "%-36s %10d %10d %9d %12d%n", //$NON-NLS-1$
+						Alignment.NAMES[kind], this.exceptions[kind], this.retries[kind], this.maxDepths[kind],
+						this.reprintedTokens[kind]));
+			}
+		}
+		return buffer.toString();
+	}
+}
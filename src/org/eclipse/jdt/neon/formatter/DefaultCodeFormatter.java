@@ -24,6 +24,7 @@ import static org.eclipse.jdt.internal.compiler.parser.TerminalTokens.TokenNameE
 import static org.eclipse.jdt.internal.compiler.parser.TerminalTokens.TokenNameNotAToken;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,8 +44,18 @@ import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.parser.Scanner;
 import org.eclipse.jdt.internal.compiler.util.Util;
 import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+import org.eclipse.jdt.legacy.formatter.EditSink;
+import org.eclipse.jdt.legacy.formatter.FormatterEngine;
+import org.eclipse.jdt.legacy.formatter.OptionsSnapshot;
+import org.eclipse.jdt.legacy.formatter.SnippetKindClassifier;
+import org.eclipse.jdt.legacy.formatter.SourceRewriter;
+import org.eclipse.jdt.legacy.formatter.ThreadAllocation;
+import org.eclipse.jdt.legacy.formatter.capture.SlowFormatCapture;
+import org.eclipse.jdt.legacy.formatter.jfr.FormatEvent;
+import org.eclipse.jdt.neon.formatter.FormatterListener.Phase;
 import org.eclipse.jdt.neon.formatter.linewrap.CommentWrapExecutor;
 import org.eclipse.jdt.neon.formatter.linewrap.WrapPreparator;
+import org.eclipse.jdt.neon.formatter.linewrap.WrapStatistics;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Region;
 import org.eclipse.text.edits.MultiTextEdit;
@@ -70,19 +81,17 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		| K_COMPILATION_UNIT
 		| K_COMMENTS_MASK;
 
+	/**
+	 * Options as configured by the client. They are never modified after initialization, every format call works on
+	 * its own copy (see {@link Session}) so that a single formatter instance can be used by many threads at once.
+	 */
 	private DefaultCodeFormatterOptions originalOptions;
-	private DefaultCodeFormatterOptions workingOptions;
+	private Map<String, String> originalOptionsMap;
 
 	private Object oldCommentFormatOption;
 	private String sourceLevel;
 
-	private String sourceString;
-	private char[] sourceArray;
-	private IRegion[] formatRegions;
-
-	private ASTNode astRoot;
-	private List<Token> tokens = new ArrayList<>();
-	private TokenManager tokenManager;
+	private volatile FormatterListener listener;
 
 	public DefaultCodeFormatter() {
 		this(new DefaultCodeFormatterOptions(DefaultCodeFormatterConstants.getJavaConventionsSettings()), null);
@@ -102,29 +111,48 @@ public class DefaultCodeFormatter extends CodeFormatter {
 
 	private void initOptions(DefaultCodeFormatterOptions defaultCodeFormatterOptions, Map<String, String> options) {
 		if (options != null) {
-			this.originalOptions = new DefaultCodeFormatterOptions(options);
-			this.workingOptions = new DefaultCodeFormatterOptions(options);
 			this.oldCommentFormatOption = getOldCommentFormatOption(options);
 			String compilerSource = options.get(CompilerOptions.OPTION_Source);
 			this.sourceLevel = compilerSource != null ? compilerSource : CompilerOptions.VERSION_1_8;
 		} else {
-			Map<String, String> settings = DefaultCodeFormatterConstants.getJavaConventionsSettings();
-			this.originalOptions = new DefaultCodeFormatterOptions(settings);
-			this.workingOptions = new DefaultCodeFormatterOptions(settings);
 			this.oldCommentFormatOption = DefaultCodeFormatterConstants.TRUE;
 			this.sourceLevel = CompilerOptions.VERSION_1_8;
 		}
-		if (defaultCodeFormatterOptions != null) {
-			this.originalOptions.set(defaultCodeFormatterOptions.getMap());
-			this.workingOptions.set(defaultCodeFormatterOptions.getMap());
+		Map<String, String> settings = options != null ? options
+				: DefaultCodeFormatterConstants.getJavaConventionsSettings();
+		if (defaultCodeFormatterOptions == null) {
+			// original options are never modified, so they can be shared with other formatters
+			OptionsSnapshot snapshot = OptionsSnapshot.of(settings);
+			this.originalOptions = snapshot.getOptions();
+			this.originalOptionsMap = snapshot.getOptionsMap();
+		} else {
+			DefaultCodeFormatterOptions newOptions = OptionsSnapshot.of(settings).createOptions();
+			newOptions.set(defaultCodeFormatterOptions.getMap());
+			this.originalOptions = newOptions;
+			this.originalOptionsMap = newOptions.getMap();
 		}
 	}
 
+	/**
+	 * @return a fresh copy of the original options that can be freely modified during a single format call
+	 */
+	private DefaultCodeFormatterOptions createWorkingOptions() {
+		return OptionsSnapshot.copyOf(this.originalOptions);
+	}
+
 	@Deprecated
 	private Object getOldCommentFormatOption(Map<String, String> options) {
 		return options.get(DefaultCodeFormatterConstants.FORMATTER_COMMENT_FORMAT);
 	}
 
+	/**
+	 * Sets the listener told about the cost of each phase of the following format calls, <code>null</code> to stop
+	 * measuring. Without a listener, the phases are not measured at all.
+	 */
+	public void setListener(FormatterListener listener) {
+		this.listener = listener;
+	}
+
 	public String createIndentationString(final int indentationLevel) {
 		if (indentationLevel < 0) {
 			throw new IllegalArgumentException();
@@ -148,239 +176,416 @@ public class DefaultCodeFormatter extends CodeFormatter {
 	 * {@inheritDoc}
 	 */
 	public TextEdit format(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator) {
+		return internalFormat(kind, source, regions, indentationLevel, lineSeparator, null);
+	}
+
+	/**
+	 * Formats the source like {@link #format(int, String, IRegion[], int, String)} does, but gives the changes to the
+	 * sink instead of returning the edits. The changes are given in source order as the formatted code is built, and
+	 * formatting stops once the sink is done.
+	 *
+	 * @return <code>false</code> if the source could not be formatted, <code>true</code> otherwise
+	 */
+	public boolean format(int kind, String source, IRegion[] regions, int indentationLevel, String lineSeparator,
+			EditSink sink) {
+		return internalFormat(kind, source, regions, indentationLevel, lineSeparator, sink) != null;
+	}
+
+	/**
+	 * Formats the source like {@link #format(int, String, IRegion[], int, String)} does, but returns the formatted
+	 * source instead of the edits to apply to it. The changes are written straight into the result, which is much
+	 * cheaper than creating and applying the edits.
+	 *
+	 * @return the formatted source, or <code>null</code> if it could not be formatted
+	 */
+	public String formatToString(int kind, String source, IRegion[] regions, int indentationLevel,
+			String lineSeparator) {
+		SourceRewriter rewriter = new SourceRewriter(source);
+		if (!format(kind, source, regions, indentationLevel, lineSeparator, rewriter))
+			return null;
+		return rewriter.toString();
+	}
+
+	/**
+	 * Checks whether {@link #format(int, String, IRegion[], int, String)} would leave the source as it is. Formatting
+	 * stops at the first change, without creating any edits, so badly formatted sources are rejected quickly.
+	 * <p>
+	 * Sources that cannot be parsed are reported as formatted, since format() leaves them untouched too. Sources the
+	 * formatter gives up on after parsing them are reported as not formatted.
+	 */
+	public boolean isFormatted(int kind, String source, IRegion[] regions, int indentationLevel,
+			String lineSeparator) {
+		SourceRewriter checker = SourceRewriter.checker(source);
+		if (format(kind, source, regions, indentationLevel, lineSeparator, checker))
+			return !checker.isChanged();
+		// this formatter only gives up on sources it cannot parse, failures after parsing are thrown
+		return true;
+	}
+
+	/**
+	 * If a sink is given, the changes are given to it and the returned edit is only an empty placeholder, still
+	 * <code>null</code> if the source could not be formatted.
+	 */
+	private TextEdit internalFormat(int kind, String source, IRegion[] regions, int indentationLevel,
+			String lineSeparator, EditSink sink) {
 		if (!regionsSatisfiesPreconditions(regions, source.length())) {
 			throw new IllegalArgumentException();
 		}
-		this.formatRegions = regions;
 
-		updateWorkingOptions(indentationLevel, lineSeparator, kind);
+		DefaultCodeFormatterOptions workingOptions = createWorkingOptions();
+		updateWorkingOptions(workingOptions, indentationLevel, lineSeparator, kind);
+		FormatterListener currentListener = this.listener;
+		FormatEvent event = FormatEvent.begin(FormatterEngine.NEON, kind, source.length());
+		SlowFormatCapture capture = SlowFormatCapture.begin();
+		if (currentListener == null && event == null && capture == null)
+			return new Session(workingOptions, regions, null).format(source, kind, sink);
+
+		long start = System.nanoTime();
+		if (currentListener != null)
+			currentListener.formatStarted(kind & K_MASK, source.length());
+		if (event != null && sink != null)
+			sink = event.countEdits(sink);
+		Session session = new Session(workingOptions, regions, currentListener);
+		TextEdit result = null;
+		try {
+			result = session.format(source, kind, sink);
+			return result;
+		} finally {
+			if (currentListener != null)
+				currentListener.formatFinished(System.nanoTime() - start, result != null);
+			if (event != null)
+				event.commit(session.tokens.size(), result);
+			if (capture != null && capture.isSlow())
+				capture.dump(FormatterEngine.NEON, kind, source, regions, indentationLevel, lineSeparator,
+						getCapturedOptions());
+		}
+	}
+
+	/**
+	 * @return the settings that make a new formatter behave like this one
+	 */
+	private Map<String, String> getCapturedOptions() {
+		Map<String, String> options = new HashMap<>(this.originalOptionsMap);
+		options.put(CompilerOptions.OPTION_Source, this.sourceLevel);
+		if (this.oldCommentFormatOption instanceof String)
+			options.put(DefaultCodeFormatterConstants.FORMATTER_COMMENT_FORMAT, (String) this.oldCommentFormatOption);
+		return options;
+	}
+
+	List<Token> prepareFormattedCode(String source, int kind) {
+		// code in comments is measured as part of the comments phase
+		return new Session(createWorkingOptions(), null, null).prepareFormattedCode(source, kind);
+	}
+
+	/**
+	 * Holds all the state of a single format call, so that concurrent calls on the same formatter instance don't
+	 * interfere with each other.
+	 */
+	private class Session {
 
-		if ((kind & K_COMMENTS_MASK) != 0)
-			return formatComments(source, kind & K_COMMENTS_MASK);
+		private final DefaultCodeFormatterOptions workingOptions;
+		private final IRegion[] formatRegions;
 
-		if (prepareFormattedCode(source, kind) == null)
-			return this.tokens.isEmpty() ? new MultiTextEdit() : null;
+		private String sourceString;
+		private char[] sourceArray;
 
-		MultiTextEdit result = new MultiTextEdit();
-		TextEditsBuilder resultBuilder = new TextEditsBuilder(this.sourceString, regions, this.tokenManager,
-				this.workingOptions);
-		this.tokenManager.traverse(0, resultBuilder);
-		for (TextEdit edit : resultBuilder.getEdits()) {
-			result.addChild(edit);
+		private ASTNode astRoot;
+		final List<Token> tokens = new ArrayList<>();
+		TokenManager tokenManager;
+
+		private final FormatterListener listener;
+		private long phaseStartTime;
+		private long phaseStartAllocated;
+
+		Session(DefaultCodeFormatterOptions workingOptions, IRegion[] formatRegions, FormatterListener listener) {
+			this.workingOptions = workingOptions;
+			this.formatRegions = formatRegions;
+			this.listener = listener;
+			if (listener != null)
+				startPhase();
 		}
-		return result;
-	}
 
-	private boolean init(String source) {
+		TextEdit format(String source, int kind, EditSink sink) {
+			if ((kind & K_COMMENTS_MASK) != 0)
+				return formatComments(source, kind & K_COMMENTS_MASK, sink);
 
-		// this is convenient for debugging (see Token.toString())
-		// Token.source = source;
+			if (prepareFormattedCode(source, kind) == null)
+				return this.tokens.isEmpty() ? new MultiTextEdit() : null;
 
-		this.sourceString = source;
-		this.sourceArray = source.toCharArray();
-		this.tokens.clear();
-		this.tokenManager = new TokenManager(this.tokens, source, this.workingOptions);
+			MultiTextEdit result = new MultiTextEdit();
+			TextEditsBuilder resultBuilder = new TextEditsBuilder(source, this.formatRegions, this.tokenManager,
+					this.workingOptions, sink);
+			this.tokenManager.traverse(0, resultBuilder);
+			for (TextEdit edit : resultBuilder.getEdits()) {
+				result.addChild(edit);
+			}
+			finishPhase(Phase.BUILD_EDITS);
+			return result;
+		}
 
-		tokenizeSource();
-		return !this.tokens.isEmpty();
-	}
+		private void startPhase() {
+			this.phaseStartAllocated = ThreadAllocation.getAllocatedBytes();
+			this.phaseStartTime = System.nanoTime();
+		}
 
-	List<Token> prepareFormattedCode(String source, int kind) {
-		if (!init(source))
-			return null;
+		/**
+		 * Reports the phase that just ended, if there's a listener, and starts measuring the next one.
+		 */
+		private void finishPhase(Phase phase) {
+			if (this.listener == null)
+				return;
+			long elapsed = System.nanoTime() - this.phaseStartTime;
+			long allocated = ThreadAllocation.getAllocatedBytes();
+			this.listener.phaseFinished(phase, elapsed, this.tokens.size(),
+					allocated < 0 || this.phaseStartAllocated < 0 ? -1 : allocated - this.phaseStartAllocated);
+			startPhase();
+		}
 
-		this.astRoot = parseSourceCode(kind);
-		if (this.astRoot == null)
-			return null;
+		private boolean init(String source) {
 
-		if (kind != CodeFormatter.K_UNKNOWN)
-			findHeader();
+			// this is convenient for debugging (see Token.toString())
+			// Token.source = source;
 
-		prepareSpaces();
-		prepareLineBreaks();
-		prepareComments();
-		prepareWraps(kind);
+			this.sourceString = source;
+			this.sourceArray = source.toCharArray();
+			this.tokens.clear();
+			this.tokenManager = new TokenManager(this.tokens, source, this.workingOptions);
 
-		this.tokenManager.applyFormatOff();
+			tokenizeSource();
+			finishPhase(Phase.TOKENIZE);
+			return !this.tokens.isEmpty();
+		}
 
-		return this.tokens;
-	}
+		List<Token> prepareFormattedCode(String source, int kind) {
+			if (!init(source))
+				return null;
 
-	private void findHeader() {
-		if (this.astRoot instanceof CompilationUnit) {
-			CompilationUnit unit = (CompilationUnit) this.astRoot;
-			List<TypeDeclaration> types = unit.types();
-			ASTNode firstElement = types.isEmpty() ? unit.getPackage() : types.get(0);
-			if (firstElement != null) {
-				int headerEndIndex = this.tokenManager.firstIndexIn(firstElement, -1);
-				this.tokenManager.setHeaderEndIndex(headerEndIndex);
+			this.astRoot = parseSourceCode(kind);
+			finishPhase(Phase.PARSE);
+			if (this.astRoot == null)
+				return null;
+
+			if (kind != CodeFormatter.K_UNKNOWN) {
+				findHeader();
+				finishPhase(Phase.FIND_HEADER);
+			}
+
+			prepareSpaces();
+			finishPhase(Phase.PREPARE_SPACES);
+			prepareLineBreaks();
+			finishPhase(Phase.PREPARE_LINE_BREAKS);
+			prepareComments();
+			finishPhase(Phase.PREPARE_COMMENTS);
+			WrapStatistics wrapStatistics = prepareWraps(kind);
+			finishPhase(Phase.PREPARE_WRAPS);
+			if (this.listener != null) {
+				this.listener.wrapsExecuted(wrapStatistics);
+				startPhase();
 			}
+
+			this.tokenManager.applyFormatOff();
+			finishPhase(Phase.APPLY_FORMAT_OFF);
+
+			return this.tokens;
 		}
-	}
 
-	private TextEdit formatComments(String source, int kind) {
-		MultiTextEdit result = new MultiTextEdit();
-		if (!init(source))
-			return result;
+		private void findHeader() {
+			if (this.astRoot instanceof CompilationUnit) {
+				CompilationUnit unit = (CompilationUnit) this.astRoot;
+				List<TypeDeclaration> types = unit.types();
+				ASTNode firstElement = types.isEmpty() ? unit.getPackage() : types.get(0);
+				if (firstElement != null) {
+					int headerEndIndex = this.tokenManager.firstIndexIn(firstElement, -1);
+					this.tokenManager.setHeaderEndIndex(headerEndIndex);
+				}
+			}
+		}
 
-		CommentsPreparator commentsPreparator = new CommentsPreparator(this.tokenManager, this.workingOptions,
-				this.sourceLevel);
-		CommentWrapExecutor commentWrapper = new CommentWrapExecutor(this.tokenManager, this.workingOptions);
-		switch (kind) {
-			case K_JAVA_DOC:
-				ASTParser parser = ASTParser.newParser(AST.JLS8);
-				for (Token token : this.tokens) {
-					if (token.tokenType == TokenNameCOMMENT_JAVADOC) {
-						parser.setSourceRange(token.originalStart, token.countChars());
-						CompilationUnit cu = (CompilationUnit) parseSourceCode(parser, ASTParser.K_COMPILATION_UNIT,
-								true);
-						Javadoc javadoc = (Javadoc) cu.getCommentList().get(0);
-						javadoc.accept(commentsPreparator);
-						int startPosition = this.tokenManager.findSourcePositionInLine(token.originalStart);
-						commentWrapper.wrapMultiLineComment(token, startPosition, false, false);
+		TextEdit formatComments(String source, int kind, EditSink sink) {
+			MultiTextEdit result = new MultiTextEdit();
+			if (!init(source))
+				return result;
+
+			CommentsPreparator commentsPreparator = new CommentsPreparator(this.tokenManager, this.workingOptions,
+					DefaultCodeFormatter.this.sourceLevel);
+			CommentWrapExecutor commentWrapper = new CommentWrapExecutor(this.tokenManager, this.workingOptions);
+			switch (kind) {
+				case K_JAVA_DOC:
+					ASTParser parser = ASTParser.newParser(AST.JLS8);
+					for (Token token : this.tokens) {
+						if (token.tokenType == TokenNameCOMMENT_JAVADOC) {
+							parser.setSourceRange(token.originalStart, token.countChars());
+							CompilationUnit cu = (CompilationUnit) parseSourceCode(parser, ASTParser.K_COMPILATION_UNIT,
+									true);
+							Javadoc javadoc = (Javadoc) cu.getCommentList().get(0);
+							javadoc.accept(commentsPreparator);
+							int startPosition = this.tokenManager.findSourcePositionInLine(token.originalStart);
+							commentWrapper.wrapMultiLineComment(token, startPosition, false, false);
+						}
 					}
-				}
-				break;
-			case K_MULTI_LINE_COMMENT:
-				for (int i = 0; i < this.tokens.size(); i++) {
-					Token token = this.tokens.get(i);
-					if (token.tokenType == TokenNameCOMMENT_BLOCK) {
-						commentsPreparator.handleBlockComment(i);
-						int startPosition = this.tokenManager.findSourcePositionInLine(token.originalStart);
-						commentWrapper.wrapMultiLineComment(token, startPosition, false, false);
+					break;
+				case K_MULTI_LINE_COMMENT:
+					for (int i = 0; i < this.tokens.size(); i++) {
+						Token token = this.tokens.get(i);
+						if (token.tokenType == TokenNameCOMMENT_BLOCK) {
+							commentsPreparator.handleBlockComment(i);
+							int startPosition = this.tokenManager.findSourcePositionInLine(token.originalStart);
+							commentWrapper.wrapMultiLineComment(token, startPosition, false, false);
+						}
 					}
-				}
-				break;
-			case K_SINGLE_LINE_COMMENT:
-				for (int i = 0; i < this.tokens.size(); i++) {
-					Token token = this.tokens.get(i);
-					if (token.tokenType == TokenNameCOMMENT_LINE) {
-						commentsPreparator.handleLineComment(i);
-						if (i >= this.tokens.size() || this.tokens.get(i) != token) {
-							// current token has been removed and merged with previous one
-							i--;
-							token = this.tokens.get(i);
+					break;
+				case K_SINGLE_LINE_COMMENT:
+					for (int i = 0; i < this.tokens.size(); i++) {
+						Token token = this.tokens.get(i);
+						if (token.tokenType == TokenNameCOMMENT_LINE) {
+							commentsPreparator.handleLineComment(i);
+							if (i >= this.tokens.size() || this.tokens.get(i) != token) {
+								// current token has been removed and merged with previous one
+								i--;
+								token = this.tokens.get(i);
+							}
+							int startPosition = this.tokenManager.findSourcePositionInLine(token.originalStart);
+							commentWrapper.wrapLineComment(token, startPosition);
 						}
-						int startPosition = this.tokenManager.findSourcePositionInLine(token.originalStart);
-						commentWrapper.wrapLineComment(token, startPosition);
 					}
-				}
-				break;
-			default:
-				throw new AssertionError(String.valueOf(kind));
-		}
-
-		this.tokenManager.applyFormatOff();
+					break;
+				default:
+					throw new AssertionError(String.valueOf(kind));
+			}
+			finishPhase(Phase.PREPARE_COMMENTS);
+
+			this.tokenManager.applyFormatOff();
+			finishPhase(Phase.APPLY_FORMAT_OFF);
+
+			TextEditsBuilder resultBuilder = new TextEditsBuilder(source, this.formatRegions, this.tokenManager,
+					this.workingOptions, sink);
+			resultBuilder.setAlignChar(DefaultCodeFormatterOptions.SPACE);
+			for (Token token : this.tokens) {
+				List<Token> structure = token.getInternalStructure();
+				if (structure != null && !structure.isEmpty())
+					resultBuilder.processComment(token);
+				if (resultBuilder.isDone())
+					break;
+			}
 
-		TextEditsBuilder resultBuilder = new TextEditsBuilder(source, this.formatRegions, this.tokenManager,
-				this.workingOptions);
-		resultBuilder.setAlignChar(DefaultCodeFormatterOptions.SPACE);
-		for (Token token : this.tokens) {
-			List<Token> structure = token.getInternalStructure();
-			if (structure != null && !structure.isEmpty())
-				resultBuilder.processComment(token);
+			for (TextEdit edit : resultBuilder.getEdits()) {
+				result.addChild(edit);
+			}
+			finishPhase(Phase.BUILD_EDITS);
+			return result;
 		}
 
-		for (TextEdit edit : resultBuilder.getEdits()) {
-			result.addChild(edit);
+		private ASTNode parseSourceCode(int kind) {
+			ASTParser parser = ASTParser.newParser(AST.JLS8);
+			Map<String, String> parserOptions = JavaCore.getOptions();
+			parserOptions.put(CompilerOptions.OPTION_Source, DefaultCodeFormatter.this.sourceLevel);
+			parserOptions.put(CompilerOptions.OPTION_DocCommentSupport, CompilerOptions.ENABLED);
+			parser.setCompilerOptions(parserOptions);
+
+			switch (kind & K_MASK) {
+				case K_COMPILATION_UNIT:
+					return parseSourceCode(parser, ASTParser.K_COMPILATION_UNIT, true);
+				case K_CLASS_BODY_DECLARATIONS:
+					return parseSourceCode(parser, ASTParser.K_CLASS_BODY_DECLARATIONS, false);
+				case K_STATEMENTS:
+					return parseSourceCode(parser, ASTParser.K_STATEMENTS, false);
+				case K_EXPRESSION:
+					return parseSourceCode(parser, ASTParser.K_EXPRESSION, false);
+				case K_UNKNOWN:
+					int[] parserModes = { ASTParser.K_COMPILATION_UNIT, ASTParser.K_EXPRESSION,
+							ASTParser.K_CLASS_BODY_DECLARATIONS, ASTParser.K_STATEMENTS };
+					int[] parserModeKinds = { K_COMPILATION_UNIT, K_EXPRESSION, K_CLASS_BODY_DECLARATIONS,
+							K_STATEMENTS };
+					int possibleKinds = classifyTokens();
+					for (int i = 0; i < parserModes.length; i++) {
+						if ((possibleKinds & parserModeKinds[i]) == 0)
+							continue; // the parser would fail anyway
+						ASTNode astNode = parseSourceCode(parser, parserModes[i], false);
+						if (astNode != null)
+							return astNode;
+						parser.setCompilerOptions(parserOptions); // parser loses compiler options after every use
+					}
+					return null;
+				default:
+					throw new IllegalArgumentException();
+			}
 		}
-		return result;
-	}
 
-	private ASTNode parseSourceCode(int kind) {
-		ASTParser parser = ASTParser.newParser(AST.JLS8);
-		Map<String, String> parserOptions = JavaCore.getOptions();
-		parserOptions.put(CompilerOptions.OPTION_Source, this.sourceLevel);
-		parserOptions.put(CompilerOptions.OPTION_DocCommentSupport, CompilerOptions.ENABLED);
-		parser.setCompilerOptions(parserOptions);
-
-		switch (kind & K_MASK) {
-			case K_COMPILATION_UNIT:
-				return parseSourceCode(parser, ASTParser.K_COMPILATION_UNIT, true);
-			case K_CLASS_BODY_DECLARATIONS:
-				return parseSourceCode(parser, ASTParser.K_CLASS_BODY_DECLARATIONS, false);
-			case K_STATEMENTS:
-				return parseSourceCode(parser, ASTParser.K_STATEMENTS, false);
-			case K_EXPRESSION:
-				return parseSourceCode(parser, ASTParser.K_EXPRESSION, false);
-			case K_UNKNOWN:
-				int[] parserModes = { ASTParser.K_COMPILATION_UNIT, ASTParser.K_EXPRESSION,
-						ASTParser.K_CLASS_BODY_DECLARATIONS, ASTParser.K_STATEMENTS };
-				for (int parserMode : parserModes) {
-					ASTNode astNode = parseSourceCode(parser, parserMode, false);
-					if (astNode != null)
-						return astNode;
-					parser.setCompilerOptions(parserOptions); // parser loses compiler options after every use
-				}
-				return null;
-			default:
-				throw new IllegalArgumentException();
+		private int classifyTokens() {
+			SnippetKindClassifier classifier = new SnippetKindClassifier();
+			for (Token token : this.tokens) {
+				classifier.add(token.tokenType, this.sourceArray, token.originalStart, token.originalEnd + 1);
+			}
+			return classifier.getPossibleKinds();
 		}
-	}
 
-	private ASTNode parseSourceCode(ASTParser parser, int parserMode, boolean ignoreErrors) {
-		parser.setKind(parserMode);
-		parser.setSource(this.sourceArray);
-		ASTNode astNode = parser.createAST(null);
-		if (ignoreErrors)
-			return astNode;
-
-		boolean hasErrors = false;
-		CompilationUnit root = (CompilationUnit) astNode.getRoot();
-		for (IProblem problem : root.getProblems()) {
-			if (problem.isError()) {
-				hasErrors = true;
-				break;
+		private ASTNode parseSourceCode(ASTParser parser, int parserMode, boolean ignoreErrors) {
+			parser.setKind(parserMode);
+			parser.setSource(this.sourceArray);
+			ASTNode astNode = parser.createAST(null);
+			if (ignoreErrors)
+				return astNode;
+
+			boolean hasErrors = false;
+			CompilationUnit root = (CompilationUnit) astNode.getRoot();
+			for (IProblem problem : root.getProblems()) {
+				if (problem.isError()) {
+					hasErrors = true;
+					break;
+				}
 			}
+			return hasErrors ? null : astNode;
 		}
-		return hasErrors ? null : astNode;
-	}
 
-	private void tokenizeSource() {
-		this.tokens.clear();
-		Scanner scanner = new Scanner(true, false, false/* nls */, CompilerOptions.versionToJdkLevel(this.sourceLevel),
-				null/* taskTags */, null/* taskPriorities */, false/* taskCaseSensitive */);
-		scanner.setSource(this.sourceArray);
-		while (true) {
-			try {
-				int tokenType = scanner.getNextToken();
-				if (tokenType == TokenNameEOF)
-					break;
-				Token token = Token.fromCurrent(scanner, tokenType);
-				this.tokens.add(token);
-			} catch (InvalidInputException e) {
-				Token token = Token.fromCurrent(scanner, TokenNameNotAToken);
-				this.tokens.add(token);
+		private void tokenizeSource() {
+			this.tokens.clear();
+			Scanner scanner = new Scanner(true, false, false/* nls */,
+					CompilerOptions.versionToJdkLevel(DefaultCodeFormatter.this.sourceLevel), null/* taskTags */,
+					null/* taskPriorities */, false/* taskCaseSensitive */);
+			scanner.setSource(this.sourceArray);
+			while (true) {
+				try {
+					int tokenType = scanner.getNextToken();
+					if (tokenType == TokenNameEOF)
+						break;
+					Token token = Token.fromCurrent(scanner, tokenType);
+					this.tokenManager.add(token);
+				} catch (InvalidInputException e) {
+					Token token = Token.fromCurrent(scanner, TokenNameNotAToken);
+					this.tokenManager.add(token);
+				}
 			}
+			this.tokenManager.indexOffsets();
 		}
-	}
 
-	private void prepareSpaces() {
-		SpacePreparator spacePreparator = new SpacePreparator(this.tokenManager, this.workingOptions);
-		this.astRoot.accept(spacePreparator);
-		spacePreparator.finishUp();
-	}
+		private void prepareSpaces() {
+			SpacePreparator spacePreparator = new SpacePreparator(this.tokenManager, this.workingOptions);
+			this.astRoot.accept(spacePreparator);
+			spacePreparator.finishUp();
+		}
 
-	private void prepareLineBreaks() {
-		LineBreaksPreparator breaksPreparator = new LineBreaksPreparator(this.tokenManager, this.workingOptions);
-		this.astRoot.accept(breaksPreparator);
-		breaksPreparator.finishUp();
-	}
+		private void prepareLineBreaks() {
+			LineBreaksPreparator breaksPreparator = new LineBreaksPreparator(this.tokenManager, this.workingOptions);
+			this.astRoot.accept(breaksPreparator);
+			breaksPreparator.finishUp();
+		}
 
-	private void prepareComments() {
-		CommentsPreparator commentsPreparator = new CommentsPreparator(this.tokenManager, this.workingOptions,
-				this.sourceLevel);
-		List<Comment> comments = ((CompilationUnit) this.astRoot.getRoot()).getCommentList();
-		for (Comment comment : comments) {
-			comment.accept(commentsPreparator);
+		private void prepareComments() {
+			CommentsPreparator commentsPreparator = new CommentsPreparator(this.tokenManager, this.workingOptions,
+					DefaultCodeFormatter.this.sourceLevel);
+			List<Comment> comments = ((CompilationUnit) this.astRoot.getRoot()).getCommentList();
+			for (Comment comment : comments) {
+				comment.accept(commentsPreparator);
+			}
+			commentsPreparator.finishUp();
 		}
-		commentsPreparator.finishUp();
-	}
 
-	private void prepareWraps(int kind) {
-		WrapPreparator wrapPreparator = new WrapPreparator(this.tokenManager, this.workingOptions, kind);
-		this.astRoot.accept(wrapPreparator);
-		wrapPreparator.finishUp(this.astRoot, this.formatRegions);
+		private WrapStatistics prepareWraps(int kind) {
+			WrapPreparator wrapPreparator = new WrapPreparator(this.tokenManager, this.workingOptions, kind);
+			this.astRoot.accept(wrapPreparator);
+			wrapPreparator.finishUp(this.astRoot, this.formatRegions);
+			return wrapPreparator.getWrapStatistics();
+		}
 	}
 
 	/**
@@ -418,19 +623,19 @@ public class DefaultCodeFormatter extends CodeFormatter {
 		return true;
 	}
 
-	private void updateWorkingOptions(int indentationLevel, String lineSeparator, int kind) {
-		this.workingOptions.line_separator = lineSeparator != null ? lineSeparator
-				: this.originalOptions.line_separator;
-		if (this.workingOptions.line_separator == null)
-			this.workingOptions.line_separator = Util.LINE_SEPARATOR;
+	private void updateWorkingOptions(DefaultCodeFormatterOptions workingOptions, int indentationLevel,
+			String lineSeparator, int kind) {
+		workingOptions.line_separator = lineSeparator != null ? lineSeparator : this.originalOptions.line_separator;
+		if (workingOptions.line_separator == null)
+			workingOptions.line_separator = Util.LINE_SEPARATOR;
 
-		this.workingOptions.initial_indentation_level = indentationLevel;
+		workingOptions.initial_indentation_level = indentationLevel;
 
-		this.workingOptions.comment_format_javadoc_comment = this.originalOptions.comment_format_javadoc_comment
+		workingOptions.comment_format_javadoc_comment = this.originalOptions.comment_format_javadoc_comment
 				&& canFormatComment(kind, K_JAVA_DOC);
-		this.workingOptions.comment_format_block_comment = this.originalOptions.comment_format_block_comment
+		workingOptions.comment_format_block_comment = this.originalOptions.comment_format_block_comment
 				&& canFormatComment(kind, K_MULTI_LINE_COMMENT);
-		this.workingOptions.comment_format_line_comment = this.originalOptions.comment_format_line_comment
+		workingOptions.comment_format_line_comment = this.originalOptions.comment_format_line_comment
 				&& canFormatComment(kind, K_SINGLE_LINE_COMMENT);
 	}
 
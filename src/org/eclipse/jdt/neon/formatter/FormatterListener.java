@@ -0,0 +1,70 @@
+package org.eclipse.jdt.neon.formatter;
+
+import org.eclipse.jdt.neon.formatter.linewrap.WrapStatistics;
+
+/**
+ * Receives the cost of each phase of the format calls of a {@link DefaultCodeFormatter}, see
+ * {@link DefaultCodeFormatter#setListener(FormatterListener)}.
+ * <p>
+ * The methods are called on the formatting thread, so a listener registered on a formatter shared by many threads
+ * must be thread safe. The time spent in the listener is not part of the reported phases.
+ */
+public interface FormatterListener {
+
+	/**
+	 * The phases of a format call, in the order they run. Formatting a comment kind only goes through
+	 * {@link #TOKENIZE}, {@link #PREPARE_COMMENTS}, {@link #APPLY_FORMAT_OFF} and {@link #BUILD_EDITS}, and a call
+	 * stops after the first phase that finds nothing to format or a syntax error.
+	 */
+	enum Phase {
+		TOKENIZE,
+		PARSE,
+		FIND_HEADER,
+		PREPARE_SPACES,
+		PREPARE_LINE_BREAKS,
+		PREPARE_COMMENTS,
+		PREPARE_WRAPS,
+		APPLY_FORMAT_OFF,
+		BUILD_EDITS
+	}
+
+	/**
+	 * Called when a format call starts.
+	 *
+	 * @param kind the kind of code to format, one of the {@code CodeFormatter.K_*} constants
+	 * @param sourceLength the length of the source
+	 */
+	default void formatStarted(int kind, int sourceLength) {
+		// nothing by default
+	}
+
+	/**
+	 * Called when a phase of a format call is over.
+	 *
+	 * @param phase the phase
+	 * @param elapsedNanos the wall time spent in the phase
+	 * @param tokenCount the number of tokens once the phase is over
+	 * @param allocatedBytes the memory allocated during the phase, or <code>-1</code> if the VM cannot tell
+	 */
+	void phaseFinished(Phase phase, long elapsedNanos, int tokenCount, long allocatedBytes);
+
+	/**
+	 * Called after {@link Phase#PREPARE_WRAPS} with the work done by the wrap search. Not called when formatting
+	 * comment kinds or when the call stops earlier.
+	 *
+	 * @param statistics the counters of the wrap search of this call
+	 */
+	default void wrapsExecuted(WrapStatistics statistics) {
+		// nothing by default
+	}
+
+	/**
+	 * Called when a format call is over, also if it failed.
+	 *
+	 * @param elapsedNanos the wall time spent in the whole call
+	 * @param formatted <code>false</code> if the source could not be formatted or formatting failed
+	 */
+	default void formatFinished(long elapsedNanos, boolean formatted) {
+		// nothing by default
+	}
+}
@@ -772,13 +772,13 @@ public class LineBreaksPreparator extends ASTVisitor {
 			case preserve_positions:
 				boolean always = !positionsSetting.equals(DefaultCodeFormatterConstants.PRESERVE_POSITIONS);
 				Token afterOpening = this.tm.get(openingParenIndex + 1);
-				if (always || this.tm.countLineBreaksBetween(this.tm.get(openingParenIndex), afterOpening) > 0) {
+				if (always || this.tm.countLineBreaksBefore(openingParenIndex + 1) > 0) {
 					afterOpening.setWrapPolicy(
 							new WrapPolicy(WrapMode.WHERE_NECESSARY, openingParenIndex, this.options.indentation_size));
 					afterOpening.breakBefore();
 				}
 				Token closingParen = this.tm.get(closingParenIndex);
-				if (always || this.tm.countLineBreaksBetween(this.tm.get(closingParenIndex - 1), closingParen) > 0) {
+				if (always || this.tm.countLineBreaksBefore(closingParenIndex) > 0) {
 					closingParen.setWrapPolicy(new WrapPolicy(WrapMode.WHERE_NECESSARY, openingParenIndex, 0));
 					closingParen.breakBefore();
 				}
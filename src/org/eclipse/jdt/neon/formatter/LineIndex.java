@@ -0,0 +1,145 @@
+package org.eclipse.jdt.neon.formatter;
+
+/**
+ * Positions of the line breaks and tabs of a source, built once so that {@link TokenManager} can count line breaks
+ * and measure columns with binary searches instead of scanning the characters in between.
+ * <p>
+ * Line breaks are found the way {@link TokenManager#countLineBreaksBetween(String, int, int)} finds them: a
+ * {@code "\r\n"} or {@code "\n\r"} pair is a single line break.
+ */
+final class LineIndex {
+
+	private final String source;
+	private final int tabSize;
+
+	/** Position of the first character of each line break. */
+	private final int[] breakStarts;
+	/** Position of each tab. */
+	private final int[] tabs;
+	/** Column after each tab, counted from the start of its line. */
+	private final int[] tabColumns;
+
+	LineIndex(String source, int tabSize) {
+		this.source = source;
+		this.tabSize = tabSize;
+		int length = source.length();
+		int breakCount = 0, tabCount = 0;
+		for (int i = 0; i < length; i++) {
+			char c = source.charAt(i);
+			if (isLineBreak(c)) {
+				breakCount++;
+				if (isPair(i))
+					i++;
+			} else if (c == '\t') {
+				tabCount++;
+			}
+		}
+		this.breakStarts = new int[breakCount];
+		this.tabs = new int[tabCount];
+		this.tabColumns = new int[tabCount];
+		breakCount = tabCount = 0;
+		int column = 0;
+		for (int i = 0; i < length; i++) {
+			char c = source.charAt(i);
+			if (isLineBreak(c)) {
+				this.breakStarts[breakCount++] = i;
+				if (isPair(i))
+					i++;
+				column = 0;
+			} else if (c == '\t') {
+				if (tabSize > 0)
+					column += tabSize - column % tabSize;
+				this.tabs[tabCount] = i;
+				this.tabColumns[tabCount++] = column;
+			} else {
+				column++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of line breaks in the source from {@code startPosition} inclusive to {@code endPosition}
+	 *         exclusive, or -1 if {@code startPosition} splits a line break pair and the characters must be scanned
+	 */
+	int countLineBreaks(int startPosition, int endPosition) {
+		if (startPosition >= endPosition)
+			return 0;
+		int before = countBelow(this.breakStarts, startPosition);
+		if (before > 0 && this.breakStarts[before - 1] == startPosition - 1 && isPair(startPosition - 1))
+			return -1;
+		return countBelow(this.breakStarts, endPosition) - before;
+	}
+
+	/**
+	 * @return the same as {@link TokenManager#getLength(int, int, int)}
+	 */
+	int getLength(int originalStart, int originalEnd, int startPosition) {
+		if (originalStart > originalEnd)
+			return 0;
+		int breakIndex = countBelow(this.breakStarts, originalEnd + 1) - 1;
+		int lastBreak = -1;
+		if (breakIndex >= 0) {
+			lastBreak = this.breakStarts[breakIndex];
+			if (lastBreak < originalEnd && isPair(lastBreak))
+				lastBreak++;
+		}
+		int lastTab = countBelow(this.tabs, originalEnd + 1) - 1;
+		if (lastBreak >= originalStart) {
+			// the position goes back to 0 on the last line break
+			if (lastTab >= 0 && this.tabs[lastTab] > lastBreak)
+				return this.tabColumns[lastTab] + originalEnd - this.tabs[lastTab] - startPosition;
+			return originalEnd - lastBreak - startPosition;
+		}
+		int firstTab = countBelow(this.tabs, originalStart);
+		if (firstTab > lastTab)
+			return originalEnd - originalStart + 1;
+		int position = startPosition + this.tabs[firstTab] - originalStart;
+		if (this.tabSize > 0)
+			position += this.tabSize - position % this.tabSize;
+		// after a tab the position is a multiple of the tab size, so the rest of the line is measured the same
+		// from there as from the line start
+		return position + this.tabColumns[lastTab] + originalEnd - this.tabs[lastTab] - this.tabColumns[firstTab]
+				- startPosition;
+	}
+
+	/**
+	 * @return the column of given position, counted from the start of its line, if the character at given position
+	 *         is not a line break
+	 */
+	int getColumn(int position) {
+		int breakIndex = countBelow(this.breakStarts, position) - 1;
+		int lineStart = 0;
+		if (breakIndex >= 0)
+			lineStart = this.breakStarts[breakIndex] + (isPair(this.breakStarts[breakIndex]) ? 2 : 1);
+		int lastTab = countBelow(this.tabs, position) - 1;
+		if (lastTab >= 0 && this.tabs[lastTab] >= lineStart)
+			return this.tabColumns[lastTab] + position - 1 - this.tabs[lastTab];
+		return position - lineStart;
+	}
+
+	private boolean isPair(int position) {
+		if (position + 1 >= this.source.length())
+			return false;
+		char c = this.source.charAt(position), next = this.source.charAt(position + 1);
+		return (c == '\r' && next == '\n') || (c == '\n' && next == '\r');
+	}
+
+	private static boolean isLineBreak(char c) {
+		return c == '\r' || c == '\n';
+	}
+
+	/**
+	 * @return how many of the sorted values are smaller than given value
+	 */
+	private static int countBelow(int[] values, int value) {
+		int low = 0, high = values.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
@@ -25,6 +25,7 @@ import org.eclipse.jdt.internal.compiler.parser.ScannerHelper;
 import org.eclipse.jdt.neon.formatter.Token.WrapMode;
 import org.eclipse.jdt.neon.formatter.Token.WrapPolicy;
 import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+import org.eclipse.jdt.legacy.formatter.EditSink;
 import org.eclipse.jdt.neon.formatter.TextEditsBuilder;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Region;
@@ -33,6 +34,7 @@ import org.eclipse.text.edits.TextEdit;
 
 /**
  * Creates the formatter's result TextEdit by scanning through the tokens and comparing them with the original source.
+ * If given an {@link EditSink}, the changes are given to it instead of being collected as edits.
  */
 @SuppressWarnings("restriction")
 public class TextEditsBuilder extends TokenTraverser {
@@ -45,6 +47,7 @@ public class TextEditsBuilder extends TokenTraverser {
 
 	private final List<Token> stringLiteralsInLine = new ArrayList<>();
 	private final List<TextEdit> edits = new ArrayList<>();
+	private final EditSink sink;
 
 	private int currentRegion = 0;
 
@@ -56,7 +59,13 @@ public class TextEditsBuilder extends TokenTraverser {
 
 	public TextEditsBuilder(String source, IRegion[] regions, TokenManager tokenManager,
 			DefaultCodeFormatterOptions options) {
+		this(source, regions, tokenManager, options, null);
+	}
+
+	public TextEditsBuilder(String source, IRegion[] regions, TokenManager tokenManager,
+			DefaultCodeFormatterOptions options, EditSink sink) {
 		this.source = source;
+		this.sink = sink;
 		this.tm = tokenManager;
 		this.options = options;
 		this.regions = adaptRegions(regions);
@@ -74,6 +83,7 @@ public class TextEditsBuilder extends TokenTraverser {
 		this.source = parent.source;
 		this.options = parent.options;
 		this.regions = parent.regions;
+		this.sink = parent.sink;
 		this.alignChar = DefaultCodeFormatterOptions.SPACE;
 	}
 
@@ -148,7 +158,7 @@ public class TextEditsBuilder extends TokenTraverser {
 				bufferLineSeparator(null, false);
 			flushBuffer(this.sourceLimit);
 		}
-		return true;
+		return !isDone();
 	}
 
 	private void bufferWhitespaceBefore(Token token, int index) {
@@ -341,7 +351,7 @@ public class TextEditsBuilder extends TokenTraverser {
 			}
 			if (this.currentRegion == this.regions.size() - 1
 					|| this.regions.get(this.currentRegion + 1).getOffset() > currentPosition) {
-				this.edits.add(getReplaceEdit(this.counter, currentPosition, buffered, region));
+				addReplaceEdit(this.counter, currentPosition, buffered, region);
 				break;
 			}
 
@@ -358,7 +368,7 @@ public class TextEditsBuilder extends TokenTraverser {
 					bestSplitScore = score;
 				}
 			}
-			this.edits.add(getReplaceEdit(this.counter, regionEnd, buffered.substring(0, bestSplit), region));
+			addReplaceEdit(this.counter, regionEnd, buffered.substring(0, bestSplit), region);
 			buffered = buffered.substring(bestSplit);
 			this.counter = regionEnd;
 		}
@@ -366,6 +376,18 @@ public class TextEditsBuilder extends TokenTraverser {
 		this.counter = currentPosition;
 	}
 
+	private void addReplaceEdit(int editStart, int editEnd, String text, IRegion region) {
+		if (this.sink == null) {
+			this.edits.add(getReplaceEdit(editStart, editEnd, text, region));
+		} else if (editStart >= region.getOffset() && editEnd <= region.getOffset() + region.getLength()) {
+			// nothing to adapt, skip creating the edit
+			this.sink.replace(editStart, editEnd - editStart, text);
+		} else {
+			ReplaceEdit edit = getReplaceEdit(editStart, editEnd, text, region);
+			this.sink.replace(edit.getOffset(), edit.getLength(), edit.getText());
+		}
+	}
+
 	private ReplaceEdit getReplaceEdit(int editStart, int editEnd, String text, IRegion region) {
 		int regionEnd = region.getOffset() + region.getLength();
 		if (editStart < region.getOffset() && regionEnd < editEnd) {
@@ -532,6 +554,13 @@ public class TextEditsBuilder extends TokenTraverser {
 		}
 	}
 
+	/**
+	 * @return whether the sink needs no more changes, so the traversal can stop
+	 */
+	public boolean isDone() {
+		return this.sink != null && this.sink.isDone();
+	}
+
 	public List<TextEdit> getEdits() {
 		return this.edits;
 	}
@@ -89,20 +89,36 @@ public class Token {
 	public final int originalEnd;
 	/** Type of this token. See {@link TerminalTokens} for constants definition. */
 	public final int tokenType;
-	private boolean spaceBefore, spaceAfter;
 	private int lineBreaksBefore, lineBreaksAfter;
 	private int indent;
-	private int emptyLineIndentAdjustment;
-	private int align;
-	private boolean toEscape;
 
-	private boolean nextLineOnWrap;
+	private static final int SPACE_BEFORE = 1;
+	private static final int SPACE_AFTER = 1 << 1;
+	private static final int TO_ESCAPE = 1 << 2;
+	private static final int NEXT_LINE_ON_WRAP = 1 << 3;
+	private static final int TEXT_CHECKED = 1 << 4;
+	private static final int TEXT_HAS_TABS_OR_LINE_BREAKS = 1 << 5;
+	private static final int ANNOTATION_CHECKED = 1 << 6;
+	private static final int ANNOTATION_FOUND = 1 << 7;
+	/** The bits above the flags count the changes of the properties that affect layout. */
+	private static final int LAYOUT_VERSION_SHIFT = 8;
+	private int flags;
+
 	private WrapPolicy wrapPolicy;
-	private Token separateLinesOnWrapUntil;
 
-	private Token nlsTagToken;
+	/**
+	 * Properties that only a few tokens have, kept apart so that the many tokens of a large source stay small.
+	 * Created when one of them is first set.
+	 */
+	private static final class Extras {
+		int emptyLineIndentAdjustment;
+		int align;
+		Token separateLinesOnWrapUntil;
+		Token nlsTagToken;
+		List<Token> internalStructure;
+	}
 
-	private List<Token> internalStructure;
+	private Extras extras;
 
 	public Token(int sourceStart, int sourceEnd, int tokenType) {
 		assert sourceStart <= sourceEnd;
@@ -119,15 +135,13 @@ public class Token {
 		this.originalStart = newOriginalStart;
 		this.originalEnd = newOriginalEnd;
 		this.tokenType = newTokenType;
-		this.spaceBefore = tokenToCopy.spaceBefore;
-		this.spaceAfter = tokenToCopy.spaceAfter;
+		this.flags = tokenToCopy.flags & (SPACE_BEFORE | SPACE_AFTER | NEXT_LINE_ON_WRAP);
 		this.lineBreaksBefore = tokenToCopy.lineBreaksBefore;
 		this.lineBreaksAfter = tokenToCopy.lineBreaksAfter;
 		this.indent = tokenToCopy.indent;
-		this.nextLineOnWrap = tokenToCopy.nextLineOnWrap;
 		this.wrapPolicy = tokenToCopy.wrapPolicy;
-		this.nlsTagToken = tokenToCopy.nlsTagToken;
-		this.internalStructure = tokenToCopy.internalStructure;
+		setNLSTag(tokenToCopy.getNLSTag());
+		setInternalStructure(tokenToCopy.getInternalStructure());
 	}
 
 	public static Token fromCurrent(Scanner scanner, int currentToken) {
@@ -148,30 +162,34 @@ public class Token {
 
 	/** Adds space before this token */
 	public void spaceBefore() {
-		this.spaceBefore = true;
+		this.flags |= SPACE_BEFORE;
+		layoutChanged();
 	}
 
 	/** Removes space before this token */
 	public void clearSpaceBefore() {
-		this.spaceBefore = false;
+		this.flags &= ~SPACE_BEFORE;
+		layoutChanged();
 	}
 
 	public boolean isSpaceBefore() {
-		return this.spaceBefore;
+		return (this.flags & SPACE_BEFORE) != 0;
 	}
 
 	/** Adds space after this token */
 	public void spaceAfter() {
-		this.spaceAfter = true;
+		this.flags |= SPACE_AFTER;
+		layoutChanged();
 	}
 
 	/** Removes space after this token */
 	public void clearSpaceAfter() {
-		this.spaceAfter = false;
+		this.flags &= ~SPACE_AFTER;
+		layoutChanged();
 	}
 
 	public boolean isSpaceAfter() {
-		return this.spaceAfter;
+		return (this.flags & SPACE_AFTER) != 0;
 	}
 
 	public void breakBefore() {
@@ -180,6 +198,7 @@ public class Token {
 
 	public void putLineBreaksBefore(int lineBreaks) {
 		this.lineBreaksBefore = Math.max(this.lineBreaksBefore, lineBreaks);
+		layoutChanged();
 	}
 
 	public int getLineBreaksBefore() {
@@ -188,6 +207,7 @@ public class Token {
 
 	public void clearLineBreaksBefore() {
 		this.lineBreaksBefore = 0;
+		layoutChanged();
 	}
 
 	public void breakAfter() {
@@ -196,6 +216,7 @@ public class Token {
 
 	public void putLineBreaksAfter(int lineBreaks) {
 		this.lineBreaksAfter = Math.max(this.lineBreaksAfter, lineBreaks);
+		layoutChanged();
 	}
 
 	public int getLineBreaksAfter() {
@@ -204,20 +225,24 @@ public class Token {
 
 	public void clearLineBreaksAfter() {
 		this.lineBreaksAfter = 0;
+		layoutChanged();
 	}
 
 	/** Increases this token's indentation by one position */
 	public void indent() {
 		this.indent++;
+		layoutChanged();
 	}
 
 	/** Decreses this token's indentation by one position */
 	public void unindent() {
 		this.indent--;
+		layoutChanged();
 	}
 
 	public void setIndent(int indent) {
 		this.indent = indent;
+		layoutChanged();
 	}
 
 	public int getIndent() {
@@ -225,47 +250,56 @@ public class Token {
 	}
 
 	public void setEmptyLineIndentAdjustment(int adjustment) {
-		this.emptyLineIndentAdjustment = adjustment;
+		if (adjustment != 0 || this.extras != null)
+			extras().emptyLineIndentAdjustment = adjustment;
 	}
 
 	public int getEmptyLineIndentAdjustment() {
-		return this.emptyLineIndentAdjustment;
+		return this.extras == null ? 0 : this.extras.emptyLineIndentAdjustment;
 	}
 
 	public void setAlign(int align) {
-		this.align = align;
+		if (align != 0 || this.extras != null)
+			extras().align = align;
+		layoutChanged();
 	}
 
 	public int getAlign() {
-		return this.align;
+		return this.extras == null ? 0 : this.extras.align;
 	}
 
 	public void setToEscape(boolean shouldEscape) {
-		this.toEscape = shouldEscape;
+		if (shouldEscape)
+			this.flags |= TO_ESCAPE;
+		else
+			this.flags &= ~TO_ESCAPE;
+		layoutChanged();
 	}
 
 	public boolean isToEscape() {
-		return this.toEscape;
+		return (this.flags & TO_ESCAPE) != 0;
 	}
 
 	public void setNextLineOnWrap() {
-		this.nextLineOnWrap = true;
+		this.flags |= NEXT_LINE_ON_WRAP;
 	}
 
 	public boolean isNextLineOnWrap() {
-		return this.nextLineOnWrap;
+		return (this.flags & NEXT_LINE_ON_WRAP) != 0;
 	}
 
 	public void setSeparateLinesOnWrapUntil(Token token) {
-		this.separateLinesOnWrapUntil = token;
+		if (token != null || this.extras != null)
+			extras().separateLinesOnWrapUntil = token;
 	}
 
 	public Token getSeparateLinesOnWrapUntil() {
-		return this.separateLinesOnWrapUntil;
+		return this.extras == null ? null : this.extras.separateLinesOnWrapUntil;
 	}
 
 	public void setWrapPolicy(WrapPolicy wrapPolicy) {
 		this.wrapPolicy = wrapPolicy;
+		layoutChanged();
 	}
 
 	public WrapPolicy getWrapPolicy() {
@@ -278,23 +312,75 @@ public class Token {
 	}
 
 	public void setNLSTag(Token nlsTagToken) {
-		this.nlsTagToken = nlsTagToken;
+		if (nlsTagToken != null || this.extras != null)
+			extras().nlsTagToken = nlsTagToken;
+		layoutChanged();
 	}
 
 	public boolean hasNLSTag() {
-		return this.nlsTagToken != null;
+		return getNLSTag() != null;
 	}
 
 	public Token getNLSTag() {
-		return this.nlsTagToken;
+		return this.extras == null ? null : this.extras.nlsTagToken;
 	}
 
 	public void setInternalStructure(List<Token> internalStructure) {
-		this.internalStructure = internalStructure;
+		if (internalStructure != null || this.extras != null)
+			extras().internalStructure = internalStructure;
+		layoutChanged();
 	}
 
 	public List<Token> getInternalStructure() {
-		return this.internalStructure;
+		return this.extras == null ? null : this.extras.internalStructure;
+	}
+
+	/**
+	 * @return a number that changes whenever a property that affects the position of this or the following tokens
+	 *         in their line is set
+	 */
+	int getLayoutVersion() {
+		return this.flags >>> LAYOUT_VERSION_SHIFT;
+	}
+
+	private void layoutChanged() {
+		this.flags += 1 << LAYOUT_VERSION_SHIFT;
+	}
+
+	/*
+	 * What TokenManager found in the text of this token, kept since the text never changes: whether it has tabs or
+	 * line breaks, so that its width depends on its position in line, and whether it starts like an annotation in a
+	 * comment line, so that its width grows when escaped. A check not done yet is reported as unknown.
+	 */
+
+	boolean isTextChecked() {
+		return (this.flags & TEXT_CHECKED) != 0;
+	}
+
+	boolean hasTabsOrLineBreaks() {
+		return (this.flags & TEXT_HAS_TABS_OR_LINE_BREAKS) != 0;
+	}
+
+	void setTextChecked(boolean hasTabsOrLineBreaks) {
+		this.flags |= TEXT_CHECKED | (hasTabsOrLineBreaks ? TEXT_HAS_TABS_OR_LINE_BREAKS : 0);
+	}
+
+	boolean isAnnotationChecked() {
+		return (this.flags & ANNOTATION_CHECKED) != 0;
+	}
+
+	boolean hasAnnotation() {
+		return (this.flags & ANNOTATION_FOUND) != 0;
+	}
+
+	void setAnnotationChecked(boolean hasAnnotation) {
+		this.flags |= ANNOTATION_CHECKED | (hasAnnotation ? ANNOTATION_FOUND : 0);
+	}
+
+	private Extras extras() {
+		if (this.extras == null)
+			this.extras = new Extras();
+		return this.extras;
 	}
 
 	public boolean isComment() {
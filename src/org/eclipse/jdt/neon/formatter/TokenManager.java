@@ -18,6 +18,7 @@ import static org.eclipse.jdt.internal.compiler.parser.TerminalTokens.TokenNameS
 import static org.eclipse.jdt.internal.compiler.parser.TerminalTokens.TokenNameWHITESPACE;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -43,24 +44,45 @@ public class TokenManager implements Iterable<Token> {
 
 	private static final Pattern COMMENT_LINE_ANNOTATION_PATTERN = Pattern.compile("^(\\s*\\*?\\s*)(@)"); //$NON-NLS-1$
 
+	/** Source fragments up to this length are scanned, longer ones are measured with the {@link LineIndex}. */
+	private static final int SCAN_LIMIT = 32;
+
+	/** Source positions per entry of the offset table, an entry per position would take more memory than the tokens. */
+	private static final int OFFSET_BLOCK_BITS = 4;
+	private static final int OFFSET_BLOCK_SIZE = 1 << OFFSET_BLOCK_BITS;
+
 	private final List<Token> tokens;
 	private final String source;
 	private final int tabSize;
 	private final int tabChar;
 	private final boolean wrapWithSpaces;
+	private final LineIndex lineIndex;
 
 	final CommentWrapExecutor commentWrapper;
 
+	/** The token properties that never change, only for the tokens of the whole source. */
+	private final TokenStore store;
+	private int[] offsetToIndex;
+	private int offsetIndexMisses;
+
 	private HashMap<Integer, Integer> tokenIndexToNLSAlign;
 	private List<Token[]> formatOffTagPairs;
 	private int headerEndIndex = 0;
 
+	/**
+	 * Creates the manager of the tokens of the whole source. The list must be empty, the tokens are added with
+	 * {@link #add(Token)}.
+	 */
 	public TokenManager(List<Token> tokens, String source, DefaultCodeFormatterOptions options) {
+		assert tokens.isEmpty();
 		this.tokens = tokens;
+		// grows as the tokens are added, see indexOffsets()
+		this.store = new TokenStore(source.length() / 8);
 		this.source = source;
 		this.tabSize = options.tab_size;
 		this.tabChar = options.tab_char;
 		this.wrapWithSpaces = options.use_tabs_only_for_leading_indentations;
+		this.lineIndex = new LineIndex(source, this.tabSize);
 		this.commentWrapper = new CommentWrapExecutor(this, options);
 	}
 
@@ -70,7 +92,10 @@ public class TokenManager implements Iterable<Token> {
 		this.tabSize = parent.tabSize;
 		this.tabChar = parent.tabChar;
 		this.wrapWithSpaces = parent.wrapWithSpaces;
+		this.lineIndex = parent.lineIndex;
 		this.commentWrapper = parent.commentWrapper;
+		// the tokens of comment structures are changed without going through this manager
+		this.store = null;
 	}
 
 	public Token get(int index) {
@@ -91,6 +116,16 @@ public class TokenManager implements Iterable<Token> {
 	 */
 	public void remove(int tokenIndex) {
 		this.tokens.remove(tokenIndex);
+		if (this.store != null)
+			this.store.replace(tokenIndex, tokenIndex, null);
+		this.lineCacheStart = -1;
+	}
+
+	/**
+	 * Adds given token after the last one.
+	 */
+	public void add(Token token) {
+		insert(size(), token);
 	}
 
 	/**
@@ -100,6 +135,9 @@ public class TokenManager implements Iterable<Token> {
 	 */
 	public void insert(int tokenIndex, Token token) {
 		this.tokens.add(tokenIndex, token);
+		if (this.store != null)
+			this.store.insert(tokenIndex, token);
+		this.lineCacheStart = -1;
 	}
 
 	/**
@@ -145,34 +183,106 @@ public class TokenManager implements Iterable<Token> {
 		return this.source.length();
 	}
 
+	/**
+	 * Builds a table from each block of {@value #OFFSET_BLOCK_SIZE} source positions to the last token starting at or
+	 * before the block, so that {@link #findIndex(int, int, boolean)} only needs to scan the few tokens starting
+	 * within the block instead of doing a binary search. Entries made stale by later calls to
+	 * {@link #insert(int, Token)} and {@link #remove(int)} are detected on use, and the table is built again once there
+	 * are too many of them.
+	 */
+	public void indexOffsets() {
+		int[] table = this.offsetToIndex;
+		// the first call comes once all the tokens are added
+		if (table == null && this.store != null)
+			this.store.trim();
+		int blocks = (this.source.length() >> OFFSET_BLOCK_BITS) + 1;
+		if (table == null || table.length != blocks)
+			table = new int[blocks];
+		int block = 0;
+		for (int i = 0; i < size() && block < blocks; i++) {
+			// blocks starting before the token point to the previous one
+			int firstAfter = Math.min((startOf(i) + OFFSET_BLOCK_SIZE - 1) >> OFFSET_BLOCK_BITS, blocks);
+			if (firstAfter > block) {
+				Arrays.fill(table, block, firstAfter, i - 1);
+				block = firstAfter;
+			}
+		}
+		Arrays.fill(table, block, blocks, size() - 1);
+		this.offsetToIndex = table;
+		this.offsetIndexMisses = 0;
+	}
+
 	public int findIndex(int positionInSource, int tokenType, boolean forward) {
-		// binary search
+		int index = findIndexInTable(positionInSource, forward);
+		if (index == Integer.MIN_VALUE)
+			index = findIndexBinary(positionInSource, forward);
+		while (tokenType >= 0 && typeOf(index) != tokenType) {
+			index += forward ? 1 : -1;
+		}
+		return index;
+	}
+
+	/**
+	 * @return index as {@link #findIndex(int, int, boolean)} would return it for any token type, or
+	 *         {@link Integer#MIN_VALUE} if the offset table has no valid entry for given position.
+	 */
+	private int findIndexInTable(int positionInSource, boolean forward) {
+		int[] table = this.offsetToIndex;
+		if (table == null || positionInSource < 0 || positionInSource > this.source.length())
+			return Integer.MIN_VALUE;
+		int blockStart = positionInSource & ~(OFFSET_BLOCK_SIZE - 1);
+		int index = table[positionInSource >> OFFSET_BLOCK_BITS];
+		int size = size();
+		boolean valid = index < 0 ? size == 0 || startOf(0) > blockStart
+				: index < size && startOf(index) <= blockStart && (index + 1 == size || startOf(index + 1) > blockStart);
+		if (!valid) {
+			if (++this.offsetIndexMisses > table.length / 64)
+				indexOffsets();
+			return Integer.MIN_VALUE;
+		}
+		while (index + 1 < size && startOf(index + 1) <= positionInSource)
+			index++;
+		if (forward && (index < 0 || endOf(index) < positionInSource))
+			index++;
+		return index;
+	}
+
+	private int findIndexBinary(int positionInSource, boolean forward) {
 		int left = 0, right = size() - 1;
 		while (left < right) {
 			int index = (right + left) / 2;
-			Token token = get(index);
-			if (token.originalStart <= positionInSource && positionInSource <= token.originalEnd) {
+			int start = startOf(index), end = endOf(index);
+			if (start <= positionInSource && positionInSource <= end) {
 				left = index;
 				break;
 			}
-			if (token.originalEnd < positionInSource) {
+			if (end < positionInSource) {
 				left = index + 1;
 			} else {
-				assert token.originalStart > positionInSource;
+				assert start > positionInSource;
 				right = index - 1;
 			}
 		}
 		int index = left;
-		if (!forward && get(index).originalStart > positionInSource)
+		if (!forward && startOf(index) > positionInSource)
 			index--;
-		if (forward && get(index).originalEnd < positionInSource)
+		if (forward && endOf(index) < positionInSource)
 			index++;
-		while (tokenType >= 0 && get(index).tokenType != tokenType) {
-			index += forward ? 1 : -1;
-		}
 		return index;
 	}
 
+	private int startOf(int index) {
+		return this.store != null ? this.store.start(index) : get(index).originalStart;
+	}
+
+	private int endOf(int index) {
+		return this.store != null ? this.store.end(index) : get(index).originalEnd;
+	}
+
+	private int typeOf(int index) {
+		return this.store != null ? this.store.type(index) : get(index).tokenType;
+	}
+
 	@Override
 	public Iterator<Token> iterator() {
 		return this.tokens.iterator();
@@ -235,7 +345,22 @@ public class TokenManager implements Iterable<Token> {
 		return countLineBreaksBetween(this.source, start, end);
 	}
 
+	/**
+	 * @return the same as {@link #countLineBreaksBetween(Token, Token)} for the token at given index and the one
+	 *         before it
+	 */
+	public int countLineBreaksBefore(int tokenIndex) {
+		if (this.store != null)
+			return this.store.lineBreaks(tokenIndex, this);
+		return countLineBreaksBetween(tokenIndex > 0 ? get(tokenIndex - 1) : null, get(tokenIndex));
+	}
+
 	public int countLineBreaksBetween(String text, int startPosition, int endPosition) {
+		if (text == this.source && endPosition - startPosition > SCAN_LIMIT) {
+			int result = this.lineIndex.countLineBreaks(startPosition, endPosition);
+			if (result >= 0)
+				return result;
+		}
 		int result = 0;
 		for (int i = startPosition; i < endPosition; i++) {
 			switch (text.charAt(i)) {
@@ -254,11 +379,12 @@ public class TokenManager implements Iterable<Token> {
 		return result;
 	}
 
-	private TokenTraverser positionInLineCounter = new TokenTraverser() {
-		private boolean isNLSTagInLine = false;
+	private class PositionInLineCounter extends TokenTraverser {
+		boolean isNLSTagInLine = false;
 
 		@Override
 		protected boolean token(Token traversed, int index) {
+			cacheLinePosition(index, this.counter, this.isNLSTagInLine);
 			if (index == this.value) {
 				this.isNLSTagInLine = false;
 				return false;
@@ -281,7 +407,20 @@ public class TokenManager implements Iterable<Token> {
 				this.counter++;
 			return true;
 		}
-	};
+	}
+
+	private final PositionInLineCounter positionInLineCounter = new PositionInLineCounter();
+
+	/*
+	 * Positions of the tokens of the line last measured by getPositionInLine(), starting with the token at
+	 * lineCacheStart, with the layout stamps of the tokens they were computed from. A position is reused as long as
+	 * the stamps of its token and all the tokens before it in the line are the same.
+	 */
+	private int lineCacheStart = -1;
+	private int lineCacheSize;
+	private int[] lineCachePositions = new int[16];
+	private int[] lineCacheStamps = new int[16];
+	private boolean[] lineCacheNLSTags = new boolean[16];
 
 	public int getPositionInLine(int tokenIndex) {
 		Token token = get(tokenIndex);
@@ -294,19 +433,75 @@ public class TokenManager implements Iterable<Token> {
 		if (firstTokenIndex == tokenIndex)
 			return startingPosition;
 
-		this.positionInLineCounter.value = tokenIndex;
+		int validSize = validateLineCache(firstTokenIndex, tokenIndex);
+		if (validSize > tokenIndex - firstTokenIndex)
+			return this.lineCachePositions[tokenIndex - firstTokenIndex];
+		int startIndex = firstTokenIndex;
 		this.positionInLineCounter.counter = startingPosition;
-		traverse(firstTokenIndex, this.positionInLineCounter);
+		this.positionInLineCounter.isNLSTagInLine = false;
+		if (validSize > 0) {
+			// continue from the last position still valid
+			startIndex += validSize - 1;
+			this.positionInLineCounter.counter = this.lineCachePositions[validSize - 1];
+			this.positionInLineCounter.isNLSTagInLine = this.lineCacheNLSTags[validSize - 1];
+		}
+		this.positionInLineCounter.value = tokenIndex;
+		traverse(startIndex, this.positionInLineCounter);
 		return this.positionInLineCounter.counter;
 	}
 
+	/**
+	 * @return the number of cached positions for the line starting at given index that are still valid up to given
+	 *         index
+	 */
+	private int validateLineCache(int lineStartIndex, int tokenIndex) {
+		if (this.lineCacheStart != lineStartIndex) {
+			this.lineCacheStart = lineStartIndex;
+			this.lineCacheSize = 0;
+		}
+		int size = Math.min(this.lineCacheSize, tokenIndex - lineStartIndex + 1);
+		for (int i = 0; i < size; i++) {
+			if (this.lineCacheStamps[i] != getLayoutStamp(get(lineStartIndex + i))) {
+				this.lineCacheSize = i;
+				return i;
+			}
+		}
+		return size;
+	}
+
+	private void cacheLinePosition(int tokenIndex, int position, boolean isNLSTagInLine) {
+		int i = tokenIndex - this.lineCacheStart;
+		if (i >= this.lineCachePositions.length) {
+			int length = Math.max(i + 1, this.lineCachePositions.length * 2);
+			this.lineCachePositions = Arrays.copyOf(this.lineCachePositions, length);
+			this.lineCacheStamps = Arrays.copyOf(this.lineCacheStamps, length);
+			this.lineCacheNLSTags = Arrays.copyOf(this.lineCacheNLSTags, length);
+		}
+		this.lineCachePositions[i] = position;
+		this.lineCacheStamps[i] = getLayoutStamp(get(tokenIndex));
+		this.lineCacheNLSTags[i] = isNLSTagInLine;
+		this.lineCacheSize = i + 1;
+	}
+
+	/**
+	 * @return a number that changes when given token or the tokens of its internal structure change their layout
+	 */
+	private static int getLayoutStamp(Token token) {
+		int stamp = token.getLayoutVersion();
+		List<Token> internalStructure = token.getInternalStructure();
+		if (internalStructure != null) {
+			stamp = 31 * stamp + internalStructure.size();
+			for (Token structureToken : internalStructure)
+				stamp = 31 * stamp + structureToken.getLayoutVersion();
+		}
+		return stamp;
+	}
+
 	public int findSourcePositionInLine(int position) {
-		int lineStartPosition = position;
 		char c;
-		while (lineStartPosition > 0 && (c = charAt(lineStartPosition)) != '\r' && c != '\n')
-			lineStartPosition--;
-		int positionInLine = getLength(lineStartPosition, position - 1, 0);
-		return positionInLine;
+		if (position == 0 || (c = charAt(position)) == '\r' || c == '\n')
+			return 0;
+		return this.lineIndex.getColumn(position);
 	}
 
 	private String getEscapedTokenString(Token token) {
@@ -328,13 +523,18 @@ public class TokenManager implements Iterable<Token> {
 	 * @return actual length of given token, considering tabs and escaping characters as HTML entities
 	 */
 	public int getLength(Token token, int startPosition) {
-		int length = getLength(token.originalStart, token.originalEnd, startPosition);
+		if (!token.isTextChecked())
+			token.setTextChecked(hasTabsOrLineBreaks(token.originalStart, token.originalEnd));
+		int length = token.hasTabsOrLineBreaks() ? getLength(token.originalStart, token.originalEnd, startPosition)
+				: token.countChars();
 		if (token.isToEscape()) {
 			if (token.getLineBreaksBefore() > 0 && charAt(token.originalStart) == '@') {
 				length += 4; // 4 = "&#64;".length() - "@".length()
 			} else if (token.tokenType == TokenNameNotAToken) {
-				Matcher matcher = COMMENT_LINE_ANNOTATION_PATTERN.matcher(token.toString(this.source));
-				if (matcher.find()) {
+				if (!token.isAnnotationChecked())
+					token.setAnnotationChecked(
+							COMMENT_LINE_ANNOTATION_PATTERN.matcher(token.toString(this.source)).find());
+				if (token.hasAnnotation()) {
 					length += 4; // 4 = "&#64;".length() - "@".length()
 				}
 			}
@@ -342,6 +542,15 @@ public class TokenManager implements Iterable<Token> {
 		return length;
 	}
 
+	private boolean hasTabsOrLineBreaks(int originalStart, int originalEnd) {
+		for (int i = originalStart; i <= originalEnd; i++) {
+			char c = this.source.charAt(i);
+			if (c == '\t' || c == '\r' || c == '\n')
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Calculates the length of a source code fragment.
 	 * @param originalStart the first position of the source code fragment
@@ -350,6 +559,8 @@ public class TokenManager implements Iterable<Token> {
 	 * @return length, considering tabs and escaping characters as HTML entities
 	 */
 	public int getLength(int originalStart, int originalEnd, int startPosition) {
+		if (originalEnd - originalStart > SCAN_LIMIT)
+			return this.lineIndex.getLength(originalStart, originalEnd, startPosition);
 		int position = startPosition;
 		for (int i = originalStart; i <= originalEnd; i++) {
 			switch (this.source.charAt(i)) {
@@ -407,8 +618,7 @@ public class TokenManager implements Iterable<Token> {
 	}
 
 	private boolean tokenInside(ASTNode node, int index) {
-		return get(index).originalStart >= node.getStartPosition()
-				&& get(index).originalEnd <= node.getStartPosition() + node.getLength();
+		return startOf(index) >= node.getStartPosition() && endOf(index) <= node.getStartPosition() + node.getLength();
 	}
 
 	public void addNLSAlignIndex(int index, int align) {
@@ -456,6 +666,9 @@ public class TokenManager implements Iterable<Token> {
 				unformatted.spaceAfter();
 			this.tokens.set(index1, unformatted);
 			this.tokens.subList(index1 + 1, index2 + 1).clear();
+			if (this.store != null)
+				this.store.replace(index1, index2, unformatted);
+			this.lineCacheStart = -1;
 		}
 	}
 }
@@ -0,0 +1,114 @@
+package org.eclipse.jdt.neon.formatter;
+
+import java.util.Arrays;
+
+/**
+ * The properties of the tokens of a source that never change, stored in one array per property in token order, so
+ * that {@link TokenManager} can search and scan them without loading a {@link Token} object per step. The tokens stay
+ * the objects the formatter works with; the arrays are kept in step with the token list by
+ * {@link TokenManager#add(Token)}, {@link TokenManager#insert(int, Token)}, {@link TokenManager#remove(int)} and
+ * {@link TokenManager#applyFormatOff()}.
+ */
+final class TokenStore {
+
+	private int[] starts;
+	private int[] ends;
+	private int[] types;
+	/**
+	 * Line breaks in the source between the end of the previous token, or the source start, and each token, counted
+	 * when first asked for. Unknown counts are negative.
+	 */
+	private int[] lineBreaks;
+	private int size;
+
+	TokenStore(int expectedSize) {
+		int capacity = expectedSize + 8;
+		this.starts = new int[capacity];
+		this.ends = new int[capacity];
+		this.types = new int[capacity];
+		this.lineBreaks = new int[capacity];
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	int start(int index) {
+		return this.starts[index];
+	}
+
+	int end(int index) {
+		return this.ends[index];
+	}
+
+	int type(int index) {
+		return this.types[index];
+	}
+
+	int lineBreaks(int index, TokenManager tokenManager) {
+		int result = this.lineBreaks[index];
+		if (result < 0) {
+			int start = index > 0 ? this.ends[index - 1] + 1 : 0;
+			result = tokenManager.countLineBreaksBetween(tokenManager.getSource(), start, this.starts[index]);
+			this.lineBreaks[index] = result;
+		}
+		return result;
+	}
+
+	void insert(int index, Token token) {
+		if (this.size == this.starts.length)
+			setCapacity(this.size + (this.size >> 1) + 8);
+		shift(index, index + 1);
+		this.starts[index] = token.originalStart;
+		this.ends[index] = token.originalEnd;
+		this.types[index] = token.tokenType;
+		this.lineBreaks[index] = -1;
+		forgetLineBreaks(index + 1);
+	}
+
+	/**
+	 * Replaces the tokens from {@code fromIndex} to {@code toIndex} inclusive with given token, or removes them if it
+	 * is {@code null}.
+	 */
+	void replace(int fromIndex, int toIndex, Token token) {
+		int index = fromIndex;
+		if (token != null) {
+			this.starts[index] = token.originalStart;
+			this.ends[index] = token.originalEnd;
+			this.types[index] = token.tokenType;
+			this.lineBreaks[index] = -1;
+			index++;
+		}
+		shift(toIndex + 1, index);
+		forgetLineBreaks(index);
+	}
+
+	private void shift(int fromIndex, int toIndex) {
+		int count = this.size - fromIndex;
+		System.arraycopy(this.starts, fromIndex, this.starts, toIndex, count);
+		System.arraycopy(this.ends, fromIndex, this.ends, toIndex, count);
+		System.arraycopy(this.types, fromIndex, this.types, toIndex, count);
+		System.arraycopy(this.lineBreaks, fromIndex, this.lineBreaks, toIndex, count);
+		this.size += toIndex - fromIndex;
+	}
+
+	/**
+	 * Frees the room left for more tokens.
+	 */
+	void trim() {
+		if (this.size < this.starts.length)
+			setCapacity(this.size);
+	}
+
+	private void setCapacity(int capacity) {
+		this.starts = Arrays.copyOf(this.starts, capacity);
+		this.ends = Arrays.copyOf(this.ends, capacity);
+		this.types = Arrays.copyOf(this.types, capacity);
+		this.lineBreaks = Arrays.copyOf(this.lineBreaks, capacity);
+	}
+
+	private void forgetLineBreaks(int index) {
+		if (index < this.size)
+			this.lineBreaks[index] = -1;
+	}
+}
@@ -23,11 +23,13 @@ import java.util.List;
 
 import org.eclipse.jdt.internal.compiler.parser.ScannerHelper;
 import org.eclipse.jdt.internal.formatter.DefaultCodeFormatterOptions;
+import org.eclipse.jdt.legacy.formatter.jfr.WrapSearchEvent;
 import org.eclipse.jdt.neon.formatter.Token;
 import org.eclipse.jdt.neon.formatter.TokenManager;
 import org.eclipse.jdt.neon.formatter.TokenTraverser;
 import org.eclipse.jdt.neon.formatter.Token.WrapMode;
 import org.eclipse.jdt.neon.formatter.Token.WrapPolicy;
+import org.eclipse.jdt.neon.formatter.linewrap.WrapStatistics.RestartCause;
 import org.eclipse.jdt.neon.formatter.linewrap.WrapExecutor;
 
 @SuppressWarnings("restriction")
@@ -95,10 +97,12 @@ public class WrapExecutor {
 	private static class WrapRestartThrowable extends Throwable {
 		private static final long serialVersionUID = -2980600077230803443L; // backward compatible
 
+		public final RestartCause cause;
 		public final int topPriorityWrap;
 
-		public WrapRestartThrowable(int topPriorityWrap) {
+		public WrapRestartThrowable(RestartCause cause, int topPriorityWrap) {
 			super(null, null, false, false);
+			this.cause = cause;
 			this.topPriorityWrap = topPriorityWrap;
 		}
 	}
@@ -288,26 +292,44 @@ public class WrapExecutor {
 
 	private final WrapInfo wrapInfoTemp = new WrapInfo();
 
+	private final WrapStatistics statistics = new WrapStatistics();
+	private int searchDepth;
+	private int applyDepth;
+
 	public WrapExecutor(TokenManager tokenManager, DefaultCodeFormatterOptions options) {
 		this.tm = tokenManager;
 		this.options = options;
 		this.lineAnalyzer = new LineAnalyzer(tokenManager, options);
 	}
 
+	public WrapStatistics getStatistics() {
+		return this.statistics;
+	}
+
 	public void executeWraps() {
 		int index = 0;
 		while (index < this.tm.size()) {
 			Token token = this.tm.get(index);
+			WrapSearchEvent event = WrapSearchEvent.begin();
+			int lineStartIndex = index;
+			int searchCountBefore = this.statistics.getSearches();
+			int restarts = 0;
 			while (true) {
 				try {
 					int currentIndent = getWrapIndent(token);
 					this.wrapSearchResults.clear();
+					this.applyDepth = 0;
 					index = applyWraps(index, currentIndent);
 					break;
 				} catch (WrapRestartThrowable e) {
+					this.statistics.restarted(e.cause);
 					handleTopPriorityWraps(e);
+					restarts++;
 				}
 			}
+			if (event != null)
+				event.commit(token.originalStart, index - lineStartIndex,
+						this.statistics.getSearches() - searchCountBefore, restarts);
 			this.wrapSearchResults.clear();
 			this.usedTopPriorityWraps.clear();
 		}
@@ -316,6 +338,13 @@ public class WrapExecutor {
 	}
 
 	private int applyWraps(int index, int indent) throws WrapRestartThrowable {
+		this.statistics.applyStarted(++this.applyDepth);
+		int end = applyWrapsInLine(index, indent);
+		this.applyDepth--; // a restart unwinds everything and resets the depth in executeWraps()
+		return end;
+	}
+
+	private int applyWrapsInLine(int index, int indent) throws WrapRestartThrowable {
 		WrapInfo wrapInfo = findWrapsCached(index, indent).nextWrap;
 		Token token = this.tm.get(index);
 		index++;
@@ -377,8 +406,11 @@ public class WrapExecutor {
 		this.wrapInfoTemp.wrapTokenIndex = startTokenIndex;
 		this.wrapInfoTemp.indent = indent;
 		WrapResult wrapResult = this.wrapSearchResults.get(this.wrapInfoTemp);
-		if (wrapResult == null && this.wrapSearchResults.containsKey(this.wrapInfoTemp))
+		if (wrapResult == null && this.wrapSearchResults.containsKey(this.wrapInfoTemp)) {
+			this.statistics.memoHit();
 			return null; // no wrap needed
+		}
+		boolean found = wrapResult != null;
 
 		// pre-existing result may be based on different wrapping of earlier tokens and therefore be wrong
 		WrapResult wr = wrapResult;
@@ -393,18 +425,23 @@ public class WrapExecutor {
 		}
 
 		if (wrapResult == null) {
+			this.statistics.memoMissed(found);
 			Token token = this.tm.get(startTokenIndex);
 			boolean wasLineBreak = token.getLineBreaksBefore() > 0;
 			token.breakBefore();
+			this.statistics.searchStarted(++this.searchDepth);
 			try {
 				wrapResult = findWraps(startTokenIndex, indent);
 			} finally {
+				this.searchDepth--;
 				if (!wasLineBreak)
 					token.clearLineBreaksBefore();
 			}
 
 			WrapInfo wrapInfo = new WrapInfo(startTokenIndex, indent);
 			this.wrapSearchResults.put(wrapInfo, wrapResult);
+		} else {
+			this.statistics.memoHit();
 		}
 		return wrapResult;
 	}
@@ -594,7 +631,7 @@ public class WrapExecutor {
 			end.setWrapPolicy(new WrapPolicy(WrapMode.WHERE_NECESSARY, separateLinesOnWrapFrom, 0));
 		}
 		end.breakBefore();
-		throw new WrapRestartThrowable(-1);
+		throw new WrapRestartThrowable(RestartCause.SEPARATE_LINES_ON_WRAP, -1);
 	}
 
 	private void checkForceWrap(Token token, int index, int currentIndent) throws WrapRestartThrowable {
@@ -607,7 +644,7 @@ public class WrapExecutor {
 			WrapPolicy lineStartPolicy = this.tm.get(this.tm.findFirstTokenInLine(index, false, true)).getWrapPolicy();
 			if (lineStartPolicy != null && lineStartPolicy.wrapMode != WrapMode.FORCED) {
 				token.breakBefore();
-				throw new WrapRestartThrowable(-1);
+				throw new WrapRestartThrowable(RestartCause.FORCE_WRAP, -1);
 			}
 		}
 	}
@@ -616,7 +653,7 @@ public class WrapExecutor {
 		WrapPolicy wrapPolicy = this.tm.get(wrapIndex).getWrapPolicy();
 		if (wrapPolicy != null && wrapPolicy.wrapMode == WrapMode.TOP_PRIORITY
 				&& !this.usedTopPriorityWraps.contains(wrapPolicy))
-			throw new WrapRestartThrowable(wrapIndex);
+			throw new WrapRestartThrowable(RestartCause.TOP_PRIORITY_WRAP, wrapIndex);
 	}
 
 	private void handleTopPriorityWraps(WrapRestartThrowable restartException) {
@@ -187,6 +187,8 @@ public class WrapPreparator extends ASTVisitor {
 
 	private final LegacyFormatterOptions legacy;
 
+	private WrapStatistics wrapStatistics;
+
 	public WrapPreparator(TokenManager tokenManager, DefaultCodeFormatterOptions options, int kind) {
 		this.tm = tokenManager;
 		this.options = options;
@@ -557,7 +559,7 @@ public class WrapPreparator extends ASTVisitor {
 			if (!this.options.join_wrapped_lines) {
 				// TODO there should be an option for never joining wraps on opposite side of the operator
 				if (binopt.wrapBeforeBinaryOperator()) {
-					if (this.tm.countLineBreaksBetween(this.tm.get(indexAfter - 1), this.tm.get(indexAfter)) > 0)
+					if (this.tm.countLineBreaksBefore(indexAfter) > 0)
 						this.wrapIndexes.add(indexAfter);
 				} else {
 					if (this.tm.countLineBreaksBetween(this.tm.get(indexBefore), this.tm.get(indexBefore - 1)) > 0)
@@ -602,7 +604,7 @@ public class WrapPreparator extends ASTVisitor {
 			// if there is a line break before the closing brace, formatter should treat it as a valid wrap to preserve
 			int closingBraceIndex = this.tm.lastIndexIn(node, TokenNameRBRACE);
 			Token closingBrace = this.tm.get(closingBraceIndex);
-			if (this.tm.countLineBreaksBetween(this.tm.get(closingBraceIndex - 1), closingBrace) == 1) {
+			if (this.tm.countLineBreaksBefore(closingBraceIndex) == 1) {
 				int openingBraceIndex = this.tm.firstIndexIn(node, TokenNameLBRACE);
 				closingBrace.setWrapPolicy(new WrapPolicy(WrapMode.WHERE_NECESSARY, openingBraceIndex,
 						closingBraceIndex, 0, this.currentDepth, 1, true, false));
@@ -1001,12 +1003,22 @@ public class WrapPreparator extends ASTVisitor {
 		preserveExistingLineBreaks();
 		if (regions != null)
 			applyBreaksOutsideRegions(regions);
-		new WrapExecutor(this.tm, this.options).executeWraps();
+		WrapExecutor wrapExecutor = new WrapExecutor(this.tm, this.options);
+		wrapExecutor.executeWraps();
+		this.wrapStatistics = wrapExecutor.getStatistics();
 		this.fieldAligner.alignComments();
 		wrapComments();
 		fixEnumConstantIndents(astRoot);
 	}
 
+	/**
+	 * @return the statistics of the wrap search done by {@link #finishUp(ASTNode, IRegion[])}, <code>null</code>
+	 *         before it's called
+	 */
+	public WrapStatistics getWrapStatistics() {
+		return this.wrapStatistics;
+	}
+
 	private void preserveExistingLineBreaks() {
 		// normally n empty lines = n+1 line breaks, but not at the file start and end
 		Token first = this.tm.get(0);
@@ -0,0 +1,120 @@
+package org.eclipse.jdt.neon.formatter.linewrap;
+
+import java.util.Locale;
+
+/**
+ * Counts the work done by the wrap search of a format call: how often {@link WrapExecutor} looks for the best wraps
+ * of a line, how often the memoized results can be reused, how often the search starts over and how deep it recurses.
+ *
+ * @see org.eclipse.jdt.neon.formatter.FormatterListener#wrapsExecuted(WrapStatistics)
+ */
+public class WrapStatistics {
+
+	/**
+	 * The reasons for the wrap search of a top level line to start over.
+	 */
+	public enum RestartCause {
+		/** A top priority wrap was needed, so all the wraps of its group are applied. */
+		TOP_PRIORITY_WRAP,
+		/** A token would be less indented when wrapped than its line, so it's wrapped. */
+		FORCE_WRAP,
+		/** A wrap happened in an element that must then have all its parts on separate lines. */
+		SEPARATE_LINES_ON_WRAP
+	}
+
+	private int searches;
+	private int memoHits;
+	private int memoMisses;
+	private int invalidations;
+	private final int[] restarts = new int[RestartCause.values().length];
+	private int maxSearchDepth;
+	private int maxApplyDepth;
+
+	void searchStarted(int depth) {
+		this.searches++;
+		this.maxSearchDepth = Math.max(this.maxSearchDepth, depth);
+	}
+
+	void applyStarted(int depth) {
+		this.maxApplyDepth = Math.max(this.maxApplyDepth, depth);
+	}
+
+	void memoHit() {
+		this.memoHits++;
+	}
+
+	void memoMissed(boolean invalidated) {
+		if (invalidated)
+			this.invalidations++;
+		else
+			this.memoMisses++;
+	}
+
+	void restarted(RestartCause cause) {
+		this.restarts[cause.ordinal()]++;
+	}
+
+	/**
+	 * @return the number of times the best wraps for a line were searched
+	 */
+	public int getSearches() {
+		return this.searches;
+	}
+
+	/**
+	 * @return the number of times a memoized search result could be reused
+	 */
+	public int getMemoHits() {
+		return this.memoHits;
+	}
+
+	/**
+	 * @return the number of times there was no memoized search result
+	 */
+	public int getMemoMisses() {
+		return this.memoMisses;
+	}
+
+	/**
+	 * @return the number of memoized search results thrown away because earlier tokens were wrapped differently
+	 *         since they were computed
+	 */
+	public int getInvalidations() {
+		return this.invalidations;
+	}
+
+	public int getRestarts(RestartCause cause) {
+		return this.restarts[cause.ordinal()];
+	}
+
+	public int getTotalRestarts() {
+		int total = 0;
+		for (int count : this.restarts)
+			total += count;
+		return total;
+	}
+
+	/**
+	 * @return the deepest nesting of searches for the wraps of a line, each searching the rest of the line after
+	 *         a potential wrap
+	 */
+	public int getMaxSearchDepth() {
+		return this.maxSearchDepth;
+	}
+
+	/**
+	 * @return the deepest nesting of wrapped sub-lines when the wraps found are applied
+	 */
+	public int getMaxApplyDepth() {
+		return this.maxApplyDepth;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"searches=%d memoHits=%d memoMisses=%d invalidations=%d restarts=%d (topPriority=%d forceWrap=%d separateLines=%d) maxSearchDepth=%d maxApplyDepth=%d", //$NON-NLS-1$
+				this.searches, this.memoHits, this.memoMisses, this.invalidations, getTotalRestarts(),
+				getRestarts(RestartCause.TOP_PRIORITY_WRAP), getRestarts(RestartCause.FORCE_WRAP),
+				getRestarts(RestartCause.SEPARATE_LINES_ON_WRAP), this.maxSearchDepth, this.maxApplyDepth);
+	}
+}